@@ -23,7 +23,6 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
-import android.os.AsyncTask;
 import android.util.Log;
 import androidx.leanback.widget.ObjectAdapter;
 
@@ -40,8 +39,6 @@ import org.xmlpull.v1.XmlPullParserException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.net.URLEncoder;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -52,7 +49,7 @@ import java.util.Objects;
 import java.util.TimeZone;
 
 
-public class AsyncBackendCall extends AsyncTask<Integer, Void, Void> {
+public class AsyncBackendCall extends BackendScheduler.Request {
 
     public interface OnBackendCallListener {
         default void onPostExecute(AsyncBackendCall taskRunner) {}
@@ -65,6 +62,8 @@ public class AsyncBackendCall extends AsyncTask<Integer, Void, Void> {
     private OnBackendCallListener mBackendCallListener;
     private boolean mWatched;
     private int [] mTasks;
+    private Integer [] mRequestedTasks;
+    private String mSerialKey;
     private long mFileLength = -1;
     private long mRecordId = -1;
     private long mRecordedId = -1;
@@ -99,10 +98,107 @@ public class AsyncBackendCall extends AsyncTask<Integer, Void, Void> {
         mValue = valueA;
         mBackendCallListener = backendCallListener;
         mWatched = watched;
+        setOwner(backendCallListener);
     }
 
     public AsyncBackendCall(OnBackendCallListener backendCallListener) {
         mBackendCallListener = backendCallListener;
+        setOwner(backendCallListener);
+    }
+
+    /**
+     * Queue the tasks to be run in the background. The listener is
+     * called on the main thread when all are done. If no lane has
+     * been set one is chosen from the tasks.
+     */
+    public AsyncBackendCall execute(Integer ... tasks) {
+        mRequestedTasks = tasks;
+        if (getLane() < 0)
+            setLane(defaultLane(tasks));
+        if (rowAdapter != null)
+            mSerialKey = "rowAdapter";
+        else if (mVideo != null)
+            mSerialKey = mVideo.videoUrl;
+        BackendScheduler.getInstance().submit(this);
+        return this;
+    }
+
+    /**
+     * Cancel calls for a listener that is going away. Calls that update
+     * the backend still run but the listener is not called.
+     */
+    public static void cancelAll(OnBackendCallListener listener) {
+        BackendScheduler.getInstance().cancel(listener);
+    }
+
+    private static int defaultLane(Integer [] tasks) {
+        int lane = BackendScheduler.LANE_INTERACTIVE;
+        for (int task : tasks) {
+            switch (task) {
+                case Video.ACTION_LIVETV:
+                case Video.ACTION_FILELENGTH:
+                    return BackendScheduler.LANE_PLAYBACK;
+                case Video.ACTION_GUIDE:
+                case Video.ACTION_BACKEND_INFO:
+                case Video.ACTION_BACKEND_INFO_HTML:
+                    lane = BackendScheduler.LANE_BACKGROUND;
+                    break;
+            }
+        }
+        return lane;
+    }
+
+    @Override
+    protected String getSerialKey() {
+        return mSerialKey;
+    }
+
+    // Recording calls go to the backend that has the recording. If that
+    // backend has not been looked up yet the lookup uses the master.
+    @Override
+    protected String getHost() {
+        if (mVideo == null)
+            return null;
+        return XmlNode.getKnownIpAndPort(mVideo.hostname);
+    }
+
+    @Override
+    protected boolean isReadOnly() {
+        for (int task : mRequestedTasks) {
+            switch (task) {
+                case Video.ACTION_REFRESH:
+                case Video.ACTION_FILELENGTH:
+                case Video.ACTION_BACKEND_INFO:
+                case Video.ACTION_BACKEND_INFO_HTML:
+                case Video.ACTION_GUIDE:
+                case Video.ACTION_GETPROGRAMDETAILS:
+                case Video.ACTION_GETRECORDSCHEDULE:
+                case Video.ACTION_GETPLAYGROUPLIST:
+                case Video.ACTION_GETRECGROUPLIST:
+                case Video.ACTION_GETRECSTORAGEGROUPLIST:
+                case Video.ACTION_GETINPUTLIST:
+                case Video.ACTION_GETRECORDSCHEDULELIST:
+                case Video.ACTION_GETRECRULEFILTERLIST:
+                case Video.ACTION_GETUPCOMINGLIST:
+                case Video.ACTION_SEARCHGUIDE:
+                case Video.ACTION_DUMMY:
+                case Video.ACTION_PAUSE:
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void doWork() {
+        doInBackground(mRequestedTasks);
+    }
+
+    @Override
+    protected void onComplete() {
+        onPostExecute(null);
     }
 
     public void setBookmark(long mValue) {
@@ -161,6 +257,10 @@ public class AsyncBackendCall extends AsyncTask<Integer, Void, Void> {
         this.mStartTime = mStartTime;
     }
 
+    public Date getStartTime() {
+        return mStartTime;
+    }
+
     public void setEndTime(Date mEndTime) {
         this.mEndTime = mEndTime;
     }
@@ -200,10 +300,11 @@ public class AsyncBackendCall extends AsyncTask<Integer, Void, Void> {
     protected Void doInBackground(Integer ... tasks) {
         mTasks = new int[tasks.length];
         MainActivity main = MainActivity.getContext();
-        HttpURLConnection urlConnection = null;
         int videoIndex = 0;
         int taskIndex = -1;
         for(;;) {
+            if (isStopped())
+                break;
             // If there is a rowAdapter, take each video in the adapter and run
             // all tasks on it.
             taskIndex++;
@@ -463,6 +564,8 @@ public class AsyncBackendCall extends AsyncTask<Integer, Void, Void> {
                         if (sqlCount == 0) {
                             // Try an insert instead
                             values.put(VideoContract.StatusEntry.COLUMN_VIDEO_URL, mVideo.videoUrl);
+                            values.put(VideoContract.StatusEntry.COLUMN_URL_HASH,
+                                    VideoContract.urlHash(mVideo.videoUrl));
                             // Insert the new row, returning the primary key value of the new row
                             long newRowId = db.insert(VideoContract.StatusEntry.TABLE_NAME,
                                     null, values);
@@ -536,33 +639,11 @@ public class AsyncBackendCall extends AsyncTask<Integer, Void, Void> {
                         } catch (InterruptedException e) {
                         }
                         try {
-                            URL url = new URL(urlString);
-                            urlConnection = (HttpURLConnection) url.openConnection();
-                            urlConnection.addRequestProperty("Cache-Control", "no-cache");
-                            urlConnection.addRequestProperty("Accept-Encoding", "identity");
-                            urlConnection.setConnectTimeout(5000);
-                            urlConnection.setReadTimeout(30000);
-                            urlConnection.setRequestMethod("HEAD");
-                            Log.d(TAG, CLASS + " URL: " + urlString);
-                            urlConnection.connect();
-                            Log.d(TAG, CLASS + " Response: " + urlConnection.getResponseCode()
-                                    + " " + urlConnection.getResponseMessage());
-                            String strContentLeng = urlConnection.getHeaderField("Content-Length");
-                            if (strContentLeng != null)
-                                mFileLength = Long.parseLong(strContentLeng);
+                            mFileLength = BackendHttpClient.getContentLength(urlString, 30000);
                             if (mFileLength > mValue)
                                 break;
                         } catch (Exception e) {
-                            try {
-                                Log.d(TAG, CLASS + " Response: " + urlConnection.getResponseCode()
-                                        + " " + urlConnection.getResponseMessage());
-                            } catch (IOException ioException) {
-                                ioException.printStackTrace();
-                            }
                             Log.e(TAG, CLASS + " Exception getting file length.",e);
-                        } finally {
-                            if (urlConnection != null)
-                                urlConnection.disconnect();
                         }
                     }
                     break;
@@ -765,52 +846,28 @@ public class AsyncBackendCall extends AsyncTask<Integer, Void, Void> {
                     }
                     break;
                 case Video.ACTION_BACKEND_INFO_HTML:
-                    InputStream is = null;
                     urlString = null;
                     mStringResult = null;
                     try {
                         urlString = XmlNode.mythApiUrl(null,
                                 "/Status/GetStatusHTML");
-                        URL url = new URL(urlString);
-                        urlConnection = (HttpURLConnection) url.openConnection();
-                        urlConnection.addRequestProperty("Cache-Control", "no-cache");
-                        urlConnection.setConnectTimeout(5000);
-                        urlConnection.setReadTimeout(30000);
-                        Log.d(TAG, CLASS + " URL: " + urlString);
-                        is = urlConnection.getInputStream();
-                        Log.d(TAG, CLASS + " Response: " + urlConnection.getResponseCode()
-                                + " " + urlConnection.getResponseMessage());
-                        InputStreamReader reader = new InputStreamReader(is);
-                        char[] buffer = new char[1024];
-                        StringBuilder output = new StringBuilder();
-                        int leng = 0;
-                        for ( ; ; ) {
-                            leng = reader.read(buffer, 0, buffer.length);
-                            if (leng == -1)
-                                break;
-                            if (leng > 0)
-                                output.append(buffer, 0, leng);
-                        }
-                        mStringResult = output.toString();
-
+                        mStringResult = BackendHttpClient.request(urlString, null, 30000, true,
+                                (InputStream is) -> {
+                            InputStreamReader reader = new InputStreamReader(is);
+                            char[] buffer = new char[1024];
+                            StringBuilder output = new StringBuilder();
+                            int leng = 0;
+                            for ( ; ; ) {
+                                leng = reader.read(buffer, 0, buffer.length);
+                                if (leng == -1)
+                                    break;
+                                if (leng > 0)
+                                    output.append(buffer, 0, leng);
+                            }
+                            return output.toString();
+                        });
                     } catch (Exception e) {
-                        try {
-                            Log.d(TAG, CLASS + " Response: " + urlConnection.getResponseCode()
-                                    + " " + urlConnection.getResponseMessage());
-                        } catch (IOException ioException) {
-                            ioException.printStackTrace();
-                        }
                         Log.e(TAG, CLASS + " Exception getting backend status. " + urlString, e);
-                    } finally {
-                        if (urlConnection != null)
-                            urlConnection.disconnect();
-                        if (is != null) {
-                            try {
-                                is.close();
-                            } catch (IOException e) {
-                                Log.e(TAG, CLASS + " Exception on URL: " + urlString, e);
-                            }
-                        }
                     }
 
                     break;
@@ -1001,7 +1058,8 @@ public class AsyncBackendCall extends AsyncTask<Integer, Void, Void> {
                     try {
                         urlString = XmlNode.mythApiUrl(null,
                                         "/Dvr/" + method);
-                        xmlResult = XmlNode.fetch(urlString, null);
+                        // The lists that seldom change are cached
+                        xmlResult = BackendResponseCache.fetch(urlString);
                     } catch (Exception e) {
                         Log.e(TAG, CLASS + " Exception In " + method, e);
                     }
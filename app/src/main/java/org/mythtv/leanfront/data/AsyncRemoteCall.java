@@ -28,14 +28,13 @@ import android.util.JsonToken;
 import android.util.Log;
 
 import org.mythtv.leanfront.MyApplication;
+import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Locale;
@@ -94,36 +93,19 @@ public class AsyncRemoteCall extends AsyncTask<Integer, Void, Void> {
 
     public static int fetch(String urlString, String requestMethod, Parser parser) {
         int ret = 0;
-        URL url = null;
-        HttpURLConnection urlConnection = null;
-        InputStream is = null;
         try {
-            url = new URL(urlString);
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.addRequestProperty("Cache-Control", "no-cache");
-            urlConnection.setConnectTimeout(5000);
-            // 5 minutes - should never be this long.
-            urlConnection.setReadTimeout(300000);
-            if (requestMethod != null)
-                urlConnection.setRequestMethod(requestMethod);
-            is = urlConnection.getInputStream();
-            parser.parseStream(is);
+            BackendHttpClient.request(urlString, requestMethod,
+                    BackendHttpClient.TIMEOUT_DEFAULT, true,
+                    (InputStream in) -> {
+                        parser.parseStream(in);
+                        return null;
+                    });
         } catch(FileNotFoundException e) {
             Log.e(TAG, CLASS + " Exception accessing: " + urlString, e);
             ret = 404;
-        } catch(IOException e) {
+        } catch(IOException | XmlPullParserException e) {
             Log.e(TAG, CLASS + " Exception accessing: " + urlString, e);
             ret = 500;
-        } finally {
-            if (urlConnection != null)
-                urlConnection.disconnect();
-            if (is != null) {
-                try {
-                    is.close();
-                } catch (IOException e) {
-                    Log.e(TAG, CLASS + " Exception closing stream: " + urlString, e);
-                }
-            }
         }
         return ret;
     }
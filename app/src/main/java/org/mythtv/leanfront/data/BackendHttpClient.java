@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2021 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.util.Log;
+
+import org.mythtv.leanfront.model.Settings;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Shared HTTP client for all service calls.
+ *
+ * The platform HttpURLConnection keeps a pool of idle connections per host,
+ * but only reuses a connection if the response body has been read to the end
+ * and closed without calling disconnect(). All requests go through here so that
+ * this is done consistently. disconnect() is only used after an error, when
+ * the connection may be in an unknown state.
+ *
+ * XML responses are requested with gzip and decompressed here.
+ * Latency of each request is logged and accumulated per endpoint.
+ */
+public class BackendHttpClient {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "BackendHttpClient";
+
+    // Read timeout to use the default from settings
+    public static final int TIMEOUT_DEFAULT = 0;
+
+    private static boolean sConfigured = false;
+    private static final HashMap<String, Metrics> sMetrics = new HashMap<>();
+
+    public interface StreamHandler<T> {
+        T handle(InputStream in) throws IOException, XmlPullParserException;
+    }
+
+    /**
+     * Latency statistics for one endpoint.
+     */
+    public static class Metrics {
+        public int count;
+        public int errors;
+        public long totalMs;
+        public long maxMs;
+        public long lastMs;
+
+        public long averageMs() {
+            return count == 0 ? 0 : totalMs / count;
+        }
+
+        @Override
+        public String toString() {
+            return "count:" + count + " errors:" + errors + " avg:" + averageMs()
+                    + "ms max:" + maxMs + "ms last:" + lastMs + "ms";
+        }
+    }
+
+    /**
+     * Set up connection pooling. The pool size is read by the platform
+     * when it first creates its connection pool, so this must be
+     * called before the first request.
+     */
+    public static synchronized void configure() {
+        if (sConfigured)
+            return;
+        int poolSize = Settings.getInt("pref_tweak_http_pool_size");
+        if (poolSize <= 0)
+            poolSize = 5;
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(poolSize));
+        sConfigured = true;
+    }
+
+    /**
+     * Perform a request and pass the response body to the handler.
+     *
+     * @param requestMethod null for GET, otherwise POST, etc.
+     * @param readTimeout read timeout in milliseconds, or TIMEOUT_DEFAULT
+     * @param gzip true to request a compressed response
+     * @return value returned by the handler
+     */
+    public static <T> T request(String urlString, String requestMethod, int readTimeout,
+                                boolean gzip, StreamHandler<T> handler)
+            throws IOException, XmlPullParserException {
+        configure();
+        long startTime = System.currentTimeMillis();
+        HttpURLConnection urlConnection = null;
+        InputStream is = null;
+        boolean success = false;
+        try {
+            urlConnection = open(urlString, requestMethod, readTimeout);
+            // Setting accept-encoding stops the platform from transparently
+            // decompressing, so it is handled below.
+            urlConnection.addRequestProperty("Accept-Encoding", gzip ? "gzip" : "identity");
+            Log.d(TAG, CLASS + " URL: " + urlString);
+            is = urlConnection.getInputStream();
+            Log.d(TAG, CLASS + " Response: " + urlConnection.getResponseCode()
+                    + " " + urlConnection.getResponseMessage());
+            if ("gzip".equalsIgnoreCase(urlConnection.getContentEncoding()))
+                is = new GZIPInputStream(is);
+            T ret = handler.handle(is);
+            drain(is);
+            success = true;
+            return ret;
+        } catch (IOException e) {
+            logResponse(urlConnection);
+            throw e;
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    Log.e(TAG, CLASS + " Exception closing stream: " + urlString, e);
+                }
+            }
+            // Only discard the connection if something went wrong.
+            if (!success && urlConnection != null)
+                urlConnection.disconnect();
+            record(urlString, startTime, success);
+        }
+    }
+
+    /**
+     * Response to a conditional GET.
+     */
+    public static class Response {
+        // HTTP_OK or HTTP_NOT_MODIFIED
+        public int code;
+        // Uncompressed body, null if not modified
+        public byte[] body;
+        public String etag;
+        public String lastModified;
+    }
+
+    /**
+     * GET a response body, with validators from an earlier response so that
+     * the backend can reply "not modified" instead of sending it again.
+     *
+     * @param etag ETag of the earlier response or null
+     * @param lastModified Last-Modified of the earlier response or null
+     */
+    public static Response conditionalGet(String urlString, String etag, String lastModified)
+            throws IOException {
+        configure();
+        long startTime = System.currentTimeMillis();
+        HttpURLConnection urlConnection = null;
+        InputStream is = null;
+        boolean success = false;
+        try {
+            urlConnection = open(urlString, null, TIMEOUT_DEFAULT);
+            urlConnection.addRequestProperty("Accept-Encoding", "gzip");
+            if (etag != null)
+                urlConnection.addRequestProperty("If-None-Match", etag);
+            if (lastModified != null)
+                urlConnection.addRequestProperty("If-Modified-Since", lastModified);
+            Log.d(TAG, CLASS + " URL: " + urlString);
+            is = urlConnection.getInputStream();
+            Response ret = new Response();
+            ret.code = urlConnection.getResponseCode();
+            Log.d(TAG, CLASS + " Response: " + ret.code
+                    + " " + urlConnection.getResponseMessage());
+            ret.etag = urlConnection.getHeaderField("ETag");
+            ret.lastModified = urlConnection.getHeaderField("Last-Modified");
+            if (ret.code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                drain(is);
+                // Keep the validators we sent if none came back
+                if (ret.etag == null)
+                    ret.etag = etag;
+                if (ret.lastModified == null)
+                    ret.lastModified = lastModified;
+            } else {
+                if ("gzip".equalsIgnoreCase(urlConnection.getContentEncoding()))
+                    is = new GZIPInputStream(is);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int len;
+                while ((len = is.read(buffer)) != -1)
+                    out.write(buffer, 0, len);
+                ret.body = out.toByteArray();
+            }
+            success = true;
+            return ret;
+        } catch (IOException e) {
+            logResponse(urlConnection);
+            throw e;
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    Log.e(TAG, CLASS + " Exception closing stream: " + urlString, e);
+                }
+            }
+            if (!success && urlConnection != null)
+                urlConnection.disconnect();
+            record(urlString, startTime, success);
+        }
+    }
+
+    /**
+     * Find the length of a file with a HEAD request.
+     *
+     * @return Content-Length or -1 if it was not supplied
+     */
+    public static long getContentLength(String urlString, int readTimeout) throws IOException {
+        configure();
+        long startTime = System.currentTimeMillis();
+        HttpURLConnection urlConnection = null;
+        boolean success = false;
+        try {
+            urlConnection = open(urlString, "HEAD", readTimeout);
+            urlConnection.addRequestProperty("Accept-Encoding", "identity");
+            Log.d(TAG, CLASS + " URL: " + urlString);
+            urlConnection.connect();
+            Log.d(TAG, CLASS + " Response: " + urlConnection.getResponseCode()
+                    + " " + urlConnection.getResponseMessage());
+            long ret = -1;
+            String strContentLeng = urlConnection.getHeaderField("Content-Length");
+            if (strContentLeng != null)
+                ret = Long.parseLong(strContentLeng);
+            // HEAD has no body, closing the empty stream releases the connection
+            urlConnection.getInputStream().close();
+            success = true;
+            return ret;
+        } catch (IOException e) {
+            logResponse(urlConnection);
+            throw e;
+        } finally {
+            if (!success && urlConnection != null)
+                urlConnection.disconnect();
+            record(urlString, startTime, success);
+        }
+    }
+
+    /**
+     * Snapshot of latency statistics, keyed by endpoint path.
+     */
+    public static synchronized Map<String, Metrics> getMetrics() {
+        HashMap<String, Metrics> ret = new HashMap<>();
+        for (Map.Entry<String, Metrics> entry : sMetrics.entrySet()) {
+            Metrics copy = new Metrics();
+            Metrics value = entry.getValue();
+            copy.count = value.count;
+            copy.errors = value.errors;
+            copy.totalMs = value.totalMs;
+            copy.maxMs = value.maxMs;
+            copy.lastMs = value.lastMs;
+            ret.put(entry.getKey(), copy);
+        }
+        return ret;
+    }
+
+    private static HttpURLConnection open(String urlString, String requestMethod, int readTimeout)
+            throws IOException {
+        URL url = new URL(urlString);
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.addRequestProperty("Cache-Control", "no-cache");
+        int connectTimeout = Settings.getInt("pref_tweak_http_connect_timeout");
+        if (connectTimeout <= 0)
+            connectTimeout = 5;
+        urlConnection.setConnectTimeout(connectTimeout * 1000);
+        if (readTimeout == TIMEOUT_DEFAULT) {
+            readTimeout = Settings.getInt("pref_tweak_http_read_timeout") * 1000;
+            if (readTimeout <= 0)
+                // 5 minutes - should never be this long.
+                readTimeout = 300000;
+        }
+        urlConnection.setReadTimeout(readTimeout);
+        if (requestMethod != null)
+            urlConnection.setRequestMethod(requestMethod);
+        return urlConnection;
+    }
+
+    // Read any remaining bytes so that the connection can be reused
+    private static void drain(InputStream is) throws IOException {
+        byte[] buffer = new byte[1024];
+        while (is.read(buffer) != -1) ;
+    }
+
+    private static void logResponse(HttpURLConnection urlConnection) {
+        if (urlConnection == null)
+            return;
+        try {
+            Log.d(TAG, CLASS + " Response: " + urlConnection.getResponseCode()
+                    + " " + urlConnection.getResponseMessage());
+        } catch (IOException e) {
+            Log.d(TAG, CLASS + " No response: " + e);
+        }
+    }
+
+    private static void record(String urlString, long startTime, boolean success) {
+        long elapsed = System.currentTimeMillis() - startTime;
+        String key = urlString;
+        try {
+            key = new URL(urlString).getPath();
+        } catch (IOException ignored) {
+        }
+        synchronized (BackendHttpClient.class) {
+            Metrics metrics = sMetrics.get(key);
+            if (metrics == null) {
+                metrics = new Metrics();
+                sMetrics.put(key, metrics);
+            }
+            metrics.count++;
+            if (!success)
+                metrics.errors++;
+            metrics.totalMs += elapsed;
+            metrics.lastMs = elapsed;
+            if (elapsed > metrics.maxMs)
+                metrics.maxMs = elapsed;
+        }
+        Log.d(TAG, CLASS + " " + key + " " + elapsed + " ms");
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2021 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.util.Log;
+
+import org.mythtv.leanfront.MyApplication;
+import org.mythtv.leanfront.ui.MainFragment;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Disk cache for responses to read only service calls whose results
+ * seldom change, such as the lists of recording groups and inputs.
+ *
+ * A cached response is used at once, however old it is. If it is older
+ * than the time to live for its endpoint it is revalidated in the
+ * background, using the ETag or Last-Modified from the backend if there
+ * was one, so that the next caller gets the up to date response.
+ * Only when there is nothing cached does the caller wait for the backend.
+ *
+ * Entries are keyed by the full URL, so each backend has its own.
+ */
+public class BackendResponseCache {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "BackendResponseCache";
+    private static final String DIR_NAME = "responses";
+    private static final long HOUR = 60L * 60 * 1000;
+
+    // Time to live by endpoint. Endpoints not listed are not cached.
+    private static final HashMap<String, Long> sTimeToLive = new HashMap<>();
+    static {
+        sTimeToLive.put("/Dvr/GetRecGroupList", HOUR);
+        sTimeToLive.put("/Dvr/GetPlayGroupList", 24 * HOUR);
+        sTimeToLive.put("/Dvr/GetRecStorageGroupList", 24 * HOUR);
+        sTimeToLive.put("/Dvr/GetInputList", 24 * HOUR);
+        sTimeToLive.put("/Dvr/GetRecRuleFilterList", 24 * HOUR);
+    }
+
+    // URLs with a background refresh queued or running
+    private static final HashSet<String> sRefreshing = new HashSet<>();
+    // Time of the last clear. Entries fetched before this are not used
+    // and responses to requests started before it are not stored.
+    private static long sClearTime;
+
+    private static class Entry {
+        String url;
+        String etag;
+        String lastModified;
+        long fetchTime;
+        byte[] body;
+    }
+
+    /**
+     * Fetch XML for a GET request, from the cache if possible.
+     * URLs that are not cached are fetched from the backend as usual.
+     *
+     * @return the XmlNode representation of the response
+     */
+    public static XmlNode fetch(String urlString)
+            throws IOException, XmlPullParserException {
+        long timeToLive = getTimeToLive(urlString);
+        if (timeToLive <= 0)
+            return XmlNode.fetch(urlString, null);
+        Entry entry = read(urlString);
+        if (entry != null) {
+            XmlNode ret = null;
+            try {
+                ret = parse(entry);
+            } catch (IOException | XmlPullParserException e) {
+                Log.w(TAG, CLASS + " Discarding bad entry for " + urlString + ": " + e);
+            }
+            if (ret != null) {
+                long age = System.currentTimeMillis() - entry.fetchTime;
+                Log.d(TAG, CLASS + " Hit " + urlString + " age " + age / 1000 + " s");
+                if (age > timeToLive || age < 0)
+                    refreshLater(entry);
+                return ret;
+            }
+            entry = null;
+        }
+        try {
+            return parse(refresh(urlString, entry));
+        } catch(FileNotFoundException e) {
+            throw e;
+        } catch(IOException e) {
+            MainFragment.restartMythTask();
+            throw e;
+        }
+    }
+
+    /**
+     * Delete all cached responses, for example when the user asks for
+     * the lists to be refreshed. Existing entries are not used from the
+     * time this is called, the files are deleted in the background.
+     */
+    public static void clear() {
+        synchronized (BackendResponseCache.class) {
+            sClearTime = System.currentTimeMillis();
+        }
+        BackendScheduler.Request request = new BackendScheduler.Request() {
+            @Override
+            protected void doWork() {
+                deleteAll();
+            }
+
+            @Override
+            protected void onComplete() {
+            }
+        };
+        request.setLane(BackendScheduler.LANE_BACKGROUND);
+        BackendScheduler.getInstance().submit(request);
+    }
+
+    private static synchronized void deleteAll() {
+        File[] files = getDir().listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            // Written since the clear
+            if (file.lastModified() > sClearTime)
+                continue;
+            if (!file.delete())
+                Log.w(TAG, CLASS + " Unable to delete " + file);
+        }
+    }
+
+    private static long getTimeToLive(String urlString) {
+        try {
+            Long ret = sTimeToLive.get(new URL(urlString).getPath());
+            if (ret != null)
+                return ret;
+        } catch (IOException ignored) {
+        }
+        return 0;
+    }
+
+    // Get a response from the backend, revalidating the entry if there is one.
+    private static Entry refresh(String urlString, Entry entry) throws IOException {
+        long requestTime = System.currentTimeMillis();
+        BackendHttpClient.Response response = BackendHttpClient.conditionalGet(urlString,
+                entry == null ? null : entry.etag,
+                entry == null ? null : entry.lastModified);
+        Entry ret = new Entry();
+        ret.url = urlString;
+        ret.etag = response.etag;
+        ret.lastModified = response.lastModified;
+        ret.fetchTime = System.currentTimeMillis();
+        if (response.code == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null)
+            ret.body = entry.body;
+        else if (response.body != null)
+            ret.body = response.body;
+        else
+            throw new IOException("No response body from " + urlString);
+        write(ret, requestTime);
+        return ret;
+    }
+
+    private static void refreshLater(Entry entry) {
+        synchronized (sRefreshing) {
+            if (!sRefreshing.add(entry.url))
+                return;
+        }
+        BackendScheduler.Request request = new BackendScheduler.Request() {
+            @Override
+            protected void doWork() {
+                try {
+                    refresh(entry.url, entry);
+                } catch (IOException e) {
+                    Log.w(TAG, CLASS + " Refresh failed for " + entry.url + ": " + e);
+                } finally {
+                    synchronized (sRefreshing) {
+                        sRefreshing.remove(entry.url);
+                    }
+                }
+            }
+
+            @Override
+            protected void onComplete() {
+            }
+
+            @Override
+            protected String getSerialKey() {
+                return entry.url;
+            }
+
+            @Override
+            protected String getHost() {
+                try {
+                    URL url = new URL(entry.url);
+                    return url.getHost() + ":" + url.getPort();
+                } catch (MalformedURLException e) {
+                    return null;
+                }
+            }
+
+            @Override
+            protected boolean isReadOnly() {
+                return true;
+            }
+        };
+        request.setLane(BackendScheduler.LANE_BACKGROUND);
+        BackendScheduler.getInstance().submit(request);
+    }
+
+    private static XmlNode parse(Entry entry) throws IOException, XmlPullParserException {
+        return XmlNode.parseStream(new ByteArrayInputStream(entry.body));
+    }
+
+    private static File getDir() {
+        File dir = new File(MyApplication.getAppContext().getCacheDir(), DIR_NAME);
+        if (!dir.isDirectory() && !dir.mkdirs())
+            Log.e(TAG, CLASS + " Unable to create " + dir);
+        return dir;
+    }
+
+    private static File getFile(String urlString) {
+        return new File(getDir(), Long.toHexString(VideoContract.urlHash(urlString)));
+    }
+
+    private static synchronized Entry read(String urlString) {
+        File file = getFile(urlString);
+        if (!file.exists())
+            return null;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            Entry entry = new Entry();
+            entry.url = in.readUTF();
+            // Different URL with the same hash
+            if (!urlString.equals(entry.url))
+                return null;
+            entry.etag = emptyToNull(in.readUTF());
+            entry.lastModified = emptyToNull(in.readUTF());
+            entry.fetchTime = in.readLong();
+            // Cleared, the file is waiting to be deleted
+            if (entry.fetchTime <= sClearTime)
+                return null;
+            entry.body = new byte[in.readInt()];
+            in.readFully(entry.body);
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, CLASS + " Unable to read " + file + ": " + e);
+            file.delete();
+            return null;
+        }
+    }
+
+    // A response to a request started before the last clear could be
+    // out of date, it is not stored.
+    private static synchronized void write(Entry entry, long requestTime) {
+        if (requestTime <= sClearTime) {
+            Log.d(TAG, CLASS + " Not storing response from before clear for " + entry.url);
+            return;
+        }
+        File file = getFile(entry.url);
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+            out.writeUTF(entry.url);
+            out.writeUTF(entry.etag == null ? "" : entry.etag);
+            out.writeUTF(entry.lastModified == null ? "" : entry.lastModified);
+            out.writeLong(entry.fetchTime);
+            out.writeInt(entry.body.length);
+            out.write(entry.body);
+        } catch (IOException e) {
+            Log.e(TAG, CLASS + " Unable to write " + file, e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file))
+            Log.e(TAG, CLASS + " Unable to rename " + temp);
+    }
+
+    private static String emptyToNull(String value) {
+        return value.length() == 0 ? null : value;
+    }
+}
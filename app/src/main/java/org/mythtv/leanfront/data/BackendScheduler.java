@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2021 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.mythtv.leanfront.model.Settings;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs backend requests in the background.
+ *
+ * Requests are queued in priority lanes. When a slot is free the oldest
+ * request in the highest priority lane is started, so that a long running
+ * request does not hold up others, as happened with the single serial
+ * AsyncTask executor.
+ *
+ * The number of requests running at once against one host is limited to
+ * the http connection pool size, so that each running request can use a
+ * pooled connection. Requests to a slave backend count against that
+ * backend, not the master.
+ *
+ * Requests with the same serial key, for example the same recording,
+ * are run one at a time in the order submitted, so that a bookmark update
+ * is always done before a later refresh of the same recording.
+ */
+public class BackendScheduler {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "BackendScheduler";
+
+    // Lanes in priority order
+    public static final int LANE_PLAYBACK = 0;
+    public static final int LANE_INTERACTIVE = 1;
+    public static final int LANE_BACKGROUND = 2;
+    private static final int NUM_LANES = 3;
+
+    private static BackendScheduler sInstance;
+
+    private final ArrayList<ArrayList<Request>> mLanes = new ArrayList<>();
+    private final ArrayList<Request> mRunning = new ArrayList<>();
+    private final HashMap<String, Integer> mHostRunning = new HashMap<>();
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private long mSequence = 0;
+
+    /**
+     * Work to be run by the scheduler. doWork runs on a background thread,
+     * then onComplete runs on the main thread unless the request has been
+     * cancelled.
+     */
+    public abstract static class Request {
+        // -1 means not set, the interactive lane is used
+        private int mLane = -1;
+        private Object mOwner;
+        private volatile boolean mCancelled;
+        private long mSequence;
+
+        protected abstract void doWork();
+        protected abstract void onComplete();
+
+        /**
+         * Requests with the same key are run one at a time, in order.
+         * @return key or null if the request can run with any other.
+         */
+        protected String getSerialKey() {
+            return null;
+        }
+
+        /**
+         * @return ip:port of the backend the request uses, or null for
+         * the master backend.
+         */
+        protected String getHost() {
+            return null;
+        }
+
+        /**
+         * @return true if the request only reads information, so that it
+         * can be dropped when cancelled. Requests that update the backend
+         * always run, only their completion callback is dropped.
+         */
+        protected boolean isReadOnly() {
+            return false;
+        }
+
+        public void setLane(int lane) {
+            mLane = lane;
+        }
+
+        public int getLane() {
+            return mLane;
+        }
+
+        public void setOwner(Object owner) {
+            mOwner = owner;
+        }
+
+        public Object getOwner() {
+            return mOwner;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * @return true if doWork should stop as soon as possible.
+         */
+        protected boolean isStopped() {
+            return mCancelled && isReadOnly();
+        }
+
+        public void cancel() {
+            mCancelled = true;
+        }
+    }
+
+    public static synchronized BackendScheduler getInstance() {
+        if (sInstance == null)
+            sInstance = new BackendScheduler();
+        return sInstance;
+    }
+
+    private BackendScheduler() {
+        for (int ix = 0; ix < NUM_LANES; ix++)
+            mLanes.add(new ArrayList<>());
+    }
+
+    public synchronized void submit(Request request) {
+        int lane = request.getLane();
+        if (lane < 0 || lane >= NUM_LANES)
+            lane = LANE_INTERACTIVE;
+        request.mSequence = mSequence++;
+        mLanes.get(lane).add(request);
+        dispatch();
+    }
+
+    /**
+     * Cancel all requests for an owner, normally called when a fragment
+     * is destroyed. Read only requests that have not started are dropped.
+     * No callbacks are made for any of the owner's requests.
+     */
+    public synchronized void cancel(Object owner) {
+        if (owner == null)
+            return;
+        for (ArrayList<Request> lane : mLanes) {
+            Iterator<Request> it = lane.iterator();
+            while (it.hasNext()) {
+                Request request = it.next();
+                if (request.getOwner() == owner) {
+                    request.cancel();
+                    if (request.isReadOnly())
+                        it.remove();
+                }
+            }
+        }
+        for (Request request : mRunning) {
+            if (request.getOwner() == owner)
+                request.cancel();
+        }
+        dispatch();
+    }
+
+    // Start as many queued requests as the limits allow.
+    private void dispatch() {
+        int maxPerHost = Settings.getInt("pref_tweak_http_pool_size");
+        if (maxPerHost <= 0)
+            maxPerHost = 5;
+        String master = XmlNode.getKnownIpAndPort(null);
+        if (master == null)
+            master = "";
+        for (ArrayList<Request> lane : mLanes) {
+            Iterator<Request> it = lane.iterator();
+            while (it.hasNext()) {
+                Request request = it.next();
+                String host = request.getHost();
+                if (host == null)
+                    host = master;
+                Integer running = mHostRunning.get(host);
+                if (running != null && running >= maxPerHost)
+                    continue;
+                if (!isReady(request))
+                    continue;
+                it.remove();
+                start(request, host);
+            }
+        }
+    }
+
+    // Check that no earlier request with the same key is running or queued
+    private boolean isReady(Request request) {
+        String key = request.getSerialKey();
+        if (key == null)
+            return true;
+        for (Request other : mRunning) {
+            if (key.equals(other.getSerialKey()))
+                return false;
+        }
+        for (ArrayList<Request> lane : mLanes) {
+            for (Request other : lane) {
+                if (other.mSequence < request.mSequence
+                        && key.equals(other.getSerialKey()))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private void start(Request request, String host) {
+        mRunning.add(request);
+        Integer running = mHostRunning.get(host);
+        mHostRunning.put(host, running == null ? 1 : running + 1);
+        mExecutor.execute(() -> {
+            try {
+                if (!request.isStopped())
+                    request.doWork();
+            } catch (Exception e) {
+                Log.e(TAG, CLASS + " Exception in background request", e);
+            } finally {
+                finished(request, host);
+            }
+            mHandler.post(() -> {
+                if (!request.isCancelled())
+                    request.onComplete();
+            });
+        });
+    }
+
+    private synchronized void finished(Request request, String host) {
+        mRunning.remove(request);
+        Integer running = mHostRunning.get(host);
+        if (running != null) {
+            if (running <= 1)
+                mHostRunning.remove(host);
+            else
+                mHostRunning.put(host, running - 1);
+        }
+        dispatch();
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2021 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import org.mythtv.leanfront.model.GuideSlot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The channels of the program guide in guide order, read from the
+ * channel rows of the video table. It is built once and kept until a
+ * refresh from the backend changes the channels, so that opening the
+ * guide does not query and sort the channels each time.
+ *
+ * The channel cells of the guide grid are made here and shared by each
+ * opening of the guide, they are not changed by the guide.
+ */
+public class ChannelLineup {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "ChannelLineup";
+
+    private static ChannelLineup sLineup;
+
+    private final int[] mChanIds;
+    private final String[] mChanNums;
+    private final String[] mChanDetails;
+    private final GuideSlot[] mChannelSlots;
+
+    private ChannelLineup(int[] chanIds, String[] chanNums, String[] chanDetails) {
+        mChanIds = chanIds;
+        mChanNums = chanNums;
+        mChanDetails = chanDetails;
+        mChannelSlots = new GuideSlot[chanIds.length];
+        for (int ix = 0; ix < chanIds.length; ix++)
+            mChannelSlots[ix] = new GuideSlot(chanIds[ix], parseChanNum(chanNums[ix]),
+                    chanDetails[ix]);
+    }
+
+    /**
+     * Get the lineup, reading it from the database if it has not been
+     * read yet. Must not be called on the UI thread.
+     */
+    public static synchronized ChannelLineup get(Context context) {
+        if (sLineup == null)
+            sLineup = load(context);
+        return sLineup;
+    }
+
+    /**
+     * Read the lineup again after the channels have been refreshed. If
+     * nothing has changed the lineup in use is kept.
+     */
+    public static void refresh(Context context) {
+        ChannelLineup lineup = load(context);
+        synchronized (ChannelLineup.class) {
+            if (sLineup != null && sLineup.isSame(lineup))
+                return;
+            sLineup = lineup;
+        }
+        Log.i(TAG, CLASS + " Lineup changed, " + lineup.size() + " channels");
+    }
+
+    public int size() {
+        return mChanIds.length;
+    }
+
+    public int getChanId(int ix) {
+        return mChanIds[ix];
+    }
+
+    public GuideSlot getChannelSlot(int ix) {
+        return mChannelSlots[ix];
+    }
+
+    private boolean isSame(ChannelLineup other) {
+        return Arrays.equals(mChanIds, other.mChanIds)
+                && Arrays.equals(mChanNums, other.mChanNums)
+                && Arrays.equals(mChanDetails, other.mChanDetails);
+    }
+
+    // Leading number of the channel number, -1 if there is none
+    private static int parseChanNum(String chanNumStr) {
+        int chanNum = -1;
+        if (chanNumStr != null) {
+            String[] chanNumSplit = chanNumStr.split("[^0123456789]");
+            if (chanNumSplit.length > 0 && chanNumSplit[0].length() > 0) {
+                try {
+                    chanNum = Integer.parseInt(chanNumSplit[0]);
+                } catch (NumberFormatException e) {
+                    chanNum = -1;
+                }
+            }
+        }
+        return chanNum;
+    }
+
+    private static ChannelLineup load(Context context) {
+        ArrayList<Integer> chanIds = new ArrayList<>();
+        ArrayList<String> chanNums = new ArrayList<>();
+        ArrayList<String> chanDetails = new ArrayList<>();
+        long startTime = System.currentTimeMillis();
+
+        // Define a projection that specifies which columns from the database
+        // you will actually use after this query.
+        String[] projection = {
+                VideoContract.VideoEntry.COLUMN_SUBTITLE, // This is channel details
+                VideoContract.VideoEntry.COLUMN_CHANID,
+                VideoContract.VideoEntry.COLUMN_CHANNUM,
+        };
+
+        // Filter results
+        String selection = VideoContract.VideoEntry.COLUMN_RECTYPE + " = "
+                + VideoContract.VideoEntry.RECTYPE_CHANNEL;
+
+        StringBuilder orderby = new StringBuilder();
+        orderby.append("CAST (").append(VideoContract.VideoEntry.COLUMN_CHANNUM).append(" as real), ");
+        orderby.append(VideoContract.VideoEntry.COLUMN_CHANNUM).append(", ");
+        orderby.append(VideoContract.VideoEntry.COLUMN_SUBTITLE).append(", ");
+        orderby.append(VideoContract.VideoEntry.COLUMN_CHANID);
+
+        try {
+            VideoDbHelper dbh = new VideoDbHelper(context);
+            SQLiteDatabase db = dbh.getReadableDatabase();
+            Cursor cursor = db.query(
+                    VideoContract.VideoEntry.TABLE_NAME,   // The table to query
+                    projection,             // The array of columns to return (pass null to get all)
+                    selection,              // The columns for the WHERE clause
+                    null,          // The values for the WHERE clause
+                    null,                   // don't group the rows
+                    null,                   // don't filter by row groups
+                    orderby.toString()               // The sort order
+            );
+            int colSubt = cursor.getColumnIndex(VideoContract.VideoEntry.COLUMN_SUBTITLE);
+            int colChId = cursor.getColumnIndex(VideoContract.VideoEntry.COLUMN_CHANID);
+            int colChNum = cursor.getColumnIndex(VideoContract.VideoEntry.COLUMN_CHANNUM);
+            while (cursor.moveToNext()) {
+                chanDetails.add(cursor.getString(colSubt));
+                chanIds.add(cursor.getInt(colChId));
+                chanNums.add(cursor.getString(colChNum));
+            }
+            cursor.close();
+            db.close();
+        } catch (SQLiteException e) {
+            Log.e(TAG, CLASS + " Unable to read channels", e);
+        }
+        int[] ids = new int[chanIds.size()];
+        for (int ix = 0; ix < ids.length; ix++)
+            ids[ix] = chanIds.get(ix);
+        ChannelLineup ret = new ChannelLineup(ids, chanNums.toArray(new String[0]),
+                chanDetails.toArray(new String[0]));
+        Log.d(TAG, CLASS + " Read " + ids.length + " channels in "
+                + (System.currentTimeMillis() - startTime) + " ms");
+        return ret;
+    }
+}
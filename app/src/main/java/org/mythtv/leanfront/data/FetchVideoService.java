@@ -27,6 +27,7 @@ package org.mythtv.leanfront.data;
 import android.app.IntentService;
 import android.content.ContentValues;
 import android.content.Intent;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
@@ -35,8 +36,17 @@ import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
 
 import static org.mythtv.leanfront.data.XmlNode.mythApiUrl;
 
@@ -49,6 +59,14 @@ public class FetchVideoService extends IntentService {
     public static final String RECORDEDID = "RecordedId";
     public static final String RECTYPE = "RecType";
     public static final String RECGROUP = "RecGroup";
+    // Entries per request when paging through lists
+    private static final int PAGE_SIZE = 500;
+    private static final int PAGES_IN_FLIGHT = 3;
+    // Phases of a refresh, these are also the phase values used by VideoDbBuilder
+    private static final int PHASE_RECORDINGS = 0;
+    private static final int PHASE_VIDEOS = 1;
+    private static final int PHASE_CHANNELS = 2;
+    private static final int PHASE_COUNT = 3;
 
     /**
      * Creates an IntentService with a default name for the worker thread.
@@ -69,69 +87,352 @@ public class FetchVideoService extends IntentService {
         VideoDbBuilder builder = new VideoDbBuilder(getApplicationContext());
 
         try {
-            String[] urls = new String[3];
+            String[] urls = new String[PHASE_COUNT];
             if (recType == -1) {
                 // MythTV recording list URL: http://andromeda:6544/Dvr/GetRecordedList
                 // MythTV video list URL: http://andromeda:6544/Video/GetVideoList
-                urls[0] = mythApiUrl(null, "/Dvr/GetRecordedList");
-                urls[1] = mythApiUrl(null, "/Video/GetVideoList");
-                urls[2] = mythApiUrl(null, "/Channel/GetChannelInfoList?OnlyVisible=true");
+                urls[PHASE_RECORDINGS] = mythApiUrl(null, "/Dvr/GetRecordedList");
+                urls[PHASE_VIDEOS] = mythApiUrl(null, "/Video/GetVideoList");
+                urls[PHASE_CHANNELS] = mythApiUrl(null, "/Channel/GetChannelInfoList?OnlyVisible=true");
             }
             else if (recType == VideoContract.VideoEntry.RECTYPE_RECORDING) {
                 if (recordedId != null)
-                    urls[0] = mythApiUrl(null, "/Dvr/GetRecorded?RecordedId=" + recordedId);
+                    urls[PHASE_RECORDINGS] = mythApiUrl(null, "/Dvr/GetRecorded?RecordedId=" + recordedId);
                 else if (recGroup != null) {
-                    urls[0] = mythApiUrl(null, "/Dvr/GetRecordedList?RecGroup="
+                    urls[PHASE_RECORDINGS] = mythApiUrl(null, "/Dvr/GetRecordedList?RecGroup="
                             + URLEncoder.encode(recGroup, "UTF-8"));
                     if ("LiveTV".equals(recGroup))
-                        urls[2] = mythApiUrl(null, "/Channel/GetChannelInfoList?OnlyVisible=true");
+                        urls[PHASE_CHANNELS] = mythApiUrl(null, "/Channel/GetChannelInfoList?OnlyVisible=true");
                 }
                 else
-                    urls[0] = mythApiUrl(null, "/Dvr/GetRecordedList");
+                    urls[PHASE_RECORDINGS] = mythApiUrl(null, "/Dvr/GetRecordedList");
             }
             else if (recType == VideoContract.VideoEntry.RECTYPE_VIDEO) {
                 if (recordedId != null)
-                    urls[1] = mythApiUrl(null, "/Video/GetVideo?Id=" + recordedId);
+                    urls[PHASE_VIDEOS] = mythApiUrl(null, "/Video/GetVideo?Id=" + recordedId);
                 else
-                    urls[1] = mythApiUrl(null, "/Video/GetVideoList");
+                    urls[PHASE_VIDEOS] = mythApiUrl(null, "/Video/GetVideoList");
             }
-            List<ContentValues> contentValuesList = new ArrayList<>();
-            for (int i = 0; i < urls.length; i++) {
-                String url = urls[i];
-                if (url != null) {
-                    // This call expects recordings to be 0, videos to be 1, channels to be 2
-                    builder.fetch(url, i, contentValuesList);
-                }
-            }
-            ContentValues[] downloadedVideoContentValues =
-                    contentValuesList.toArray(new ContentValues[contentValuesList.size()]);
             VideoDbHelper dbh = new VideoDbHelper(this);
             SQLiteDatabase db = dbh.getWritableDatabase();
-            if (recType == -1)
-                db.execSQL("DELETE FROM " + VideoContract.VideoEntry.TABLE_NAME); //delete all rows in a table
-            else {
-                if (recordedId == null && recGroup == null)
-                    db.execSQL("DELETE FROM " + VideoContract.VideoEntry.TABLE_NAME
-                            + " WHERE RECTYPE = '" + recType + "'");
-                else if (recordedId != null)
-                    db.execSQL("DELETE FROM " + VideoContract.VideoEntry.TABLE_NAME
-                            + " WHERE RECORDEDID = '" + recordedId
-                            + "' AND RECTYPE = '" + recType + "'");
-                else if (recGroup != null) {
-                    db.execSQL("DELETE FROM " + VideoContract.VideoEntry.TABLE_NAME
-                            + " WHERE RECGROUP = '" + recGroup.replace("'", "''")
-                            + "' AND RECTYPE = '" + recType + "'");
-                    if ("LiveTV".equals(recGroup))
-                        db.execSQL("DELETE FROM " + VideoContract.VideoEntry.TABLE_NAME
-                                + " WHERE RECTYPE = '" + VideoContract.VideoEntry.RECTYPE_CHANNEL + "'");
-                }
+            try {
+                fetchPhases(builder, db, urls, recType, recordedId, recGroup);
+            } finally {
+                db.close();
             }
-            db.close();
-            getApplicationContext().getContentResolver().bulkInsert(VideoContract.VideoEntry.CONTENT_URI,
-                    downloadedVideoContentValues);
-        } catch (IOException | XmlPullParserException e) {
+        } catch (IOException e) {
             MainFragment.mFetchTime = 0;
             Log.e(TAG, "Error occurred in downloading videos", e);
         }
     }
+
+    /**
+     * Fetch the recordings, videos and channels at the same time, so that
+     * the refresh takes as long as the slowest one rather than the total.
+     * The changes from all phases that completed are then applied in one
+     * transaction. A phase that failed leaves its rows as they were.
+     */
+    private void fetchPhases(VideoDbBuilder builder, SQLiteDatabase db, String[] urls,
+                             int recType, String recordedId, String recGroup) {
+        long startTime = System.currentTimeMillis();
+        RowWriter[] writers = new RowWriter[urls.length];
+        ArrayList<Future<Long>> phases = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(urls.length);
+        try {
+            for (int i = 0; i < urls.length; i++) {
+                final String url = urls[i];
+                if (url == null)
+                    continue;
+                final int phase = i;
+                final RowWriter writer = new RowWriter(db, phase, recType, recordedId, recGroup);
+                writers[phase] = writer;
+                phases.add(pool.submit(() -> {
+                    long phaseStart = System.currentTimeMillis();
+                    fetchPaged(builder, url, phase, writer);
+                    long elapsed = System.currentTimeMillis() - phaseStart;
+                    Log.i(TAG, "Phase " + phase + " fetched in " + elapsed + " ms");
+                    return elapsed;
+                }));
+            }
+            int ix = 0;
+            for (int i = 0; i < urls.length; i++) {
+                if (writers[i] == null)
+                    continue;
+                try {
+                    phases.get(ix++).get();
+                } catch (InterruptedException | ExecutionException e) {
+                    MainFragment.mFetchTime = 0;
+                    Log.e(TAG, "Error occurred in downloading phase " + i, e);
+                    writers[i].abort();
+                    writers[i] = null;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        long mergeStart = System.currentTimeMillis();
+        int changed = 0;
+        int channelsChanged = 0;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < writers.length; i++) {
+                if (writers[i] == null)
+                    continue;
+                changed += writers[i].finish();
+                // Includes rows committed in batches during a first load
+                if (i == PHASE_CHANNELS)
+                    channelsChanged = writers[i].getChanged();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (changed > 0)
+            getApplicationContext().getContentResolver()
+                    .notifyChange(VideoContract.VideoEntry.CONTENT_URI, null);
+        // Rebuild the guide channel lineup here so that the guide page
+        // does not have to
+        if (channelsChanged > 0)
+            ChannelLineup.refresh(getApplicationContext());
+        long endTime = System.currentTimeMillis();
+        Log.i(TAG, "Merged " + changed + " changes in " + (endTime - mergeStart)
+                + " ms, total refresh " + (endTime - startTime) + " ms");
+    }
+
+    /**
+     * Fetch a list in pages using StartIndex and Count, so that each request
+     * is bounded in size and rows arrive while the backend is still building
+     * later pages. The first page is fetched alone to find TotalAvailable,
+     * then up to PAGES_IN_FLIGHT further pages are requested at once.
+     * Single item requests and lists that fit in one page use one request.
+     * If the list changes while paging, entries can shift between pages and
+     * be missed, so the writer is told not to delete rows that were not
+     * received.
+     */
+    private void fetchPaged(VideoDbBuilder builder, String url, int phase, RowWriter writer)
+            throws IOException, XmlPullParserException {
+        if (phase == PHASE_CHANNELS || url.contains("/GetRecorded?") || url.contains("/GetVideo?")) {
+            builder.fetch(url, phase, writer);
+            return;
+        }
+        String sep = url.contains("?") ? "&" : "?";
+        long startTime = System.currentTimeMillis();
+        XmlNode list = builder.fetch(url + sep + "StartIndex=0&Count=" + PAGE_SIZE,
+                phase, writer);
+        int total = list == null ? -1 : list.getInt("TotalAvailable", -1);
+        int count = list == null ? -1 : list.getInt("Count", -1);
+        // Older backends ignore Count and return everything
+        if (total <= PAGE_SIZE || count < 0 || count > PAGE_SIZE)
+            return;
+        ExecutorService pool = Executors.newFixedThreadPool(PAGES_IN_FLIGHT);
+        List<Future<XmlNode>> pages = new ArrayList<>();
+        int received = count;
+        try {
+            for (int start = PAGE_SIZE; start < total; start += PAGE_SIZE) {
+                final String pageUrl = url + sep + "StartIndex=" + start + "&Count=" + PAGE_SIZE;
+                pages.add(pool.submit(() -> builder.fetch(pageUrl, phase, writer)));
+            }
+            for (Future<XmlNode> page : pages) {
+                XmlNode pageList = page.get();
+                int pageTotal = pageList == null ? -1 : pageList.getInt("TotalAvailable", -1);
+                int pageCount = pageList == null ? -1 : pageList.getInt("Count", -1);
+                if (pageTotal != total || pageCount < 0)
+                    received = -1;
+                else if (received >= 0)
+                    received += pageCount;
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof XmlPullParserException)
+                throw (XmlPullParserException) cause;
+            throw new IOException(cause);
+        } finally {
+            pool.shutdownNow();
+        }
+        if (received != total) {
+            Log.w(TAG, "List changed while paging, " + received + " of " + total
+                    + " entries received, rows not received are kept");
+            writer.setIncomplete();
+        }
+        Log.i(TAG, "Fetched " + total + " entries in " + (pages.size() + 1) + " pages, "
+                + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    /**
+     * Synchronizes the rows of one phase with the rows being parsed. Existing
+     * rows are matched on rectype and recordedid and only rows whose content
+     * hash has changed are kept. When the list is complete the changes,
+     * including deletion of rows that were not received, are applied in the
+     * caller's transaction.
+     * When there are no existing rows for the phase (first load) rows are
+     * committed in batches as they arrive so that the first rows are visible
+     * before the download finishes.
+     * Rows may be received from several threads when a list is paged.
+     */
+    private class RowWriter implements VideoDbBuilder.RowHandler {
+        private static final int BATCH_SIZE = 200;
+        private final SQLiteDatabase mDb;
+        private final String mWhere;
+        // key is rectype:recordedid, value is {_id, hash}
+        private final HashMap<String, long[]> mExisting = new HashMap<>();
+        private final boolean mProgressive;
+        private final ArrayList<ContentValues> mInserts = new ArrayList<>();
+        private final ArrayList<ContentValues> mUpdates = new ArrayList<>();
+        private final ArrayList<Long> mUpdateIds = new ArrayList<>();
+        // Pages can overlap if the list changes while paging
+        private final HashSet<String> mReceived = new HashSet<>();
+        private int mChanged = 0;
+        // False if entries may have been missed, then nothing is deleted
+        private boolean mComplete = true;
+
+        RowWriter(SQLiteDatabase db, int phase, int recType,
+                  String recordedId, String recGroup) {
+            mDb = db;
+            int phaseRecType;
+            if (phase == PHASE_RECORDINGS)
+                phaseRecType = VideoContract.VideoEntry.RECTYPE_RECORDING;
+            else if (phase == PHASE_VIDEOS)
+                phaseRecType = VideoContract.VideoEntry.RECTYPE_VIDEO;
+            else
+                phaseRecType = VideoContract.VideoEntry.RECTYPE_CHANNEL;
+            // The rows that this phase is replacing
+            if (recType == -1 || phaseRecType == VideoContract.VideoEntry.RECTYPE_CHANNEL
+                    || (recordedId == null && recGroup == null))
+                mWhere = "RECTYPE = '" + phaseRecType + "'";
+            else if (recordedId != null)
+                mWhere = "RECORDEDID = '" + recordedId.replace("'", "''")
+                        + "' AND RECTYPE = '" + recType + "'";
+            else
+                mWhere = "RECGROUP = '" + recGroup.replace("'", "''")
+                        + "' AND RECTYPE = '" + recType + "'";
+            String[] columns = {VideoContract.VideoEntry._ID,
+                    VideoContract.VideoEntry.COLUMN_RECTYPE,
+                    VideoContract.VideoEntry.COLUMN_RECORDEDID,
+                    VideoContract.VideoEntry.COLUMN_SYNC_HASH};
+            Cursor cursor = mDb.query(VideoContract.VideoEntry.TABLE_NAME, columns,
+                    mWhere, null, null, null, null);
+            while (cursor.moveToNext()) {
+                String key = cursor.getInt(1) + ":" + cursor.getString(2);
+                long [] value = {cursor.getLong(0), cursor.isNull(3) ? 0 : cursor.getLong(3)};
+                // If there are duplicates, keep the extra ones under their
+                // _id so that they get deleted
+                long [] prior = mExisting.put(key, value);
+                if (prior != null)
+                    mExisting.put(String.valueOf(prior[0]), prior);
+            }
+            cursor.close();
+            mProgressive = mExisting.isEmpty();
+        }
+
+        @Override
+        public synchronized void onRow(ContentValues values) {
+            long hash = rowHash(values);
+            values.put(VideoContract.VideoEntry.COLUMN_SYNC_HASH, hash);
+            String key = values.getAsInteger(VideoContract.VideoEntry.COLUMN_RECTYPE)
+                    + ":" + values.getAsString(VideoContract.VideoEntry.COLUMN_RECORDEDID);
+            if (!mReceived.add(key))
+                return;
+            long [] existing = mExisting.remove(key);
+            if (existing == null)
+                mInserts.add(values);
+            else if (existing[1] != hash) {
+                mUpdates.add(values);
+                mUpdateIds.add(existing[0]);
+            }
+            if (mProgressive && mInserts.size() >= BATCH_SIZE) {
+                mDb.beginTransaction();
+                try {
+                    write(false);
+                    mDb.setTransactionSuccessful();
+                } finally {
+                    mDb.endTransaction();
+                }
+                getApplicationContext().getContentResolver()
+                        .notifyChange(VideoContract.VideoEntry.CONTENT_URI, null);
+            }
+        }
+
+        /**
+         * Call when the list has been completely received, inside a
+         * transaction. Applies all changes and deletes rows not received.
+         *
+         * @return number of rows changed by this call
+         */
+        synchronized int finish() {
+            if (!mComplete)
+                mExisting.clear();
+            int count = write(true);
+            Log.i(TAG, "Sync " + mWhere + ": " + mChanged + " rows changed");
+            return count;
+        }
+
+        /**
+         * @return number of rows changed since the writer was created,
+         * including batches committed during a first load.
+         */
+        synchronized int getChanged() {
+            return mChanged;
+        }
+
+        /**
+         * Call if entries of the list may have been missed. Rows that were
+         * not received are then kept by finish().
+         */
+        synchronized void setIncomplete() {
+            mComplete = false;
+        }
+
+        /**
+         * Call if the list could not be completely received. Nothing is
+         * deleted, rows already committed on a first load are kept.
+         */
+        synchronized void abort() {
+            mInserts.clear();
+            mUpdates.clear();
+            mUpdateIds.clear();
+            mExisting.clear();
+        }
+
+        private int write(boolean complete) {
+            int count = mInserts.size() + mUpdates.size();
+            if (complete)
+                count += mExisting.size();
+            if (count == 0)
+                return 0;
+            for (ContentValues values : mInserts)
+                mDb.insert(VideoContract.VideoEntry.TABLE_NAME, null, values);
+            for (int ix = 0; ix < mUpdates.size(); ix++)
+                mDb.update(VideoContract.VideoEntry.TABLE_NAME, mUpdates.get(ix),
+                        VideoContract.VideoEntry._ID + " = " + mUpdateIds.get(ix), null);
+            if (complete) {
+                for (long[] value : mExisting.values())
+                    mDb.delete(VideoContract.VideoEntry.TABLE_NAME,
+                            VideoContract.VideoEntry._ID + " = " + value[0], null);
+                mExisting.clear();
+            }
+            mChanged += count;
+            mInserts.clear();
+            mUpdates.clear();
+            mUpdateIds.clear();
+            return count;
+        }
+    }
+
+    // Hash of all column values, used to detect changed rows
+    private static long rowHash(ContentValues values) {
+        TreeSet<String> keys = new TreeSet<>(values.keySet());
+        CRC32 crc = new CRC32();
+        for (String key : keys) {
+            if (VideoContract.VideoEntry.COLUMN_SYNC_HASH.equals(key))
+                continue;
+            Object value = values.get(key);
+            String str = key + "=" + value + "\n";
+            crc.update(str.getBytes(StandardCharsets.UTF_8));
+        }
+        return crc.getValue();
+    }
 }
@@ -0,0 +1,441 @@
+/*
+ * Copyright (c) 2021 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import org.mythtv.leanfront.data.VideoContract.GuideSyncEntry;
+import org.mythtv.leanfront.data.VideoContract.ProgramEntry;
+import org.mythtv.leanfront.model.ProgramStore;
+import org.mythtv.leanfront.ui.GuideFragment;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps a local copy of the program guide in the program table so that
+ * the guide page can be paged without waiting on the backend.
+ *
+ * The guide is fetched a day at a time, from today up to the guide date
+ * range, on a background thread. Each day is buffered in memory and then
+ * replaced as a whole in one transaction. Days
+ * that were fetched some time ago are fetched again on the next sync, so
+ * that new listings and changes to recording status are picked up, and
+ * days that are past are removed.
+ */
+public class GuideSync {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "GuideSync";
+    // Days fetched longer ago than this are fetched again
+    private static final long STALE_TIME = 12L * 60 * 60 * 1000;
+    // Longest program that is looked for before the start of a time window
+    private static final long MAX_PROGRAM_LENGTH = 24L * 60 * 60 * 1000;
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+    private static final AtomicBoolean sPending = new AtomicBoolean();
+    // Days held locally, by start time. Null until read from the database.
+    private static HashMap<Long, Day> sDays;
+    // Start of the first day with no listings, 0 if not known. Kept apart
+    // from sDays so that the UI thread can read it without waiting.
+    private static volatile long sGuideEnd;
+    private static volatile Listener sListener;
+
+    private static class Day {
+        long fetchTime;
+        int count;
+
+        Day(long fetchTime, int count) {
+            this.fetchTime = fetchTime;
+            this.count = count;
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Called on the sync thread when the programs from startTime to
+         * endTime have been stored.
+         */
+        void onSynced(long startTime, long endTime);
+    }
+
+    public static void setListener(Listener listener) {
+        sListener = listener;
+    }
+
+    /**
+     * Start a sync in the background, unless one is already waiting to run.
+     *
+     * @param onlyIfUsed only sync if the guide has been synced before, for
+     *                   the periodic refresh when the guide page may never
+     *                   be used.
+     */
+    public static void start(Context context, boolean onlyIfUsed) {
+        if (!sPending.compareAndSet(false, true))
+            return;
+        Context appContext = context.getApplicationContext();
+        sExecutor.execute(() -> {
+            sPending.set(false);
+            sync(appContext, onlyIfUsed);
+        });
+    }
+
+    /**
+     * The days held are read from the database on first use, so this must
+     * not be called on the UI thread.
+     *
+     * @return true if the guide for every day of the time window is held locally.
+     */
+    public static synchronized boolean isAvailable(Context context, long startTime, long endTime) {
+        loadDays(context);
+        long dayStart = dayStart(startTime);
+        GregorianCalendar cal = new GregorianCalendar();
+        while (dayStart < endTime) {
+            if (!sDays.containsKey(dayStart))
+                return false;
+            cal.setTimeInMillis(dayStart);
+            cal.add(GregorianCalendar.DAY_OF_MONTH, 1);
+            dayStart = cal.getTimeInMillis();
+        }
+        return true;
+    }
+
+    /**
+     * This does not read the database and can be called on the UI thread.
+     *
+     * @return start of the first day that has no guide data, or 0 if
+     * that is not known yet.
+     */
+    public static long getGuideEnd() {
+        return sGuideEnd;
+    }
+
+    // Must be called while synchronized on the class, after sDays changes
+    private static void updateGuideEnd() {
+        long ret = 0;
+        for (HashMap.Entry<Long, Day> entry : sDays.entrySet()) {
+            if (entry.getValue().count == 0
+                    && (ret == 0 || entry.getKey() < ret))
+                ret = entry.getKey();
+        }
+        sGuideEnd = ret;
+    }
+
+    /**
+     * Programs that overlap the time window, from the local copy,
+     * ordered by channel and start time.
+     */
+    public static ProgramStore query(Context context, long startTime, long endTime) {
+        ProgramStore.Builder builder = new ProgramStore.Builder();
+        String[] projection = {
+                ProgramEntry.COLUMN_CHANID,
+                ProgramEntry.COLUMN_START_TIME,
+                ProgramEntry.COLUMN_END_TIME,
+                ProgramEntry.COLUMN_TITLE,
+                ProgramEntry.COLUMN_SUBTITLE,
+                ProgramEntry.COLUMN_SEASON,
+                ProgramEntry.COLUMN_EPISODE,
+                ProgramEntry.COLUMN_REC_STATUS
+        };
+        // The lower limit on start time lets the start time index be used
+        String selection = ProgramEntry.COLUMN_START_TIME + " < ? AND "
+                + ProgramEntry.COLUMN_START_TIME + " > ? AND "
+                + ProgramEntry.COLUMN_END_TIME + " > ?";
+        String[] selectionArgs = {String.valueOf(endTime),
+                String.valueOf(startTime - MAX_PROGRAM_LENGTH),
+                String.valueOf(startTime)};
+        String orderby = ProgramEntry.COLUMN_CHANID + ", " + ProgramEntry.COLUMN_START_TIME;
+        try {
+            VideoDbHelper dbh = new VideoDbHelper(context);
+            SQLiteDatabase db = dbh.getReadableDatabase();
+            Cursor cursor = db.query(ProgramEntry.TABLE_NAME, projection,
+                    selection, selectionArgs, null, null, orderby);
+            while (cursor.moveToNext())
+                builder.add(cursor.getInt(0), cursor.getLong(1), cursor.getLong(2),
+                        cursor.getString(3), cursor.getString(4), cursor.getInt(5),
+                        cursor.getInt(6), cursor.getString(7));
+            cursor.close();
+            db.close();
+        } catch (SQLiteException e) {
+            Log.e(TAG, CLASS + " Unable to read guide", e);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Store programs that were fetched from the backend after a change to
+     * recording schedules, and mark every stored day to be fetched again,
+     * since the change may affect the recording status of programs on
+     * any of them.
+     */
+    public static void update(Context context, long startTime, long endTime,
+                              ProgramStore programs) {
+        Context appContext = context.getApplicationContext();
+        sExecutor.execute(() -> {
+            try {
+                VideoDbHelper dbh = new VideoDbHelper(appContext);
+                SQLiteDatabase db = dbh.getWritableDatabase();
+                db.beginTransaction();
+                try {
+                    insertPrograms(db, programs);
+                    markAllStale(db);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                db.close();
+            } catch (SQLiteException e) {
+                Log.e(TAG, CLASS + " Unable to update guide", e);
+                return;
+            }
+            markAllStale(appContext);
+        });
+        start(appContext, true);
+    }
+
+    /**
+     * Called after a recording schedule is added, changed or deleted.
+     * Every stored day is fetched again in the background so that the
+     * recording status shown in the guide is up to date.
+     */
+    public static void scheduleChanged(Context context) {
+        Context appContext = context.getApplicationContext();
+        sExecutor.execute(() -> {
+            try {
+                VideoDbHelper dbh = new VideoDbHelper(appContext);
+                SQLiteDatabase db = dbh.getWritableDatabase();
+                markAllStale(db);
+                db.close();
+            } catch (SQLiteException e) {
+                Log.e(TAG, CLASS + " Unable to update guide sync state", e);
+                return;
+            }
+            markAllStale(appContext);
+        });
+        start(appContext, true);
+    }
+
+    private static void markAllStale(SQLiteDatabase db) {
+        ContentValues values = new ContentValues();
+        values.put(GuideSyncEntry.COLUMN_FETCH_TIME, 0);
+        db.update(GuideSyncEntry.TABLE_NAME, values, null, null);
+    }
+
+    private static synchronized void markAllStale(Context context) {
+        loadDays(context);
+        for (Day day : sDays.values())
+            day.fetchTime = 0;
+    }
+
+    /**
+     * @return local midnight at the start of the day containing the time.
+     */
+    public static long dayStart(long time) {
+        GregorianCalendar cal = new GregorianCalendar();
+        cal.setTimeInMillis(time);
+        cal.set(GregorianCalendar.HOUR_OF_DAY, 0);
+        cal.set(GregorianCalendar.MINUTE, 0);
+        cal.set(GregorianCalendar.SECOND, 0);
+        cal.set(GregorianCalendar.MILLISECOND, 0);
+        return cal.getTimeInMillis();
+    }
+
+    // Must be called while synchronized on the class
+    private static void loadDays(Context context) {
+        if (sDays != null)
+            return;
+        sDays = new HashMap<>();
+        String[] projection = {
+                GuideSyncEntry.COLUMN_DAY_START,
+                GuideSyncEntry.COLUMN_FETCH_TIME,
+                GuideSyncEntry.COLUMN_COUNT
+        };
+        try {
+            VideoDbHelper dbh = new VideoDbHelper(context);
+            SQLiteDatabase db = dbh.getReadableDatabase();
+            Cursor cursor = db.query(GuideSyncEntry.TABLE_NAME, projection,
+                    null, null, null, null, null);
+            while (cursor.moveToNext())
+                sDays.put(cursor.getLong(0), new Day(cursor.getLong(1), cursor.getInt(2)));
+            cursor.close();
+            db.close();
+        } catch (SQLiteException e) {
+            Log.e(TAG, CLASS + " Unable to read guide sync state", e);
+        }
+        updateGuideEnd();
+    }
+
+    private static void sync(Context context, boolean onlyIfUsed) {
+        HashMap<Long, Day> days;
+        synchronized (GuideSync.class) {
+            loadDays(context);
+            if (onlyIfUsed && sDays.isEmpty())
+                return;
+            days = new HashMap<>(sDays);
+        }
+        long now = System.currentTimeMillis();
+        long today = dayStart(now);
+        removePast(context, today);
+        GregorianCalendar cal = new GregorianCalendar();
+        cal.setTimeInMillis(today);
+        int fetched = 0;
+        for (int ix = 0; ix < GuideFragment.DATE_RANGE; ix++) {
+            long dayStart = cal.getTimeInMillis();
+            cal.add(GregorianCalendar.DAY_OF_MONTH, 1);
+            long dayEnd = cal.getTimeInMillis();
+            Day day = days.get(dayStart);
+            if (day != null && now - day.fetchTime < STALE_TIME) {
+                if (day.count == 0)
+                    break;
+                continue;
+            }
+            int count = fetchDay(context, dayStart, dayEnd);
+            // Backend not available, try again on the next sync
+            if (count < 0)
+                break;
+            ++fetched;
+            Listener listener = sListener;
+            if (listener != null)
+                listener.onSynced(dayStart, dayEnd);
+            // No listings this far ahead
+            if (count == 0)
+                break;
+        }
+        if (fetched > 0)
+            Log.i(TAG, CLASS + " Synced " + fetched + " days in "
+                    + (System.currentTimeMillis() - now) + " ms");
+    }
+
+    // Delete days that have gone by
+    private static void removePast(Context context, long today) {
+        try {
+            VideoDbHelper dbh = new VideoDbHelper(context);
+            SQLiteDatabase db = dbh.getWritableDatabase();
+            db.delete(ProgramEntry.TABLE_NAME, ProgramEntry.COLUMN_END_TIME + " < ?",
+                    new String[] {String.valueOf(today)});
+            db.delete(GuideSyncEntry.TABLE_NAME, GuideSyncEntry.COLUMN_DAY_START + " < ?",
+                    new String[] {String.valueOf(today)});
+            db.close();
+        } catch (SQLiteException e) {
+            Log.e(TAG, CLASS + " Unable to remove old guide data", e);
+        }
+        synchronized (GuideSync.class) {
+            Iterator<Long> it = sDays.keySet().iterator();
+            while (it.hasNext()) {
+                if (it.next() < today)
+                    it.remove();
+            }
+            updateGuideEnd();
+        }
+    }
+
+    /**
+     * Fetch the programs of one day and replace what is stored for the day.
+     * The response is parsed as it arrives into a compact ProgramStore, and
+     * the day is written once it is complete. This keeps the write
+     * transaction short instead of holding it open while waiting on the
+     * backend, and a failed fetch leaves the stored day as it was.
+     *
+     * @return the number of programs, or -1 on failure.
+     */
+    private static int fetchDay(Context context, long dayStart, long dayEnd) {
+        ProgramStore.Builder builder = new ProgramStore.Builder();
+        try {
+            SimpleDateFormat sdfUTC = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+            sdfUTC.setTimeZone(TimeZone.getTimeZone("UTC"));
+            String url = XmlNode.mythApiUrl(null,
+                    "/Guide/GetProgramList?StartTime="
+                            + URLEncoder.encode(sdfUTC.format(new Date(dayStart)), "UTF-8")
+                            + "&EndTime=" + URLEncoder.encode(sdfUTC.format(new Date(dayEnd)), "UTF-8")
+                            + "&Details=1");
+            if (url == null)
+                return -1;
+            XmlNode.fetch(url, null, new String[] {"Programs", "Program"},
+                    (XmlNode programNode) -> builder.add(programNode));
+        } catch (IOException | XmlPullParserException e) {
+            Log.e(TAG, CLASS + " Exception getting guide.", e);
+            return -1;
+        }
+        ProgramStore programs = builder.build();
+        long now = System.currentTimeMillis();
+        try {
+            VideoDbHelper dbh = new VideoDbHelper(context);
+            SQLiteDatabase db = dbh.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                db.delete(ProgramEntry.TABLE_NAME, ProgramEntry.COLUMN_START_TIME + " >= ? AND "
+                                + ProgramEntry.COLUMN_START_TIME + " < ?",
+                        new String[] {String.valueOf(dayStart), String.valueOf(dayEnd)});
+                insertPrograms(db, programs);
+                ContentValues values = new ContentValues();
+                values.put(GuideSyncEntry.COLUMN_DAY_START, dayStart);
+                values.put(GuideSyncEntry.COLUMN_FETCH_TIME, now);
+                values.put(GuideSyncEntry.COLUMN_COUNT, programs.size());
+                db.insertWithOnConflict(GuideSyncEntry.TABLE_NAME, null, values,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            db.close();
+        } catch (SQLiteException e) {
+            Log.e(TAG, CLASS + " Unable to store guide", e);
+            return -1;
+        }
+        synchronized (GuideSync.class) {
+            sDays.put(dayStart, new Day(now, programs.size()));
+            updateGuideEnd();
+        }
+        return programs.size();
+    }
+
+    // Programs that span midnight are returned with both days, the
+    // unique key on channel and start time keeps one copy.
+    private static void insertPrograms(SQLiteDatabase db, ProgramStore programs) {
+        ContentValues values = new ContentValues();
+        for (int ix = 0; ix < programs.size(); ix++) {
+            values.clear();
+            values.put(ProgramEntry.COLUMN_CHANID, programs.getChanId(ix));
+            values.put(ProgramEntry.COLUMN_START_TIME, programs.getStartTime(ix));
+            values.put(ProgramEntry.COLUMN_END_TIME, programs.getEndTime(ix));
+            values.put(ProgramEntry.COLUMN_TITLE, programs.getTitle(ix));
+            values.put(ProgramEntry.COLUMN_SUBTITLE, programs.getSubTitle(ix));
+            values.put(ProgramEntry.COLUMN_SEASON, programs.getSeason(ix));
+            values.put(ProgramEntry.COLUMN_EPISODE, programs.getEpisode(ix));
+            values.put(ProgramEntry.COLUMN_REC_STATUS, programs.getRecordingStatus(ix));
+            db.insertWithOnConflict(ProgramEntry.TABLE_NAME, null, values,
+                    SQLiteDatabase.CONFLICT_REPLACE);
+        }
+    }
+}
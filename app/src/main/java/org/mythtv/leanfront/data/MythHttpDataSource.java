@@ -21,6 +21,7 @@ package org.mythtv.leanfront.data;
 
 import android.app.Activity;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
@@ -31,9 +32,11 @@ import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.DefaultHttpDataSource;
 import com.google.android.exoplayer2.upstream.HttpDataSource;
 
+import org.mythtv.leanfront.model.Settings;
 import org.mythtv.leanfront.ui.playback.PlaybackFragment;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -41,12 +44,35 @@ public class MythHttpDataSource extends BaseDataSource implements DataSource {
 
     private DataSpec mDataSpec;
     private PlaybackFragment mPlaybackFragment;
+    private HttpDataSource.Factory mHttpFactory;
     private HttpDataSource mHttpDataSource;
     private long mTotalLength;
     private long mCurrentPos;
     private long mOffsetBytes;
     private static final String TAG = "lfe";
     private static final String CLASS = "MythHttpDataSource";
+    // Tailing a recording in progress.
+    // Shortest and longest wait before asking for more data
+    private static final long TAIL_MIN_WAIT = 100;
+    private static final long TAIL_MAX_WAIT = 1000;
+    // Give up when the file has not grown for this long
+    private static final long TAIL_TIMEOUT = 5000;
+    // Amount of new data to wait for before asking again
+    private static final long TAIL_CHUNK = 256 * 1024;
+    private double mWriteRate;
+    // Factory that made this source, told when it is opened
+    private Factory mFactory;
+    // Downloader thread and buffer, null if read ahead is not in use
+    private volatile ReadAheadBuffer mReadAhead;
+    // Connections reading chunks of the range, null if not in use
+    private volatile ParallelRangeReader mParallel;
+    // How long to wait for the downloader thread to end when closing
+    private static final long READ_AHEAD_STOP_WAIT = 2000;
+    // Position of the next byte to be read from the backend
+    private long mUpstreamPos;
+    private boolean mOpened;
+    private long mLastGrowthTime;
+    private long mLastGrowthLength;
 
 
     public MythHttpDataSource(String userAgent, PlaybackFragment playbackFragment){
@@ -54,11 +80,10 @@ public class MythHttpDataSource extends BaseDataSource implements DataSource {
         mPlaybackFragment = playbackFragment;
         Map defaultRequestProperties = new HashMap<String, String>();
         defaultRequestProperties.put("accept-encoding","identity");
-        mHttpDataSource = new DefaultHttpDataSource.Factory()
+        mHttpFactory = new DefaultHttpDataSource.Factory()
                 .setUserAgent(userAgent)
-                .setDefaultRequestProperties(defaultRequestProperties)
-                .createDataSource();
-        mPlaybackFragment.setDataSource(this);
+                .setDefaultRequestProperties(defaultRequestProperties);
+        mHttpDataSource = mHttpFactory.createDataSource();
     }
 
     @Override
@@ -74,14 +99,50 @@ public class MythHttpDataSource extends BaseDataSource implements DataSource {
                 dataSpec.key,
                 dataSpec.flags);
 
-        long leng = 0;
+        transferInitializing(dataSpec);
+        long leng = openRange(mDataSpec);
+        mPlaybackFragment.markOpened();
+        mOpened = true;
+        if (mFactory != null)
+            mFactory.mLastOpened = this;
+        transferStarted(dataSpec);
+        mTotalLength = mDataSpec.absoluteStreamPosition + leng;
+        mCurrentPos = mDataSpec.absoluteStreamPosition;
+        mUpstreamPos = mCurrentPos;
+        // Split a fixed length range among several connections. The
+        // connection opened above has found the length, it is closed
+        // and the chunks are fetched with new requests.
+        int connections = Settings.getInt("pref_tweak_parallel_connections");
+        int chunkSize = Settings.getInt("pref_tweak_parallel_chunk") * 1024;
+        if (connections > 1 && chunkSize > 0 && leng > chunkSize
+                && mPlaybackFragment.isBounded()) {
+            mHttpDataSource.close();
+            mParallel = new ParallelRangeReader(mHttpFactory, mDataSpec, leng,
+                    connections, chunkSize);
+            mParallel.start();
+        }
+        int readAheadSize = Settings.getInt("pref_tweak_readahead_size");
+        if (readAheadSize > 0) {
+            mReadAhead = new ReadAheadBuffer(readAheadSize * 1024 * 1024,
+                    Settings.getInt("pref_tweak_readahead_low"),
+                    Settings.getInt("pref_tweak_readahead_high"),
+                    this::readUpstream);
+            mReadAhead.start();
+        }
+        if (!mPlaybackFragment.isBounded())
+            leng = -1;
+        return leng;
+    }
+
+    // Open the http source, treating a request past the end as empty
+    private long openRange(DataSpec dataSpec) throws IOException {
         try {
-            leng = mHttpDataSource.open(mDataSpec);
+            return mHttpDataSource.open(dataSpec);
         } catch (HttpDataSource.InvalidResponseCodeException e) {
             // Response code 416 = read past eof
             if (e.responseCode == 416) {
-                leng = 0;
                 Log.i(TAG, CLASS + " End of file.");
+                return 0;
             }
             else {
                 Log.e(TAG, CLASS + " Bad Http Response Code:" +e.responseCode
@@ -89,32 +150,36 @@ public class MythHttpDataSource extends BaseDataSource implements DataSource {
                 throw e;
             }
         }
-        mTotalLength = mDataSpec.absoluteStreamPosition + leng;
-        mCurrentPos = mDataSpec.absoluteStreamPosition;
-        if (!mPlaybackFragment.isBounded())
-            leng = -1;
-        return leng;
     }
 
     @Override
     public int read(byte[] buffer, int offset, int readLength) throws IOException {
         if (readLength <= 0)
             return 0;
-        int leng = mHttpDataSource.read(buffer,offset,readLength);
+        int leng;
+        if (mReadAhead != null)
+            leng = mReadAhead.read(buffer, offset, readLength);
+        else
+            leng = readUpstream(buffer, offset, readLength);
+        if (leng > 0) {
+            mCurrentPos += leng;
+            bytesTransferred(leng);
+        }
+        return leng;
+    }
+
+    // Read from the backend. With read ahead this runs on the downloader thread.
+    private int readUpstream(byte[] buffer, int offset, int readLength) throws IOException {
+        int leng;
+        ParallelRangeReader parallel = mParallel;
+        if (parallel != null)
+            leng = parallel.read(buffer, offset, readLength);
+        else
+            leng = mHttpDataSource.read(buffer,offset,readLength);
         if (leng == -1) {
             leng = 0;
         }
         if (!mPlaybackFragment.isBounded() && leng == 0) {
-            DataSpec dataSpec2 = new DataSpec(mDataSpec.uri,
-                    mDataSpec.httpMethod,
-                    mDataSpec.httpBody,
-                    mCurrentPos + leng,
-                    mCurrentPos + leng,
-                    mDataSpec.length,
-                    mDataSpec.key,
-                    mDataSpec.flags);
-            mHttpDataSource.close();
-
             if (mPlaybackFragment.isSpeededUp()) {
                 Activity activity = mPlaybackFragment.getActivity();
                 if (activity != null)
@@ -124,40 +189,87 @@ public class MythHttpDataSource extends BaseDataSource implements DataSource {
                     }
                     });
             }
-            long leng2 = 0;
-            try {
+            leng = readTail(buffer, offset, readLength);
+        }
+        if (leng > 0)
+            mUpstreamPos += leng;
+        else
+            leng = -1;
+        return leng;
+    }
+
+    /**
+     * We are at the end of what has been written of a recording that is
+     * still in progress. Ask for the rest of the file from the current
+     * position at once, since it has usually grown while we were reading,
+     * then at intervals based on how fast the recorder is writing, so that
+     * playback stays close to the live edge.
+     *
+     * @return bytes read, or 0 if the file has stopped growing.
+     */
+    private int readTail(byte[] buffer, int offset, int readLength) throws IOException {
+        long startTime = SystemClock.elapsedRealtime();
+        long wait = 0;
+        while (true) {
+            if (Thread.currentThread().isInterrupted())
+                throw new InterruptedIOException();
+            if (wait > 0) {
                 try {
-                    Thread.sleep(5000);
+                    Thread.sleep(wait);
                 } catch (InterruptedException e) {
-                    // Ignore this exception.
-                }
-                leng2 = mHttpDataSource.open(dataSpec2);
-            } catch (HttpDataSource.InvalidResponseCodeException e) {
-                // Response code 416 = read past eof
-                if (e.responseCode == 416) {
-                    leng2 = 0;
-                    Log.i(TAG, CLASS + " End of file.");
-                }
-                else {
-                    Log.e(TAG, CLASS + " Bad Http Response Code:" +e.responseCode
-                            + " " + e.responseMessage);
-                    throw e;
+                    // The load has been canceled
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
                 }
             }
+            DataSpec dataSpec2 = new DataSpec(mDataSpec.uri,
+                    mDataSpec.httpMethod,
+                    mDataSpec.httpBody,
+                    mUpstreamPos,
+                    mUpstreamPos,
+                    mDataSpec.length,
+                    mDataSpec.key,
+                    mDataSpec.flags);
+            mHttpDataSource.close();
+            long leng2 = openRange(dataSpec2);
+            long now = SystemClock.elapsedRealtime();
             long totalLength2 = dataSpec2.absoluteStreamPosition + leng2;
             Log.d(TAG, CLASS + " Incremental data length:" + leng2);
             if (totalLength2 > mTotalLength) {
+                updateWriteRate(totalLength2, now);
                 mTotalLength = totalLength2;
-                leng = mHttpDataSource.read(buffer, offset, readLength);
-                mCurrentPos = dataSpec2.absoluteStreamPosition;
                 mDataSpec = dataSpec2;
+                int leng = mHttpDataSource.read(buffer, offset, readLength);
+                if (leng > 0)
+                    return leng;
             }
+            long waited = now - startTime;
+            if (waited >= TAIL_TIMEOUT)
+                return 0;
+            // Time for the recorder to write another chunk, or if the rate
+            // is not known yet, back off as the wait gets longer.
+            if (mWriteRate > 0)
+                wait = (long) (TAIL_CHUNK / mWriteRate);
+            else
+                wait = waited;
+            wait = Math.max(TAIL_MIN_WAIT, Math.min(TAIL_MAX_WAIT, wait));
         }
-        if (leng > 0)
-            mCurrentPos += leng;
-        else
-            leng = -1;
-        return leng;
+    }
+
+    // Smoothed rate at which the file is growing, in bytes per millisecond
+    private void updateWriteRate(long totalLength, long now) {
+        if (mLastGrowthTime > 0 && now > mLastGrowthTime
+                && totalLength > mLastGrowthLength) {
+            double rate = (double) (totalLength - mLastGrowthLength)
+                    / (now - mLastGrowthTime);
+            if (mWriteRate == 0)
+                mWriteRate = rate;
+            else
+                mWriteRate = mWriteRate * 0.7 + rate * 0.3;
+            Log.d(TAG, CLASS + " Recording write rate:" + (long) (mWriteRate * 1000) + " bytes/sec");
+        }
+        mLastGrowthTime = now;
+        mLastGrowthLength = totalLength;
     }
 
     @Nullable
@@ -168,25 +280,75 @@ public class MythHttpDataSource extends BaseDataSource implements DataSource {
 
     @Override
     public void close() throws IOException {
+        ParallelRangeReader parallel = mParallel;
+        mParallel = null;
+        if (mReadAhead != null) {
+            mReadAhead.close();
+            // Closing the source ends a read that the downloader is waiting on.
+            if (parallel != null)
+                parallel.close();
+            mHttpDataSource.close();
+            mReadAhead.join(READ_AHEAD_STOP_WAIT);
+            mReadAhead = null;
+        }
+        if (parallel != null)
+            parallel.close();
         mHttpDataSource.close();
+        if (mOpened) {
+            mOpened = false;
+            transferEnded();
+        }
     }
 
-    public long getCurrentPos() {
-        return mCurrentPos;
+    /**
+     * @return fill level statistics of the read ahead buffer,
+     * or null if read ahead is not in use.
+     */
+    public ReadAheadBuffer.Metrics getReadAheadMetrics() {
+        ReadAheadBuffer readAhead = mReadAhead;
+        if (readAhead == null)
+            return null;
+        return readAhead.getMetrics();
     }
 
     public static class Factory implements DataSource.Factory {
         private PlaybackFragment mPlaybackFragment;
         private String mUserAgent;
+        private long mBitrate;
+        private volatile MythHttpDataSource mLastOpened;
 
         public Factory(String userAgent, PlaybackFragment playbackFragment) {
             mUserAgent = userAgent;
             mPlaybackFragment = playbackFragment;
         }
 
+        /**
+         * @param bitrate bytes per second found on a previous play, used as
+         *                the first guess of how fast a recording in progress
+         *                is growing.
+         */
+        public void setBitrate(long bitrate) {
+            mBitrate = bitrate;
+        }
+
+        /**
+         * @return fill level statistics of the read ahead buffer of the
+         * source opened last, or null if read ahead is not in use.
+         */
+        public ReadAheadBuffer.Metrics getReadAheadMetrics() {
+            MythHttpDataSource source = mLastOpened;
+            if (source == null)
+                return null;
+            return source.getReadAheadMetrics();
+        }
+
         @Override
         public DataSource createDataSource() {
-            return new MythHttpDataSource(mUserAgent, mPlaybackFragment);
+            MythHttpDataSource ret = new MythHttpDataSource(mUserAgent, mPlaybackFragment);
+            ret.mFactory = this;
+            if (mBitrate > 0)
+                ret.mWriteRate = mBitrate / 1000.0;
+            return ret;
         }
     }
 
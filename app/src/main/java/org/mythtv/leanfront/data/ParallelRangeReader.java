@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2021 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * Reads a range of a file with several http connections at once, each
+ * fetching a chunk of the range, and passes the data on in order.
+ *
+ * A single connection can be limited by packet loss on a busy Wi-Fi
+ * network even when there is bandwidth to spare, so splitting the read
+ * lets high bitrate files keep up.
+ *
+ * The number of connections in use starts at one and is adjusted by the
+ * throughput measured on each chunk: another connection is added while
+ * doing so raises the total rate, and one is dropped when the extra one
+ * does not help. Chunks are only fetched a short way ahead of the reader,
+ * so memory use is limited to a few chunks per connection.
+ */
+public class ParallelRangeReader {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "ParallelRangeReader";
+    // Chunks that may be fetched ahead of the one being read, per connection
+    private static final int CHUNKS_AHEAD = 2;
+    // A level must beat the one below by this factor to be kept
+    private static final double GAIN_NEEDED = 1.1;
+    private static final int MAX_RETRIES = 2;
+
+    private final DataSource.Factory mFactory;
+    private final DataSpec mDataSpec;
+    private final long mStart;
+    private final long mEnd;
+    private final int mChunkSize;
+    private final int mMaxConnections;
+    private final int mChunkCount;
+    private final Thread[] mThreads;
+    private final DataSource[] mSources;
+
+    // All of these are guarded by this
+    private final HashMap<Integer, Chunk> mChunks = new HashMap<>();
+    private final ArrayDeque<byte[]> mSpareBuffers = new ArrayDeque<>();
+    private int mNextChunk;
+    private int mReadChunk;
+    private int mReadOffset;
+    private int mActive;
+    private int mTarget = 1;
+    // Smoothed bytes per millisecond of one connection, at each level
+    private final double[] mLevelRate;
+    private final int[] mLevelSamples;
+    private boolean mClosed;
+    private IOException mError;
+
+    private static class Chunk {
+        final int index;
+        final byte[] data;
+        final int length;
+        int filled;
+        int retries;
+        boolean fetching;
+
+        Chunk(int index, byte[] data, int length) {
+            this.index = index;
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    /**
+     * @param factory creates the http sources, one per connection
+     * @param dataSpec the range that was opened
+     * @param length number of bytes in the range
+     */
+    public ParallelRangeReader(DataSource.Factory factory, DataSpec dataSpec, long length,
+                               int maxConnections, int chunkSize) {
+        mFactory = factory;
+        mDataSpec = dataSpec;
+        mStart = dataSpec.position;
+        mEnd = mStart + length;
+        mChunkSize = chunkSize;
+        mMaxConnections = maxConnections;
+        mChunkCount = (int) ((length + chunkSize - 1) / chunkSize);
+        mThreads = new Thread[maxConnections];
+        mSources = new DataSource[maxConnections];
+        mLevelRate = new double[maxConnections + 1];
+        mLevelSamples = new int[maxConnections + 1];
+    }
+
+    public void start() {
+        for (int ix = 0; ix < mMaxConnections; ix++) {
+            int connection = ix;
+            mThreads[ix] = new Thread(() -> fetch(connection), CLASS + ix);
+            mThreads[ix].start();
+        }
+    }
+
+    /**
+     * Read the range in order, waiting for the chunk being read to arrive.
+     *
+     * @return number of bytes read or -1 at the end of the range.
+     */
+    public synchronized int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length <= 0)
+            return 0;
+        while (true) {
+            if (mError != null)
+                throw mError;
+            if (mClosed || mReadChunk >= mChunkCount)
+                return -1;
+            Chunk chunk = mChunks.get(mReadChunk);
+            if (chunk != null && chunk.filled > mReadOffset) {
+                int leng = Math.min(length, chunk.filled - mReadOffset);
+                System.arraycopy(chunk.data, mReadOffset, buffer, offset, leng);
+                mReadOffset += leng;
+                if (mReadOffset == chunk.length) {
+                    mChunks.remove(mReadChunk);
+                    mSpareBuffers.add(chunk.data);
+                    mReadChunk++;
+                    mReadOffset = 0;
+                    // Room for another chunk ahead
+                    notifyAll();
+                }
+                return leng;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    /**
+     * Stop the connections. Closing their sources ends reads that are
+     * waiting on the network.
+     */
+    public void close() {
+        synchronized (this) {
+            if (mClosed)
+                return;
+            mClosed = true;
+            notifyAll();
+            Log.i(TAG, CLASS + " Closed at " + mTarget + " connections, "
+                    + (long) (mLevelRate[mTarget] * mTarget * 1000) + " bytes/sec");
+        }
+        for (int ix = 0; ix < mMaxConnections; ix++) {
+            closeSource(ix);
+            if (mThreads[ix] != null)
+                mThreads[ix].interrupt();
+        }
+    }
+
+    private void closeSource(int connection) {
+        DataSource source;
+        synchronized (this) {
+            source = mSources[connection];
+            mSources[connection] = null;
+        }
+        if (source != null) {
+            try {
+                source.close();
+            } catch (IOException e) {
+                // Ignore, it is being discarded
+            }
+        }
+    }
+
+    // Wait for a chunk that this connection may fetch
+    private synchronized Chunk nextChunk() throws InterruptedException {
+        while (true) {
+            if (mClosed || mError != null)
+                return null;
+            // A chunk to retry comes first
+            for (Chunk chunk : mChunks.values()) {
+                if (!chunk.fetching && chunk.filled < chunk.length) {
+                    chunk.fetching = true;
+                    mActive++;
+                    return chunk;
+                }
+            }
+            if (mNextChunk >= mChunkCount)
+                return null;
+            if (mActive < mTarget
+                    && mNextChunk < mReadChunk + mTarget * CHUNKS_AHEAD) {
+                int index = mNextChunk++;
+                long chunkStart = mStart + (long) index * mChunkSize;
+                int length = (int) Math.min(mChunkSize, mEnd - chunkStart);
+                byte[] data = mSpareBuffers.poll();
+                if (data == null)
+                    data = new byte[mChunkSize];
+                Chunk chunk = new Chunk(index, data, length);
+                chunk.fetching = true;
+                mChunks.put(index, chunk);
+                mActive++;
+                return chunk;
+            }
+            wait();
+        }
+    }
+
+    private void fetch(int connection) {
+        try {
+            Chunk chunk;
+            while ((chunk = nextChunk()) != null) {
+                long startTime = SystemClock.elapsedRealtime();
+                int startFilled = chunk.filled;
+                try {
+                    fetchChunk(connection, chunk);
+                } catch (IOException e) {
+                    synchronized (this) {
+                        mActive--;
+                        chunk.fetching = false;
+                        if (mClosed)
+                            return;
+                        if (++chunk.retries > MAX_RETRIES) {
+                            Log.e(TAG, CLASS + " Chunk " + chunk.index + " failed", e);
+                            mError = e;
+                        } else
+                            Log.w(TAG, CLASS + " Retrying chunk " + chunk.index, e);
+                        notifyAll();
+                    }
+                    closeSource(connection);
+                    continue;
+                }
+                synchronized (this) {
+                    mActive--;
+                    chunk.fetching = false;
+                    adjust(chunk.filled - startFilled,
+                            SystemClock.elapsedRealtime() - startTime);
+                    notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        } finally {
+            closeSource(connection);
+        }
+    }
+
+    private void fetchChunk(int connection, Chunk chunk) throws IOException {
+        long chunkStart = mStart + (long) chunk.index * mChunkSize + chunk.filled;
+        DataSpec dataSpec = mDataSpec.subrange(chunkStart - mStart,
+                chunk.length - chunk.filled);
+        DataSource source = mFactory.createDataSource();
+        synchronized (this) {
+            if (mClosed)
+                throw new InterruptedIOException();
+            mSources[connection] = source;
+        }
+        try {
+            source.open(dataSpec);
+            while (chunk.filled < chunk.length) {
+                int leng = source.read(chunk.data, chunk.filled, chunk.length - chunk.filled);
+                if (leng == -1)
+                    throw new IOException("Unexpected end of data at "
+                            + (chunkStart + chunk.filled));
+                synchronized (this) {
+                    chunk.filled += leng;
+                    // Only the chunk being read has a reader waiting
+                    if (chunk.index == mReadChunk)
+                        notifyAll();
+                }
+            }
+        } finally {
+            closeSource(connection);
+        }
+    }
+
+    // Update the rate measured at the current level, then add or drop a
+    // connection if the total rate shows it is worthwhile.
+    private void adjust(int bytes, long millis) {
+        if (bytes <= 0)
+            return;
+        double rate = (double) bytes / Math.max(millis, 1);
+        int level = mTarget;
+        if (mLevelSamples[level] == 0)
+            mLevelRate[level] = rate;
+        else
+            mLevelRate[level] = mLevelRate[level] * 0.7 + rate * 0.3;
+        mLevelSamples[level]++;
+        // Give each connection at the level a chunk before deciding
+        if (mLevelSamples[level] < level * 2)
+            return;
+        double total = mLevelRate[level] * level;
+        double below = level > 1 ? mLevelRate[level - 1] * (level - 1) : 0;
+        if (level > 1 && total < below * GAIN_NEEDED) {
+            mTarget = level - 1;
+        } else if (level < mMaxConnections) {
+            double above = mLevelRate[level + 1] * (level + 1);
+            // Try the next level unless it was measured and was no better
+            if (mLevelSamples[level + 1] == 0 || above >= total * GAIN_NEEDED)
+                mTarget = level + 1;
+        }
+        if (mTarget != level) {
+            // Measure the new level afresh, conditions may have changed
+            mLevelSamples[mTarget] = 0;
+            Log.d(TAG, CLASS + " Connections " + level + " -> " + mTarget
+                    + ", " + (long) (total * 1000) + " bytes/sec");
+        }
+    }
+}
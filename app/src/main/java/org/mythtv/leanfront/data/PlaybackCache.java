@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2021 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import com.google.android.exoplayer2.database.ExoDatabaseProvider;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultHttpDataSource;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.upstream.cache.CacheWriter;
+import com.google.android.exoplayer2.upstream.cache.ContentMetadata;
+import com.google.android.exoplayer2.upstream.cache.ContentMetadataMutations;
+import com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+
+import org.mythtv.leanfront.model.Settings;
+import org.mythtv.leanfront.ui.playback.PlaybackFragment;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk cache of the bytes read during playback, so that replaying and
+ * skipping back are served from local storage instead of the backend.
+ *
+ * This uses the exoplayer cache with least recently used eviction,
+ * limited to the size set in the tweaks settings. The cache is only
+ * used while the file length is fixed (bounded). While following a
+ * recording that is still being written, reads go straight to the
+ * backend.
+ */
+public class PlaybackCache {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "PlaybackCache";
+    private static final String DIR_NAME = "playback";
+
+    private static SimpleCache sCache;
+    private static boolean sInitialized;
+
+    // Bytes read from the cache and from the backend through the cache
+    // during playback
+    private static final AtomicLong sHitBytes = new AtomicLong();
+    private static final AtomicLong sMissBytes = new AtomicLong();
+    // Bytes loaded into the cache ahead of playback
+    private static final AtomicLong sPrefetchBytes = new AtomicLong();
+
+    private static final TransferListener sMissCounter = new TransferListener() {
+        @Override
+        public void onTransferInitializing(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        }
+
+        @Override
+        public void onTransferStart(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        }
+
+        @Override
+        public void onBytesTransferred(DataSource source, DataSpec dataSpec,
+                                       boolean isNetwork, int bytesTransferred) {
+            sMissBytes.addAndGet(bytesTransferred);
+        }
+
+        @Override
+        public void onTransferEnd(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        }
+    };
+
+    private static final TransferListener sPrefetchCounter = new TransferListener() {
+        @Override
+        public void onTransferInitializing(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        }
+
+        @Override
+        public void onTransferStart(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        }
+
+        @Override
+        public void onBytesTransferred(DataSource source, DataSpec dataSpec,
+                                       boolean isNetwork, int bytesTransferred) {
+            sPrefetchBytes.addAndGet(bytesTransferred);
+        }
+
+        @Override
+        public void onTransferEnd(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        }
+    };
+
+    private static final CacheDataSource.EventListener sHitCounter =
+            new CacheDataSource.EventListener() {
+        @Override
+        public void onCachedBytesRead(long cacheSizeBytes, long cachedBytesRead) {
+            sHitBytes.addAndGet(cachedBytesRead);
+        }
+
+        @Override
+        public void onCacheIgnored(int reason) {
+            Log.d(TAG, CLASS + " Cache ignored, reason " + reason);
+        }
+    };
+
+    /**
+     * The cache is created on first use, with the size from settings.
+     * A change of size takes effect after a restart.
+     *
+     * @return the cache or null if it is turned off.
+     */
+    private static synchronized Cache getCache(Context context) {
+        if (!sInitialized) {
+            sInitialized = true;
+            long size = getCacheSize();
+            File dir = new File(context.getCacheDir(), DIR_NAME);
+            if (size > 0) {
+                sCache = new SimpleCache(dir, new LeastRecentlyUsedCacheEvictor(size),
+                        new ExoDatabaseProvider(context));
+                Log.i(TAG, CLASS + " Cache size " + size + " bytes, in use "
+                        + sCache.getCacheSpace());
+            } else
+                SimpleCache.delete(dir, new ExoDatabaseProvider(context));
+        }
+        return sCache;
+    }
+
+    public static String getStats() {
+        long hits = sHitBytes.get();
+        long misses = sMissBytes.get();
+        long total = hits + misses;
+        return "hits:" + hits + " misses:" + misses
+                + " hit rate:" + (total == 0 ? 0 : 100 * hits / total) + "%"
+                + " prefetched:" + sPrefetchBytes.get();
+    }
+
+    /**
+     * @return the cache size from settings in bytes, 0 if it is turned off.
+     */
+    public static long getCacheSize() {
+        return Math.max(Settings.getInt("pref_tweak_playback_cache_size"), 0) * 1024L * 1024L;
+    }
+
+    /**
+     * Create a writer that loads the start of a file into the cache
+     * before it is played. Call cache() on the writer from a background
+     * thread and cancel() to stop it.
+     *
+     * @param length number of bytes from the start of the file
+     * @return the writer, or null if the cache is turned off.
+     */
+    public static CacheWriter createPrefetchWriter(Context context, Uri uri, long length,
+                                                   String userAgent) {
+        Cache cache = getCache(context.getApplicationContext());
+        if (cache == null)
+            return null;
+        Map<String, String> requestProperties = new HashMap<>();
+        requestProperties.put("accept-encoding", "identity");
+        DataSource.Factory upstreamFactory = new DefaultHttpDataSource.Factory()
+                .setUserAgent(userAgent)
+                .setDefaultRequestProperties(requestProperties);
+        CacheDataSource dataSource = new CacheDataSource.Factory()
+                .setCache(cache)
+                .setUpstreamDataSourceFactory(() -> {
+                    DataSource upstream = upstreamFactory.createDataSource();
+                    upstream.addTransferListener(sPrefetchCounter);
+                    return upstream;
+                })
+                .setFlags(CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR)
+                .createDataSource();
+        DataSpec dataSpec = new DataSpec.Builder()
+                .setUri(uri)
+                .setPosition(0)
+                .setLength(length)
+                .build();
+        // The file may be shorter than the length asked for
+        return new CacheWriter(dataSource, dataSpec, true, null, null);
+    }
+
+    /**
+     * Creates data sources for one playback. If the cache is in use and
+     * the file length is fixed the source reads through the cache,
+     * otherwise it is the MythHttpDataSource.
+     *
+     * The position in the file of the bytes passed to the player is kept
+     * here, because when bytes come from the cache the backend source is
+     * not read and does not know the position.
+     */
+    public static class Factory implements DataSource.Factory {
+        private final MythHttpDataSource.Factory mUpstreamFactory;
+        private final PlaybackFragment mPlaybackFragment;
+        private CacheDataSource.Factory mCacheFactory;
+        private volatile long mReadPos;
+
+        public Factory(Context context, Uri uri, MythHttpDataSource.Factory upstreamFactory,
+                       PlaybackFragment playbackFragment) {
+            mUpstreamFactory = upstreamFactory;
+            mPlaybackFragment = playbackFragment;
+            Cache cache = getCache(context.getApplicationContext());
+            if (cache == null)
+                return;
+            // A recording in progress may have grown since the length was
+            // stored, so forget it. It is stored again when the end is read.
+            ContentMetadataMutations mutations = new ContentMetadataMutations();
+            mutations.remove(ContentMetadata.KEY_CONTENT_LENGTH);
+            try {
+                cache.applyContentMetadataMutations(uri.toString(), mutations);
+            } catch (Cache.CacheException e) {
+                Log.e(TAG, CLASS + " Unable to reset length of " + uri, e);
+            }
+            mCacheFactory = new CacheDataSource.Factory()
+                    .setCache(cache)
+                    .setUpstreamDataSourceFactory(() -> {
+                        DataSource upstream = mUpstreamFactory.createDataSource();
+                        upstream.addTransferListener(sMissCounter);
+                        return upstream;
+                    })
+                    .setFlags(CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR)
+                    .setEventListener(sHitCounter);
+        }
+
+        @Override
+        public DataSource createDataSource() {
+            if (mCacheFactory == null || !mPlaybackFragment.isBounded())
+                return new PositionDataSource(mUpstreamFactory.createDataSource());
+            return new PositionDataSource(mCacheFactory.createDataSource());
+        }
+
+        /**
+         * @return position in the file of the next byte to be passed to
+         * the player, including the offset of a resumed recording.
+         */
+        public long getReadPos() {
+            return mReadPos;
+        }
+
+        // Passes reads through, keeping the position in the factory
+        private class PositionDataSource implements DataSource {
+            private final DataSource mSource;
+            private long mPos;
+
+            PositionDataSource(DataSource source) {
+                mSource = source;
+            }
+
+            @Override
+            public void addTransferListener(TransferListener transferListener) {
+                mSource.addTransferListener(transferListener);
+            }
+
+            @Override
+            public long open(DataSpec dataSpec) throws IOException {
+                long leng = mSource.open(dataSpec);
+                mPos = dataSpec.position + mPlaybackFragment.getOffsetBytes();
+                mReadPos = mPos;
+                return leng;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int readLength) throws IOException {
+                int leng = mSource.read(buffer, offset, readLength);
+                if (leng > 0) {
+                    mPos += leng;
+                    mReadPos = mPos;
+                }
+                return leng;
+            }
+
+            @Override
+            public Uri getUri() {
+                return mSource.getUri();
+            }
+
+            @Override
+            public Map<String, List<String>> getResponseHeaders() {
+                return mSource.getResponseHeaders();
+            }
+
+            @Override
+            public void close() throws IOException {
+                mSource.close();
+            }
+        }
+    }
+}
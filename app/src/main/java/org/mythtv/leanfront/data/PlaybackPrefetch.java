@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2021 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import com.google.android.exoplayer2.upstream.cache.CacheWriter;
+
+import org.mythtv.leanfront.model.Video;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Gets the next video of a playlist ready while the current one is
+ * finishing, so that moving to it does not wait on the backend.
+ *
+ * The file length is found, the seek table of a recording is fetched
+ * and the first seconds of the file are loaded into the playback cache.
+ * When the video is played the data source reads the start from the
+ * cache, so the extractor finds the tracks without network requests.
+ * Without the cache only the file length and seek table are fetched.
+ */
+public class PlaybackPrefetch {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "PlaybackPrefetch";
+    // Seconds of the video to load
+    private static final long PREFETCH_SECONDS = 20;
+    // Used when the bitrate is not known, about 20 seconds of HD TV
+    private static final long DEFAULT_BYTES = 24L * 1024 * 1024;
+    // Most of the cache to use, so the current video is not pushed out
+    private static final int MAX_CACHE_FRACTION = 4;
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    private final Video mVideo;
+    private volatile long mFileLength = -1;
+    private volatile CacheWriter mWriter;
+    private volatile boolean mCanceled;
+
+    private PlaybackPrefetch(Video video) {
+        mVideo = video;
+    }
+
+    /**
+     * Start getting a video ready in the background.
+     */
+    public static PlaybackPrefetch start(Context context, Video video, String userAgent) {
+        PlaybackPrefetch ret = new PlaybackPrefetch(video);
+        Context appContext = context.getApplicationContext();
+        sExecutor.execute(() -> ret.load(appContext, userAgent));
+        return ret;
+    }
+
+    public Video getVideo() {
+        return mVideo;
+    }
+
+    /**
+     * @return the length of the file, or -1 if it is not known yet.
+     */
+    public long getFileLength() {
+        return mFileLength;
+    }
+
+    /**
+     * Stop loading. What has been loaded stays in the cache.
+     */
+    public void cancel() {
+        mCanceled = true;
+        CacheWriter writer = mWriter;
+        if (writer != null)
+            writer.cancel();
+    }
+
+    private void load(Context context, String userAgent) {
+        if (mCanceled)
+            return;
+        long startTime = System.currentTimeMillis();
+        try {
+            mFileLength = BackendHttpClient.getContentLength(mVideo.videoUrl, 30000);
+        } catch (IOException e) {
+            Log.e(TAG, CLASS + " Exception getting file length of " + mVideo.videoUrl, e);
+            return;
+        }
+        if (mVideo.rectype == VideoContract.VideoEntry.RECTYPE_RECORDING
+                && mVideo.recordedid != null)
+            RecordedSeekTable.fetch(mVideo);
+        long cacheSize = PlaybackCache.getCacheSize();
+        if (mCanceled || cacheSize <= 0 || mFileLength <= 0)
+            return;
+        long length = DEFAULT_BYTES;
+        StreamProperties props = null;
+        try {
+            props = StreamProperties.fetch(context, mVideo.videoUrl).get();
+        } catch (ExecutionException | InterruptedException e) {
+            Log.e(TAG, CLASS + " Unable to read stream properties", e);
+        }
+        if (props != null && props.bitrate > 0)
+            length = props.bitrate * PREFETCH_SECONDS;
+        length = Math.min(length, cacheSize / MAX_CACHE_FRACTION);
+        length = Math.min(length, mFileLength);
+        CacheWriter writer = PlaybackCache.createPrefetchWriter(context,
+                Uri.parse(mVideo.videoUrl), length, userAgent);
+        if (writer == null)
+            return;
+        mWriter = writer;
+        if (mCanceled)
+            return;
+        try {
+            writer.cache();
+            Log.i(TAG, CLASS + " Loaded " + length + " bytes of " + mVideo.videoUrl
+                    + " in " + (System.currentTimeMillis() - startTime) + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            if (mCanceled)
+                Log.i(TAG, CLASS + " Loading canceled for " + mVideo.videoUrl);
+            else
+                Log.e(TAG, CLASS + " Exception loading " + mVideo.videoUrl, e);
+        }
+    }
+}
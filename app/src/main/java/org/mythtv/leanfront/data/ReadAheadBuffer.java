@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2021 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Read ahead stage between a network source and the extractor.
+ *
+ * A thread of its own reads from the upstream source into a fixed size
+ * ring buffer, so that the extractor reads from memory and a short hiccup
+ * in the network or the backend disk does not stall playback.
+ *
+ * The downloader stops when the buffer reaches the high watermark and
+ * starts again when it falls to the low watermark, so that the upstream
+ * is read in large pieces rather than a little each time the extractor
+ * takes some.
+ *
+ * The buffer is allocated outside the java heap and is kept for reuse by
+ * the next instance, since one is created each time playback seeks.
+ */
+public class ReadAheadBuffer {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "ReadAheadBuffer";
+    // Largest single read from upstream
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    // Buffer released by the last instance, for reuse
+    private static ByteBuffer sSpare;
+
+    public interface Upstream {
+        /**
+         * @return number of bytes read or -1 at the end of the data.
+         */
+        int read(byte[] buffer, int offset, int length) throws IOException;
+    }
+
+    /**
+     * Fill level statistics.
+     */
+    public static class Metrics {
+        public int capacity;
+        public int fill;
+        public int minFill;
+        public int underruns;
+        public long bytesRead;
+
+        public int fillPercent() {
+            return capacity == 0 ? 0 : (int) (100L * fill / capacity);
+        }
+
+        @Override
+        public String toString() {
+            return "capacity:" + capacity + " fill:" + fill + " (" + fillPercent()
+                    + "%) minFill:" + minFill + " underruns:" + underruns
+                    + " bytesRead:" + bytesRead;
+        }
+    }
+
+    private final Upstream mUpstream;
+    private final int mCapacity;
+    private final int mLowMark;
+    private final int mHighMark;
+    private ByteBuffer mBuffer;
+    private Thread mThread;
+
+    // All of these are guarded by this
+    private int mReadPos;
+    private int mFill;
+    private boolean mPaused;
+    private boolean mEnded;
+    private boolean mClosed;
+    private IOException mError;
+    private int mMinFill;
+    private int mUnderruns;
+    private long mBytesRead;
+
+    /**
+     * @param capacity size of the buffer in bytes
+     * @param lowPercent downloading resumes when the buffer is this percent full
+     * @param highPercent downloading pauses when the buffer is this percent full
+     */
+    public ReadAheadBuffer(int capacity, int lowPercent, int highPercent, Upstream upstream) {
+        mUpstream = upstream;
+        mCapacity = capacity;
+        mHighMark = Math.max(CHUNK_SIZE, (int) ((long) capacity * highPercent / 100));
+        mLowMark = Math.min(mHighMark - 1, (int) ((long) capacity * lowPercent / 100));
+        mBuffer = acquire(capacity);
+        mMinFill = capacity;
+    }
+
+    public void start() {
+        mThread = new Thread(this::download, CLASS);
+        mThread.start();
+    }
+
+    /**
+     * Read from the buffer, waiting for the downloader if it is empty.
+     *
+     * @return number of bytes read or -1 at the end of the data.
+     */
+    public synchronized int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length <= 0)
+            return 0;
+        boolean waited = false;
+        while (mFill == 0) {
+            if (mError != null)
+                throw mError;
+            if (mEnded || mClosed)
+                return -1;
+            if (!waited) {
+                mUnderruns++;
+                waited = true;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        int leng = Math.min(length, mFill);
+        int first = Math.min(leng, mCapacity - mReadPos);
+        ByteBuffer src = mBuffer.duplicate();
+        src.position(mReadPos);
+        src.get(buffer, offset, first);
+        if (first < leng) {
+            src.position(0);
+            src.get(buffer, offset + first, leng - first);
+        }
+        mReadPos = (mReadPos + leng) % mCapacity;
+        mFill -= leng;
+        mBytesRead += leng;
+        if (mFill < mMinFill)
+            mMinFill = mFill;
+        notifyAll();
+        return leng;
+    }
+
+    /**
+     * Stop the downloader and give up the buffer. The upstream source
+     * must be closed by the caller, which also interrupts a read that
+     * is waiting on the network.
+     */
+    public void close() {
+        synchronized (this) {
+            if (mClosed)
+                return;
+            mClosed = true;
+            notifyAll();
+            Log.i(TAG, CLASS + " Closed " + getMetrics());
+            // The downloader checks mClosed before it writes to the buffer,
+            // so it can be reused even if the thread has not ended yet.
+            release(mBuffer);
+            mBuffer = null;
+        }
+        if (mThread != null)
+            mThread.interrupt();
+    }
+
+    /**
+     * Wait for the downloader thread to end.
+     */
+    public void join(long millis) {
+        if (mThread == null)
+            return;
+        try {
+            mThread.join(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized Metrics getMetrics() {
+        Metrics ret = new Metrics();
+        ret.capacity = mCapacity;
+        ret.fill = mFill;
+        ret.minFill = mMinFill;
+        ret.underruns = mUnderruns;
+        ret.bytesRead = mBytesRead;
+        return ret;
+    }
+
+    private void download() {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        try {
+            while (true) {
+                int space;
+                synchronized (this) {
+                    while (!mClosed
+                            && (mFill >= mHighMark || (mPaused && mFill > mLowMark))) {
+                        mPaused = true;
+                        wait();
+                    }
+                    mPaused = false;
+                    if (mClosed)
+                        return;
+                    space = Math.min(CHUNK_SIZE, mHighMark - mFill);
+                }
+                int leng = mUpstream.read(chunk, 0, space);
+                synchronized (this) {
+                    if (mClosed)
+                        return;
+                    if (leng == -1) {
+                        mEnded = true;
+                        notifyAll();
+                        return;
+                    }
+                    int writePos = (mReadPos + mFill) % mCapacity;
+                    int first = Math.min(leng, mCapacity - writePos);
+                    ByteBuffer dest = mBuffer.duplicate();
+                    dest.position(writePos);
+                    dest.put(chunk, 0, first);
+                    if (first < leng) {
+                        dest.position(0);
+                        dest.put(chunk, first, leng - first);
+                    }
+                    mFill += leng;
+                    notifyAll();
+                }
+            }
+        } catch (InterruptedException | InterruptedIOException e) {
+            // Closed
+        } catch (IOException e) {
+            synchronized (this) {
+                if (!mClosed) {
+                    Log.e(TAG, CLASS + " Upstream read failed", e);
+                    mError = e;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private static synchronized ByteBuffer acquire(int capacity) {
+        ByteBuffer ret = sSpare;
+        sSpare = null;
+        if (ret == null || ret.capacity() != capacity)
+            ret = ByteBuffer.allocateDirect(capacity);
+        return ret;
+    }
+
+    private static synchronized void release(ByteBuffer buffer) {
+        sSpare = buffer;
+    }
+}
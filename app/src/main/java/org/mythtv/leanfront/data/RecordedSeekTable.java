@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2021 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.util.Log;
+
+import com.google.android.exoplayer2.extractor.SeekMap;
+import com.google.android.exoplayer2.extractor.SeekPoint;
+
+import org.mythtv.leanfront.model.Video;
+
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The seek table of a recording, from /Dvr/GetRecordedSeek on the backend.
+ * Each entry is a key frame, with its frame number, time from the start
+ * in milliseconds and byte position in the file.
+ *
+ * This lets a seek go straight to the right place in a TS file with a
+ * single range request, and converts frame number bookmarks to times
+ * without knowing the frame rate.
+ *
+ * Tables are fetched in the background and the most recent few are kept.
+ * A recording that is still in progress gets more entries, so a table
+ * is fetched again if it is older than CACHE_TIME.
+ */
+public class RecordedSeekTable {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "RecordedSeekTable";
+    private static final int MAX_CACHED = 4;
+    private static final long CACHE_TIME = 30 * 60 * 1000;
+    private static final String[] XMLTAGS_CUTTING = {"Cuttings", "Cutting"};
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+    private static final LinkedHashMap<String, Future<RecordedSeekTable>> sTables =
+            new LinkedHashMap<String, Future<RecordedSeekTable>>(MAX_CACHED + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, Future<RecordedSeekTable>> eldest) {
+                    return size() > MAX_CACHED;
+                }
+            };
+
+    private long[] mFrames = new long[1024];
+    private long[] mTimesMs = new long[1024];
+    private long[] mPositions = new long[1024];
+    private int mCount;
+    private final long mFetchTime = System.currentTimeMillis();
+
+    /**
+     * Start fetching the seek table of a recording, unless there is a
+     * recent one already.
+     *
+     * @return future for the table, which is empty if the backend has
+     * no seek table for the recording or does not support the call.
+     */
+    public static synchronized Future<RecordedSeekTable> fetch(Video video) {
+        String key = video.hostname + ":" + video.recordedid;
+        Future<RecordedSeekTable> ret = sTables.get(key);
+        if (ret != null) {
+            if (!ret.isDone())
+                return ret;
+            RecordedSeekTable table = getDone(ret);
+            if (table != null
+                    && System.currentTimeMillis() - table.mFetchTime < CACHE_TIME)
+                return ret;
+        }
+        ret = sExecutor.submit(() -> load(video));
+        sTables.put(key, ret);
+        return ret;
+    }
+
+    /**
+     * @return the table if it has been fetched, otherwise null.
+     */
+    public static RecordedSeekTable getDone(Future<RecordedSeekTable> future) {
+        if (future == null || !future.isDone())
+            return null;
+        try {
+            return future.get();
+        } catch (ExecutionException | InterruptedException e) {
+            return null;
+        }
+    }
+
+    private static RecordedSeekTable load(Video video) {
+        long startTime = System.currentTimeMillis();
+        RecordedSeekTable bytes = new RecordedSeekTable();
+        RecordedSeekTable durations = new RecordedSeekTable();
+        try {
+            String urlString = XmlNode.mythApiUrl(video.hostname,
+                    "/Dvr/GetRecordedSeek?OffsetType=BYTES&RecordedId="
+                            + video.recordedid);
+            XmlNode.fetch(urlString, null, XMLTAGS_CUTTING,
+                    (XmlNode node) -> bytes.add(node.getString("Mark"),
+                            node.getString("Offset")));
+            urlString = XmlNode.mythApiUrl(video.hostname,
+                    "/Dvr/GetRecordedSeek?OffsetType=DURATION&RecordedId="
+                            + video.recordedid);
+            XmlNode.fetch(urlString, null, XMLTAGS_CUTTING,
+                    (XmlNode node) -> durations.add(node.getString("Mark"),
+                            node.getString("Offset")));
+        } catch (FileNotFoundException e) {
+            Log.i(TAG, CLASS + " Seek table not supported by backend");
+            return new RecordedSeekTable();
+        } catch (Exception e) {
+            Log.e(TAG, CLASS + " Exception getting seek table", e);
+            return new RecordedSeekTable();
+        }
+        // Both lists have the same frames in the same order, but match
+        // them up in case an entry is missing from one.
+        RecordedSeekTable ret = new RecordedSeekTable();
+        int bx = 0;
+        int dx = 0;
+        while (bx < bytes.mCount && dx < durations.mCount) {
+            long frame = bytes.mFrames[bx];
+            if (frame < durations.mFrames[dx])
+                bx++;
+            else if (frame > durations.mFrames[dx])
+                dx++;
+            else {
+                ret.append(frame, durations.mPositions[dx], bytes.mPositions[bx]);
+                bx++;
+                dx++;
+            }
+        }
+        Log.i(TAG, CLASS + " Seek table for " + video.recordedid + " has " + ret.mCount
+                + " entries, fetched in " + (System.currentTimeMillis() - startTime) + " ms");
+        return ret;
+    }
+
+    // Used while loading, the offset goes in mPositions
+    private void add(String mark, String offset) {
+        try {
+            append(Long.parseLong(mark), 0, Long.parseLong(offset));
+        } catch (NumberFormatException | NullPointerException e) {
+            Log.w(TAG, CLASS + " Bad seek table entry " + mark + " " + offset);
+        }
+    }
+
+    private void append(long frame, long timeMs, long position) {
+        if (mCount == mFrames.length) {
+            int size = mCount * 2;
+            mFrames = Arrays.copyOf(mFrames, size);
+            mTimesMs = Arrays.copyOf(mTimesMs, size);
+            mPositions = Arrays.copyOf(mPositions, size);
+        }
+        mFrames[mCount] = frame;
+        mTimesMs[mCount] = timeMs;
+        mPositions[mCount] = position;
+        mCount++;
+    }
+
+    public boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    /**
+     * Find a key frame.
+     *
+     * @param after true for the key frame at or after the frame, false
+     *              for the one at or before it.
+     * @return index of the key frame, or -1 if there is none.
+     */
+    public int findFrame(long frame, boolean after) {
+        int ix = Arrays.binarySearch(mFrames, 0, mCount, frame);
+        if (ix >= 0)
+            return ix;
+        ix = after ? -ix - 1 : -ix - 2;
+        if (ix >= mCount)
+            return -1;
+        return ix;
+    }
+
+    public long getPosition(int ix) {
+        return mPositions[ix];
+    }
+
+    public long getTimeMs(int ix) {
+        return mTimesMs[ix];
+    }
+
+    /**
+     * @return true if the time is within the table.
+     */
+    public boolean contains(long timeUs) {
+        return mCount > 0 && timeUs / 1000 <= mTimesMs[mCount - 1];
+    }
+
+    /**
+     * Convert a frame number, as used for position bookmarks, to a time
+     * in milliseconds, interpolating between key frames.
+     */
+    public long frameToMs(long frame) {
+        return interpolate(mFrames, mTimesMs, frame);
+    }
+
+    /**
+     * Convert a time in milliseconds to a frame number.
+     */
+    public long msToFrame(long timeMs) {
+        return interpolate(mTimesMs, mFrames, timeMs);
+    }
+
+    private long interpolate(long[] from, long[] to, long value) {
+        if (mCount == 0)
+            return 0;
+        if (mCount == 1 || value <= from[0])
+            return to[0] * value / Math.max(from[0], 1);
+        int ix = Arrays.binarySearch(from, 0, mCount, value);
+        if (ix >= 0)
+            return to[ix];
+        // Between entries, or past the end use the last two
+        ix = Math.min(-ix - 2, mCount - 2);
+        long fromDiff = from[ix + 1] - from[ix];
+        if (fromDiff <= 0)
+            return to[ix];
+        return to[ix] + (value - from[ix]) * (to[ix + 1] - to[ix]) / fromDiff;
+    }
+
+    /**
+     * Create a SeekMap that uses the table for times within it, and the
+     * extractor's own SeekMap after the end of the table.
+     */
+    public SeekMap createSeekMap(SeekMap fallback) {
+        return new TableSeekMap(fallback);
+    }
+
+    private class TableSeekMap implements SeekMap {
+        private final SeekMap mFallback;
+
+        TableSeekMap(SeekMap fallback) {
+            mFallback = fallback;
+        }
+
+        @Override
+        public boolean isSeekable() {
+            return true;
+        }
+
+        @Override
+        public long getDurationUs() {
+            return mFallback.getDurationUs();
+        }
+
+        @Override
+        public SeekPoints getSeekPoints(long timeUs) {
+            if (!contains(timeUs))
+                return mFallback.getSeekPoints(timeUs);
+            long timeMs = timeUs / 1000;
+            int ix = Arrays.binarySearch(mTimesMs, 0, mCount, timeMs);
+            if (ix < 0)
+                ix = Math.max(-ix - 2, 0);
+            SeekPoint first = new SeekPoint(mTimesMs[ix] * 1000, mPositions[ix]);
+            if (first.timeUs == timeUs || ix + 1 >= mCount)
+                return new SeekPoints(first);
+            return new SeekPoints(first,
+                    new SeekPoint(mTimesMs[ix + 1] * 1000, mPositions[ix + 1]));
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2021 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.util.Log;
+
+import org.mythtv.leanfront.exoplayer2.source.ProgressiveMediaSource;
+import org.mythtv.leanfront.model.Video;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Commercial breaks and cuts of a recording, as byte ranges for the
+ * loader to jump over.
+ *
+ * The marks come from the backend as frame numbers and are converted
+ * to byte positions with the seek table. A range starts at the key frame
+ * at or after the first frame to skip and ends at the key frame at or
+ * before the end, so that no wanted frames are lost and playback carries
+ * on from a key frame.
+ *
+ * The list is empty until it has been loaded in the background, so the
+ * first break may be played if it comes very soon after the start.
+ */
+public class RecordedSkipList implements ProgressiveMediaSource.SkipRanges {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "RecordedSkipList";
+    // Mark types from mythtv programtypes.h
+    private static final int MARK_CUT_END = 0;
+    private static final int MARK_CUT_START = 1;
+    private static final int MARK_COMM_START = 4;
+    private static final int MARK_COMM_END = 5;
+    private static final String[] XMLTAGS_CUTTING = {"Cuttings", "Cutting"};
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    // Start position, end position and end time in microseconds of each
+    // range, in order of position. Replaced as a whole when loaded.
+    private volatile long[][] mRanges = new long[0][];
+
+    /**
+     * Start loading the skip list of a recording.
+     *
+     * @param seekTable the recording's seek table, which may still be loading
+     */
+    public static RecordedSkipList fetch(Video video, Future<RecordedSeekTable> seekTable) {
+        RecordedSkipList ret = new RecordedSkipList();
+        sExecutor.submit(() -> ret.load(video, seekTable));
+        return ret;
+    }
+
+    private void load(Video video, Future<RecordedSeekTable> seekTable) {
+        long startTime = System.currentTimeMillis();
+        ArrayList<long[]> frames = new ArrayList<>();
+        RecordedSeekTable table;
+        try {
+            table = seekTable.get();
+            if (table == null || table.isEmpty())
+                return;
+            getMarks(video, "/Dvr/GetRecordedCommBreak",
+                    MARK_COMM_START, MARK_COMM_END, frames);
+            getMarks(video, "/Dvr/GetRecordedCutList",
+                    MARK_CUT_START, MARK_CUT_END, frames);
+        } catch (FileNotFoundException e) {
+            Log.i(TAG, CLASS + " Commercial breaks not supported by backend");
+            return;
+        } catch (Exception e) {
+            Log.e(TAG, CLASS + " Exception getting commercial breaks", e);
+            return;
+        }
+        // Breaks and cuts can overlap, so merge them
+        Collections.sort(frames, (a, b) -> Long.compare(a[0], b[0]));
+        ArrayList<long[]> ranges = new ArrayList<>();
+        long[] last = null;
+        for (long[] pair : frames) {
+            if (last != null && pair[0] <= last[1]) {
+                last[1] = Math.max(last[1], pair[1]);
+                continue;
+            }
+            last = pair;
+            ranges.add(pair);
+        }
+        ArrayList<long[]> positions = new ArrayList<>();
+        for (long[] pair : ranges) {
+            int startIx = table.findFrame(pair[0], true);
+            int endIx = table.findFrame(pair[1], false);
+            if (startIx < 0 || endIx <= startIx)
+                continue;
+            positions.add(new long[] {table.getPosition(startIx),
+                    table.getPosition(endIx), table.getTimeMs(endIx) * 1000});
+        }
+        mRanges = positions.toArray(new long[0][]);
+        Log.i(TAG, CLASS + " " + mRanges.length + " ranges to skip in "
+                + video.recordedid + ", fetched in "
+                + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    // Add start and end frame pairs. A list that begins with an end mark
+    // starts at the beginning, one that finishes with a start mark runs
+    // to the end.
+    private static void getMarks(Video video, String endpoint, int startType, int endType,
+                                 ArrayList<long[]> pairs)
+            throws IOException, XmlPullParserException {
+        String urlString = XmlNode.mythApiUrl(video.hostname,
+                endpoint + "?RecordedId=" + video.recordedid);
+        long[] start = {0};
+        XmlNode.fetch(urlString, null, XMLTAGS_CUTTING, (XmlNode node) -> {
+            int type = node.getInt("Mark", -1);
+            long frame;
+            try {
+                frame = Long.parseLong(node.getString("Offset"));
+            } catch (NumberFormatException | NullPointerException e) {
+                return;
+            }
+            if (type == startType)
+                start[0] = frame;
+            else if (type == endType && start[0] >= 0) {
+                pairs.add(new long[] {start[0], frame});
+                start[0] = -1;
+            }
+        });
+        if (start[0] > 0)
+            pairs.add(new long[] {start[0], Long.MAX_VALUE});
+    }
+
+    @Override
+    public int findSkip(long fromPosition, long toPosition) {
+        long[][] ranges = mRanges;
+        // First range starting at or after fromPosition
+        int low = 0;
+        int high = ranges.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ranges[mid][0] < fromPosition)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        if (low < ranges.length && ranges[low][0] <= toPosition)
+            return low;
+        return -1;
+    }
+
+    @Override
+    public long getEndPosition(int index) {
+        return mRanges[index][1];
+    }
+
+    @Override
+    public long getEndTimeUs(int index) {
+        return mRanges[index][2];
+    }
+}
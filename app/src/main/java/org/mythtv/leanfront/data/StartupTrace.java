@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2021 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.mythtv.leanfront.data.VideoContract.StartupTraceEntry;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Times of each phase of starting playback, measured from when the user
+ * selected the video, so that slow starts can be broken down.
+ *
+ * A trace is kept for each start, saved in the local database when
+ * playback is running, and the latest MAX_ENTRIES are kept for the
+ * report and export.
+ */
+public class StartupTrace {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "StartupTrace";
+    private static final int MAX_ENTRIES = 200;
+    private static final String EXPORT_FILE = "startup_trace.csv";
+
+    // PlaybackFragment.play called
+    public static final int PHASE_PLAY = 0;
+    // File length response from the backend
+    public static final int PHASE_FILE_LENGTH = 1;
+    // First http request for the video opened
+    public static final int PHASE_OPEN = 2;
+    // Extractor selected by sniffing or from stream properties
+    public static final int PHASE_EXTRACTOR = 3;
+    // Tracks found, the media period is prepared
+    public static final int PHASE_PREPARED = 4;
+    // First buffering done, before the bookmark seek
+    public static final int PHASE_READY = 5;
+    // Playback requested, after the bookmark seek and refresh rate switch
+    public static final int PHASE_PLAY_REQUESTED = 6;
+    // First video frame rendered at the start position
+    public static final int PHASE_FIRST_FRAME = 7;
+    // Player is playing
+    public static final int PHASE_PLAYING = 8;
+    public static final int PHASE_COUNT = 9;
+
+    private static final String[] PHASE_COLUMNS = {
+            StartupTraceEntry.COLUMN_PLAY,
+            StartupTraceEntry.COLUMN_FILE_LENGTH,
+            StartupTraceEntry.COLUMN_OPEN,
+            StartupTraceEntry.COLUMN_EXTRACTOR,
+            StartupTraceEntry.COLUMN_PREPARED,
+            StartupTraceEntry.COLUMN_READY,
+            StartupTraceEntry.COLUMN_PLAY_REQUESTED,
+            StartupTraceEntry.COLUMN_FIRST_FRAME,
+            StartupTraceEntry.COLUMN_PLAYING
+    };
+
+    // SystemClock.elapsedRealtime of the click
+    private final long mClickTime;
+    private final long mStartTime = System.currentTimeMillis();
+    private final String mVideoUrl;
+    private final boolean mBookmark;
+    private final long[] mTimes = new long[PHASE_COUNT];
+    private boolean mFinished;
+
+    /**
+     * @param clickTime SystemClock.elapsedRealtime when the video was selected
+     * @param bookmark true if playback starts from a bookmark
+     */
+    public StartupTrace(long clickTime, String videoUrl, boolean bookmark) {
+        mClickTime = clickTime;
+        mVideoUrl = videoUrl;
+        mBookmark = bookmark;
+        Arrays.fill(mTimes, -1);
+    }
+
+    /**
+     * Record the time of a phase, unless it has already been reached.
+     * This may be called from any thread.
+     */
+    public synchronized void mark(int phase) {
+        if (mFinished || mTimes[phase] >= 0)
+            return;
+        mTimes[phase] = SystemClock.elapsedRealtime() - mClickTime;
+        Log.d(TAG, CLASS + " " + PHASE_COLUMNS[phase] + " at " + mTimes[phase] + " ms");
+    }
+
+    /**
+     * Forget a phase so that it is recorded again, for example the first
+     * frame after a seek.
+     */
+    public synchronized void clear(int phase) {
+        if (!mFinished)
+            mTimes[phase] = -1;
+    }
+
+    public synchronized boolean isReached(int phase) {
+        return mTimes[phase] >= 0;
+    }
+
+    /**
+     * End the trace and log the breakdown.
+     *
+     * @return false if it had already been finished.
+     */
+    public synchronized boolean finish() {
+        if (mFinished)
+            return false;
+        mFinished = true;
+        StringBuilder msg = new StringBuilder(CLASS).append(" Startup");
+        for (int phase = 0; phase < PHASE_COUNT; phase++)
+            msg.append(' ').append(PHASE_COLUMNS[phase]).append(':').append(mTimes[phase]);
+        msg.append(" bookmark:").append(mBookmark).append(' ').append(mVideoUrl);
+        Log.i(TAG, msg.toString());
+        return true;
+    }
+
+    /**
+     * Add the trace to the history and delete the oldest entries.
+     * This writes to the database so must not be run on the UI thread.
+     */
+    public void save(Context context) {
+        ContentValues values = new ContentValues();
+        synchronized (this) {
+            values.put(StartupTraceEntry.COLUMN_START_TIME, mStartTime);
+            values.put(StartupTraceEntry.COLUMN_VIDEO_URL, mVideoUrl);
+            values.put(StartupTraceEntry.COLUMN_BOOKMARK, mBookmark ? 1 : 0);
+            for (int phase = 0; phase < PHASE_COUNT; phase++)
+                values.put(PHASE_COLUMNS[phase], mTimes[phase]);
+        }
+        try {
+            VideoDbHelper dbh = new VideoDbHelper(context);
+            SQLiteDatabase db = dbh.getWritableDatabase();
+            db.insert(StartupTraceEntry.TABLE_NAME, null, values);
+            db.delete(StartupTraceEntry.TABLE_NAME,
+                    StartupTraceEntry._ID + " NOT IN (SELECT " + StartupTraceEntry._ID
+                            + " FROM " + StartupTraceEntry.TABLE_NAME + " ORDER BY "
+                            + StartupTraceEntry._ID + " DESC LIMIT " + MAX_ENTRIES + ")",
+                    null);
+            db.close();
+        } catch (SQLiteException e) {
+            Log.e(TAG, CLASS + " Unable to save startup trace", e);
+        }
+    }
+
+    // Phase times of all saved traces, one array per phase
+    private static long[][] loadPhases(Context context) {
+        long[][] ret = new long[PHASE_COUNT][];
+        try {
+            VideoDbHelper dbh = new VideoDbHelper(context);
+            SQLiteDatabase db = dbh.getReadableDatabase();
+            Cursor cursor = db.query(StartupTraceEntry.TABLE_NAME, PHASE_COLUMNS,
+                    null, null, null, null, null);
+            for (int phase = 0; phase < PHASE_COUNT; phase++)
+                ret[phase] = new long[cursor.getCount()];
+            int row = 0;
+            while (cursor.moveToNext()) {
+                for (int phase = 0; phase < PHASE_COUNT; phase++)
+                    ret[phase][row] = cursor.getLong(phase);
+                row++;
+            }
+            cursor.close();
+            db.close();
+        } catch (SQLiteException e) {
+            Log.e(TAG, CLASS + " Unable to read startup traces", e);
+            return null;
+        }
+        return ret;
+    }
+
+    // Nearest rank percentile of sorted values
+    private static long percentile(long[] sorted, int count, int percent) {
+        int ix = (count * percent + 99) / 100 - 1;
+        return sorted[Math.max(ix, 0)];
+    }
+
+    /**
+     * Summary of the saved traces, with the count, median, 90th
+     * percentile and maximum time to reach each phase.
+     *
+     * @return the summary, or null if there are no traces.
+     */
+    public static String getReport(Context context) {
+        long[][] phases = loadPhases(context);
+        if (phases == null || phases[0].length == 0)
+            return null;
+        StringBuilder ret = new StringBuilder();
+        ret.append("ms from click (n p50 p90 max)");
+        for (int phase = 0; phase < PHASE_COUNT; phase++) {
+            long[] values = phases[phase];
+            Arrays.sort(values);
+            // Phases not reached are -1 and sort to the start
+            int start = 0;
+            while (start < values.length && values[start] < 0)
+                start++;
+            int count = values.length - start;
+            ret.append('\n').append(PHASE_COLUMNS[phase]).append(": ").append(count);
+            if (count == 0)
+                continue;
+            long[] reached = Arrays.copyOfRange(values, start, values.length);
+            ret.append("  ").append(percentile(reached, count, 50))
+                    .append("  ").append(percentile(reached, count, 90))
+                    .append("  ").append(reached[count - 1]);
+        }
+        return ret.toString();
+    }
+
+    /**
+     * Write all saved traces to a CSV file in the app's external files
+     * directory, where it can be pulled with adb.
+     *
+     * @return the file written.
+     */
+    public static File export(Context context) throws IOException {
+        File dir = context.getExternalFilesDir(null);
+        if (dir == null)
+            throw new IOException("External storage not available");
+        File file = new File(dir, EXPORT_FILE);
+        ArrayList<String> columns = new ArrayList<>();
+        columns.add(StartupTraceEntry.COLUMN_START_TIME);
+        columns.add(StartupTraceEntry.COLUMN_BOOKMARK);
+        columns.addAll(Arrays.asList(PHASE_COLUMNS));
+        columns.add(StartupTraceEntry.COLUMN_VIDEO_URL);
+        try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+            out.println(TextUtils.join(",", columns));
+            VideoDbHelper dbh = new VideoDbHelper(context);
+            SQLiteDatabase db = dbh.getReadableDatabase();
+            Cursor cursor = db.query(StartupTraceEntry.TABLE_NAME,
+                    columns.toArray(new String[0]), null, null, null, null,
+                    StartupTraceEntry._ID);
+            while (cursor.moveToNext()) {
+                StringBuilder line = new StringBuilder();
+                for (int ix = 0; ix < columns.size() - 1; ix++)
+                    line.append(cursor.getLong(ix)).append(',');
+                // Urls do not contain quotes
+                line.append('"').append(cursor.getString(columns.size() - 1)).append('"');
+                out.println(line);
+            }
+            cursor.close();
+            db.close();
+        } catch (SQLiteException e) {
+            throw new IOException(e);
+        }
+        Log.i(TAG, CLASS + " Startup traces exported to " + file);
+        return file;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2021 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.mythtv.leanfront.data.VideoContract.StreamPropsEntry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * What was found about the streams in a video the last time it was
+ * prepared for playback, kept in the local database so that the next
+ * play can pick the extractor, finish preparing as soon as the known
+ * tracks are found and set the display refresh rate straight away.
+ *
+ * Properties are read in the background and the most recent few are
+ * kept, so that they can be read before playback is started.
+ */
+public class StreamProperties {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "StreamProperties";
+    // Entries not used for this long are deleted
+    private static final long KEEP_TIME = 90L * 24 * 60 * 60 * 1000;
+    private static final int MAX_CACHED = 8;
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+    private static final LinkedHashMap<String, Future<StreamProperties>> sLoaded =
+            new LinkedHashMap<String, Future<StreamProperties>>(MAX_CACHED + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, Future<StreamProperties>> eldest) {
+                    return size() > MAX_CACHED;
+                }
+            };
+
+    // Simple class name of the extractor
+    public String container;
+    // Comma separated mime types of the tracks
+    public String tracks;
+    public boolean emptyTrack;
+    public float frameRate;
+    // Bytes per second
+    public long bitrate;
+
+    public int getTrackCount() {
+        if (TextUtils.isEmpty(tracks))
+            return 0;
+        return tracks.split(",").length;
+    }
+
+    public boolean sameAs(StreamProperties other) {
+        return other != null
+                && TextUtils.equals(container, other.container)
+                && TextUtils.equals(tracks, other.tracks)
+                && emptyTrack == other.emptyTrack
+                && frameRate == other.frameRate
+                && bitrate == other.bitrate;
+    }
+
+    @Override
+    public String toString() {
+        return "container:" + container + " tracks:" + tracks + " emptyTrack:" + emptyTrack
+                + " frameRate:" + frameRate + " bitrate:" + bitrate;
+    }
+
+    /**
+     * Start reading the properties of a video from the database, unless
+     * they have been read already.
+     *
+     * @return future for the properties, whose result is null if there
+     * are none.
+     */
+    public static Future<StreamProperties> fetch(Context context, String videoUrl) {
+        Context appContext = context.getApplicationContext();
+        synchronized (sLoaded) {
+            Future<StreamProperties> ret = sLoaded.get(videoUrl);
+            if (ret == null) {
+                ret = sExecutor.submit(() -> load(appContext, videoUrl));
+                sLoaded.put(videoUrl, ret);
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * @return the properties if they have been read, otherwise null.
+     */
+    public static StreamProperties getDone(Future<StreamProperties> future) {
+        if (future == null || !future.isDone())
+            return null;
+        try {
+            return future.get();
+        } catch (ExecutionException | InterruptedException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Run the callback in the background once the properties from
+     * earlier fetches have been read. Reads are done one at a time in the
+     * order they were asked for, so this runs after them. The callback
+     * must be short, for example posting to the UI thread.
+     */
+    public static void whenLoaded(Runnable callback) {
+        sExecutor.execute(callback);
+    }
+
+    /**
+     * Record that the properties for the video were used, so that they
+     * are kept for another KEEP_TIME. The database is updated in the
+     * background.
+     */
+    public static void touch(Context context, String videoUrl) {
+        Context appContext = context.getApplicationContext();
+        sExecutor.execute(() -> {
+            ContentValues values = new ContentValues();
+            values.put(StreamPropsEntry.COLUMN_LAST_USED, System.currentTimeMillis());
+            try {
+                VideoDbHelper dbh = new VideoDbHelper(appContext);
+                SQLiteDatabase db = dbh.getWritableDatabase();
+                db.update(StreamPropsEntry.TABLE_NAME, values,
+                        StreamPropsEntry.COLUMN_URL_HASH + " = ? AND "
+                                + StreamPropsEntry.COLUMN_VIDEO_URL + " = ?",
+                        new String[] {String.valueOf(VideoContract.urlHash(videoUrl)), videoUrl});
+                db.close();
+            } catch (SQLiteException e) {
+                Log.e(TAG, CLASS + " Unable to update stream properties", e);
+            }
+        });
+    }
+
+    // Read again on the next fetch
+    private static void forget(String videoUrl) {
+        synchronized (sLoaded) {
+            sLoaded.remove(videoUrl);
+        }
+    }
+
+    /**
+     * @return the properties stored for the video, or null if there are none.
+     * This reads the database so must not be run on the UI thread.
+     */
+    public static StreamProperties load(Context context, String videoUrl) {
+        StreamProperties ret = null;
+        String[] projection = {
+                StreamPropsEntry.COLUMN_CONTAINER,
+                StreamPropsEntry.COLUMN_TRACKS,
+                StreamPropsEntry.COLUMN_EMPTY_TRACK,
+                StreamPropsEntry.COLUMN_FRAME_RATE,
+                StreamPropsEntry.COLUMN_BITRATE
+        };
+        String selection = StreamPropsEntry.COLUMN_URL_HASH + " = ? AND "
+                + StreamPropsEntry.COLUMN_VIDEO_URL + " = ?";
+        String[] selectionArgs = {String.valueOf(VideoContract.urlHash(videoUrl)), videoUrl};
+        try {
+            VideoDbHelper dbh = new VideoDbHelper(context);
+            SQLiteDatabase db = dbh.getReadableDatabase();
+            Cursor cursor = db.query(StreamPropsEntry.TABLE_NAME, projection,
+                    selection, selectionArgs, null, null, null);
+            if (cursor.moveToNext()) {
+                ret = new StreamProperties();
+                ret.container = cursor.getString(0);
+                ret.tracks = cursor.getString(1);
+                ret.emptyTrack = cursor.getInt(2) != 0;
+                ret.frameRate = cursor.getFloat(3);
+                ret.bitrate = cursor.getLong(4);
+            }
+            cursor.close();
+            db.close();
+        } catch (SQLiteException e) {
+            Log.e(TAG, CLASS + " Unable to read stream properties", e);
+        }
+        return ret;
+    }
+
+    /**
+     * Store the properties for the video, replacing any that are there.
+     * This writes to the database so must not be run on the UI thread.
+     */
+    public void save(Context context, String videoUrl) {
+        ContentValues values = new ContentValues();
+        long now = System.currentTimeMillis();
+        values.put(StreamPropsEntry.COLUMN_VIDEO_URL, videoUrl);
+        values.put(StreamPropsEntry.COLUMN_URL_HASH, VideoContract.urlHash(videoUrl));
+        values.put(StreamPropsEntry.COLUMN_LAST_USED, now);
+        values.put(StreamPropsEntry.COLUMN_CONTAINER, container);
+        values.put(StreamPropsEntry.COLUMN_TRACKS, tracks);
+        values.put(StreamPropsEntry.COLUMN_EMPTY_TRACK, emptyTrack ? 1 : 0);
+        values.put(StreamPropsEntry.COLUMN_FRAME_RATE, frameRate);
+        values.put(StreamPropsEntry.COLUMN_BITRATE, bitrate);
+        try {
+            VideoDbHelper dbh = new VideoDbHelper(context);
+            SQLiteDatabase db = dbh.getWritableDatabase();
+            db.insertWithOnConflict(StreamPropsEntry.TABLE_NAME, null, values,
+                    SQLiteDatabase.CONFLICT_REPLACE);
+            db.delete(StreamPropsEntry.TABLE_NAME,
+                    StreamPropsEntry.COLUMN_LAST_USED + " < ?",
+                    new String[] {String.valueOf(now - KEEP_TIME)});
+            db.close();
+            forget(videoUrl);
+            Log.i(TAG, CLASS + " Saved " + this + " for " + videoUrl);
+        } catch (SQLiteException e) {
+            Log.e(TAG, CLASS + " Unable to save stream properties", e);
+        }
+    }
+
+    /**
+     * Remove the properties for the video, for example when playing
+     * with them failed.
+     */
+    public static void delete(Context context, String videoUrl) {
+        try {
+            VideoDbHelper dbh = new VideoDbHelper(context);
+            SQLiteDatabase db = dbh.getWritableDatabase();
+            db.delete(StreamPropsEntry.TABLE_NAME,
+                    StreamPropsEntry.COLUMN_VIDEO_URL + " = ?",
+                    new String[] {videoUrl});
+            db.close();
+            forget(videoUrl);
+        } catch (SQLiteException e) {
+            Log.e(TAG, CLASS + " Unable to delete stream properties", e);
+        }
+    }
+}
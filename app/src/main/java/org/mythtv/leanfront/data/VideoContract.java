@@ -108,6 +108,14 @@ public final class VideoContract {
         public static final String COLUMN_CHANID = "chanid";
         public static final String COLUMN_CHANNUM = "channum";
         public static final String COLUMN_CALLSIGN = "callsign";
+        // Hash of the other columns, used to skip unchanged rows when syncing
+        public static final String COLUMN_SYNC_HASH = "sync_hash";
+        // Upper case title without leading article, for sorting
+        public static final String COLUMN_TITLE_SORT = "title_sort";
+        // Upper case file name without leading articles, videos only
+        public static final String COLUMN_FILENAME_SORT = "filename_sort";
+        // Hash of video_url, integer key for joining with videostatus
+        public static final String COLUMN_URL_HASH = "url_hash";
     } // end of VideoEntry
 
         /* Inner class that defines the status table */
@@ -117,6 +125,82 @@ public final class VideoContract {
         public static final String COLUMN_LAST_USED = "last_used";
         public static final String COLUMN_BOOKMARK = "bookmark";
         public static final String COLUMN_SHOW_RECENT = "show_recent";
+        public static final String COLUMN_URL_HASH = "url_hash";
+    }
+
+    /* Inner class that defines the stream properties table */
+    public static class StreamPropsEntry implements BaseColumns {
+        public static final String TABLE_NAME = "streamprops";
+        public static final String COLUMN_VIDEO_URL = "video_url";
+        public static final String COLUMN_URL_HASH = "url_hash";
+        public static final String COLUMN_LAST_USED = "last_used";
+        // Simple class name of the extractor that reads the file
+        public static final String COLUMN_CONTAINER = "container";
+        // Comma separated mime types of the tracks
+        public static final String COLUMN_TRACKS = "tracks";
+        public static final String COLUMN_EMPTY_TRACK = "empty_track";
+        public static final String COLUMN_FRAME_RATE = "frame_rate";
+        // Bytes per second
+        public static final String COLUMN_BITRATE = "bitrate";
+    }
+
+    /* Inner class that defines the startup trace table */
+    public static class StartupTraceEntry implements BaseColumns {
+        public static final String TABLE_NAME = "startuptrace";
+        // Wall clock time when playback was started
+        public static final String COLUMN_START_TIME = "start_time";
+        public static final String COLUMN_VIDEO_URL = "video_url";
+        public static final String COLUMN_BOOKMARK = "bookmark";
+        // Milliseconds from the click to each phase, -1 if not reached
+        public static final String COLUMN_PLAY = "play";
+        public static final String COLUMN_FILE_LENGTH = "file_length";
+        public static final String COLUMN_OPEN = "open";
+        public static final String COLUMN_EXTRACTOR = "extractor";
+        public static final String COLUMN_PREPARED = "prepared";
+        public static final String COLUMN_READY = "ready";
+        public static final String COLUMN_PLAY_REQUESTED = "play_requested";
+        public static final String COLUMN_FIRST_FRAME = "first_frame";
+        public static final String COLUMN_PLAYING = "playing";
+    }
+
+    /* Inner class that defines the program guide table */
+    public static class ProgramEntry implements BaseColumns {
+        public static final String TABLE_NAME = "program";
+        public static final String COLUMN_CHANID = "chanid";
+        // Epoch milliseconds
+        public static final String COLUMN_START_TIME = "start_time";
+        public static final String COLUMN_END_TIME = "end_time";
+        public static final String COLUMN_TITLE = "title";
+        public static final String COLUMN_SUBTITLE = "subtitle";
+        public static final String COLUMN_SEASON = "season";
+        public static final String COLUMN_EPISODE = "episode";
+        public static final String COLUMN_REC_STATUS = "rec_status";
+    }
+
+    /* Inner class that defines the guide sync table, one row per day of guide data */
+    public static class GuideSyncEntry implements BaseColumns {
+        public static final String TABLE_NAME = "guidesync";
+        // Local midnight at the start of the day, epoch milliseconds
+        public static final String COLUMN_DAY_START = "day_start";
+        // When the day was fetched from the backend, 0 if it needs a refresh
+        public static final String COLUMN_FETCH_TIME = "fetch_time";
+        public static final String COLUMN_COUNT = "count";
+    }
+
+    /**
+     * 64 bit FNV-1a hash of a video url, used as the integer join key
+     * between video and videostatus. The url is also compared in the join
+     * in case of a collision.
+     */
+    public static long urlHash(String url) {
+        if (url == null)
+            return 0;
+        long hash = 0xcbf29ce484222325L;
+        for (int ix = 0; ix < url.length(); ix++) {
+            hash ^= url.charAt(ix);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
     }
 
 }
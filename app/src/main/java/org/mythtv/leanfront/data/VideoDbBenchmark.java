@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2021 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import org.mythtv.leanfront.data.VideoContract.StatusEntry;
+import org.mythtv.leanfront.data.VideoContract.VideoEntry;
+import org.mythtv.leanfront.model.Settings;
+import org.mythtv.leanfront.ui.MainFragment;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Times the list queries built by MainFragment, and the single recording
+ * lookup used when refreshing an item, against a separate database filled
+ * with generated rows. Each size is run with the current schema and with
+ * the baseline schema, which has no indexes on the video table and joins
+ * videostatus on the text video_url only.
+ * Results are written to the log. This is for development use, it is
+ * started from the tweaks section of settings in debug builds.
+ */
+public class VideoDbBenchmark {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "VideoDbBenchmark";
+    private static final String DATABASE_NAME = "benchmark.db";
+    private static final int[] SIZES = {1000, 10000, 50000};
+    private static final int REPEAT = 5;
+    private static final String[] RECGROUPS = {"Default", "Kids", "Movies", "News", "Sport"};
+
+    public static void start(Context context) {
+        new Thread(() -> run(context.getApplicationContext())).start();
+    }
+
+    public static void run(Context context) {
+        File file = context.getDatabasePath(DATABASE_NAME);
+        context.deleteDatabase(DATABASE_NAME);
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        VideoDbHelper helper = new VideoDbHelper(context);
+        try {
+            for (int size : SIZES) {
+                helper.onCreate(db);
+                fill(db, size, true);
+                report(db, size, "current");
+                helper.onCreate(db);
+                makeBaseline(db);
+                fill(db, size, false);
+                report(db, size, "baseline");
+            }
+        } finally {
+            db.close();
+            context.deleteDatabase(DATABASE_NAME);
+        }
+    }
+
+    // Change the current schema back to the baseline. All indexes that were
+    // created on the video and videostatus tables are dropped, leaving only
+    // the unique index on videostatus.video_url, and the view is
+    // recreated with the same columns joined on video_url alone.
+    private static void makeBaseline(SQLiteDatabase db) {
+        ArrayList<String> indexes = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index'"
+                + " AND sql IS NOT NULL AND tbl_name IN (?, ?)",
+                new String[] {VideoEntry.TABLE_NAME, StatusEntry.TABLE_NAME});
+        while (cursor.moveToNext())
+            indexes.add(cursor.getString(0));
+        cursor.close();
+        for (String index : indexes)
+            db.execSQL("DROP INDEX " + index);
+
+        cursor = db.rawQuery("SELECT * FROM " + VideoEntry.VIEW_NAME + " LIMIT 0", null);
+        String[] columns = cursor.getColumnNames();
+        cursor.close();
+        StringBuilder createView = new StringBuilder("CREATE VIEW "
+                + VideoEntry.VIEW_NAME + " AS SELECT ");
+        for (int ix = 0; ix < columns.length; ix++) {
+            if (ix > 0)
+                createView.append(" , ");
+            if (VideoEntry.COLUMN_VIDEO_URL.equals(columns[ix]))
+                createView.append(VideoEntry.TABLE_NAME).append(".")
+                        .append(VideoEntry.COLUMN_VIDEO_URL).append(" AS ");
+            createView.append(columns[ix]);
+        }
+        createView.append(" FROM " + VideoEntry.TABLE_NAME + " LEFT OUTER JOIN " +
+                StatusEntry.TABLE_NAME + " ON " +
+                VideoEntry.TABLE_NAME + "." + VideoEntry.COLUMN_VIDEO_URL + " = " +
+                StatusEntry.TABLE_NAME + "." + StatusEntry.COLUMN_VIDEO_URL + " ;");
+        db.execSQL("DROP VIEW " + VideoEntry.VIEW_NAME);
+        db.execSQL(createView.toString());
+    }
+
+    private static void fill(SQLiteDatabase db, int size, boolean urlHash) {
+        db.delete(VideoEntry.TABLE_NAME, null, null);
+        db.delete(StatusEntry.TABLE_NAME, null, null);
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            ContentValues status = new ContentValues();
+            for (int ix = 0; ix < size; ix++) {
+                int rectype = ix % 10 == 0 ? VideoEntry.RECTYPE_VIDEO
+                        : VideoEntry.RECTYPE_RECORDING;
+                String url = "http://backend:6544/Content/GetFile?FileName=file" + ix + ".ts";
+                values.clear();
+                values.put(VideoEntry.COLUMN_RECTYPE, rectype);
+                // About 10 episodes per series
+                String title = "The Title " + (ix / 10);
+                values.put(VideoEntry.COLUMN_TITLE, title);
+                values.put(VideoEntry.COLUMN_TITLE_SORT, VideoDbBuilder.makeSortKey(title, '^'));
+                values.put(VideoEntry.COLUMN_SUBTITLE, "Episode " + ix);
+                values.put(VideoEntry.COLUMN_VIDEO_URL, url);
+                if (urlHash)
+                    values.put(VideoEntry.COLUMN_URL_HASH, VideoContract.urlHash(url));
+                String filename = "dir" + (ix % 50) + "/file" + ix + ".ts";
+                values.put(VideoEntry.COLUMN_FILENAME, filename);
+                if (rectype == VideoEntry.RECTYPE_VIDEO)
+                    values.put(VideoEntry.COLUMN_FILENAME_SORT,
+                            VideoDbBuilder.makeSortKey(filename, '/'));
+                values.put(VideoEntry.COLUMN_DESC, "Description of episode " + ix);
+                values.put(VideoEntry.COLUMN_STARTTIME, "2021-01-01T00:00:00Z");
+                values.put(VideoEntry.COLUMN_AIRDATE, "2020-12-31");
+                values.put(VideoEntry.COLUMN_RECORDEDID, String.valueOf(ix));
+                values.put(VideoEntry.COLUMN_RECGROUP,
+                        rectype == VideoEntry.RECTYPE_VIDEO ? null : RECGROUPS[ix % RECGROUPS.length]);
+                values.put(VideoEntry.COLUMN_PROGFLAGS, "0");
+                db.insert(VideoEntry.TABLE_NAME, null, values);
+                // Bookmarks on one in ten
+                if (ix % 10 == 5) {
+                    status.clear();
+                    status.put(StatusEntry.COLUMN_VIDEO_URL, url);
+                    if (urlHash)
+                        status.put(StatusEntry.COLUMN_URL_HASH, VideoContract.urlHash(url));
+                    status.put(StatusEntry.COLUMN_LAST_USED, System.currentTimeMillis());
+                    status.put(StatusEntry.COLUMN_BOOKMARK, 1000);
+                    status.put(StatusEntry.COLUMN_SHOW_RECENT, 1);
+                    db.insert(StatusEntry.TABLE_NAME, null, status);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.execSQL("ANALYZE");
+    }
+
+    private static void report(SQLiteDatabase db, int size, String desc) {
+        // The same selection and sort order as MainFragment, using the
+        // current sequence settings.
+        String seq = Settings.getString("pref_seq");
+        String ascdesc = Settings.getString("pref_seq_ascdesc");
+        long main = timeList(db, MainFragment.TYPE_TOPLEVEL, null, seq, ascdesc);
+        long recgroup = timeList(db, MainFragment.TYPE_RECGROUP, "Default", seq, ascdesc);
+        long videos = timeList(db, MainFragment.TYPE_VIDEODIR, null, seq, ascdesc);
+        // The lookup in AsyncBackendCall when a recording is refreshed
+        long start = System.nanoTime();
+        for (int ix = 0; ix < REPEAT; ix++) {
+            String selection = VideoEntry.COLUMN_RECORDEDID + " = " + (size / 2 + ix)
+                    + " AND " + VideoEntry.COLUMN_RECTYPE
+                    + " = " + VideoEntry.RECTYPE_RECORDING;
+            Cursor cursor = db.query(VideoEntry.TABLE_NAME, null, selection, null,
+                    null, null, null);
+            while (cursor.moveToNext())
+                cursor.getString(0);
+            cursor.close();
+        }
+        long refresh = (System.nanoTime() - start) / REPEAT / 1000000;
+        Log.i(TAG, CLASS + " " + size + " rows " + desc
+                + ": main list " + main + " ms"
+                + ", recgroup " + recgroup + " ms"
+                + ", videos " + videos + " ms"
+                + ", refresh " + refresh + " ms");
+    }
+
+    // Average time in ms to run a list query on the view and read all the rows
+    private static long timeList(SQLiteDatabase db, int type, String baseName,
+                                 String seq, String ascdesc) {
+        String selection = MainFragment.makeSelection(type, baseName);
+        String[] args = MainFragment.makeSelectionArgs(type, baseName);
+        String orderBy = MainFragment.makeOrderBy(type, baseName, seq, ascdesc);
+        long start = System.nanoTime();
+        for (int ix = 0; ix < REPEAT; ix++) {
+            Cursor cursor = db.query(VideoEntry.VIEW_NAME, null, selection, args,
+                    null, null, orderBy);
+            while (cursor.moveToNext())
+                cursor.getString(0);
+            cursor.close();
+        }
+        return (System.nanoTime() - start) / REPEAT / 1000000;
+    }
+}
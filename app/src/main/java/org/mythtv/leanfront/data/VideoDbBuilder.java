@@ -31,6 +31,7 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 
+import org.mythtv.leanfront.MyApplication;
 import org.mythtv.leanfront.R;
 
 import org.mythtv.leanfront.model.Settings;
@@ -44,6 +45,7 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 import java.util.TimeZone;
 
 /**
@@ -86,7 +88,7 @@ public class VideoDbBuilder {
     public static final String VALUE_WATCHED = (new Integer(Video.FL_WATCHED)).toString();
 
     // Channels
-    private static final String[] XMLTAGS_CHANNEL = {"ChannelInfos", "ChannelInfo"};
+    public static final String[] XMLTAGS_CHANNEL = {"ChannelInfos", "ChannelInfo"};
     public static final String XMLTAG_CHANID = "ChanId";
     public static final String XMLTAG_CHANNUM = "ChanNum";
     public static final String XMLTAG_CALLSIGN = "CallSign";
@@ -101,8 +103,13 @@ public class VideoDbBuilder {
 
 
     // 2018-05-23T00:00:00Z
-    private static final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'Z");
-    private static final SimpleDateFormat dbDateFormat = new SimpleDateFormat("yyyy-MM-dd");
+    // Not static because SimpleDateFormat is not thread safe. Access is
+    // synchronized on this object.
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'Z");
+    private final SimpleDateFormat dbDateFormat = new SimpleDateFormat("yyyy-MM-dd");
+
+    // Articles "the" "a" etc to be ignored at the front when sorting
+    private static String[] sArticles;
 
 
     /**
@@ -136,6 +143,13 @@ public class VideoDbBuilder {
         }
     }
 
+    /**
+     * Receives rows as they are built from a streamed response.
+     */
+    public interface RowHandler {
+        void onRow(ContentValues values) throws IOException, XmlPullParserException;
+    }
+
     /**
      * Fetches data representing videos from a server and populates that in a database
      *
@@ -144,8 +158,40 @@ public class VideoDbBuilder {
     public @NonNull
     void fetch(String url, int phase, List<ContentValues> videosToInsert)
             throws IOException, XmlPullParserException {
-        XmlNode videoData = XmlNode.fetch(url, null);
-        buildMedia(videoData, phase, -1, videosToInsert);
+        fetch(url, phase, videosToInsert::add);
+    }
+
+    /**
+     * Fetches data representing videos from a server, passing each row to the
+     * handler as soon as its element has been parsed. Only one element is held
+     * in memory at a time. This may be called from several threads at once.
+     *
+     * @param url The location of the video list
+     * @param phase   0 for recordings, 1 for videos, 2 for channels
+     * @return the list element without the streamed entries, so that
+     *         Count and TotalAvailable can be checked
+     */
+    public XmlNode fetch(String url, int phase, RowHandler handler)
+            throws IOException, XmlPullParserException {
+        String[] tags;
+        if (phase == 0)
+            tags = XMLTAGS_PROGRAM;
+        else if (phase == 1)
+            tags = XMLTAGS_VIDEO;
+        else
+            tags = XMLTAGS_CHANNEL;
+        final int maxparental = Settings.getInt("pref_video_parental");
+        final int rowsize = Settings.getInt("pref_livetv_rowsize");
+        final String baseMasterUrl = XmlNode.mythApiUrl(null, null);
+        return XmlNode.fetch(url, null, tags, (XmlNode node) -> {
+            ContentValues values;
+            if (phase == 2)
+                values = buildChannel(node, rowsize);
+            else
+                values = buildProgram(node, phase, false, baseMasterUrl, maxparental);
+            if (values != null)
+                handler.onRow(values);
+        });
     }
 
     /**
@@ -158,14 +204,11 @@ public class VideoDbBuilder {
     public void buildMedia(XmlNode xmlFull, int phase, int ixSingle, List<ContentValues> videosToInsert)
             throws IOException, XmlPullParserException {
         String[] tagsProgram = null;
-        String tagRecordedId = null;
         if (phase == 0) {  //Recordings
             tagsProgram = XMLTAGS_PROGRAM;
-            tagRecordedId = XMLTAG_RECORDEDID;
         }
         if (phase == 1) {  //Videos
             tagsProgram = XMLTAGS_VIDEO;
-            tagRecordedId = XMLTAG_ID;
         }
         if (phase == 2) { // Channels
             loadChannels(xmlFull, videosToInsert);
@@ -191,190 +234,218 @@ public class VideoDbBuilder {
                 programNode = programNode.getNextSibling();
             if (programNode == null)
                 break;
-            XmlNode recordingNode = null;
-            int rectype = -1;
-            String recGroup = null;
-            String storageGroup = null;
-            String channel = null;
-            String airdate = null;
-            String starttime = null;
-            String endtime = null;
-            String baseUrl = null;
-            long duration = 0;
-            String progflags = "0";
-            String videoProps = "0";
-            if (phase == 0) { // Recordings
-                rectype = VideoContract.VideoEntry.RECTYPE_RECORDING;
-                String fileSize = programNode.getString(XMLTAG_FILESIZE);
-                recordingNode = programNode.getNode(XMLTAG_RECORDING);
-                String recordId = recordingNode.getString(XMLTAG_RECORDID);
-                // Skip dummy LiveTV entry
-                if ("0".equals(fileSize) && "0".equals(recordId))
-                    continue;
-                recGroup = recordingNode.getString(XMLTAG_RECGROUP);
-                if (recGroup == null || recGroup.length() == 0)
-                    recGroup = "Default";
-                storageGroup = recordingNode.getString(XMLTAG_STORAGEGROUP);
-                channel = programNode.getString(XMLTAGS_CHANNELNAME);
-                airdate = programNode.getString(XMLTAG_AIRDATE);
-                starttime = programNode.getString(XMLTAG_STARTTIME);
-
-                String startTS = recordingNode.getString(XMLTAG_STARTTS);
-                endtime = recordingNode.getString(XMLTAG_ENDTS);
-                long startTimeSecs = 0;
-                try {
-                    Date dateStart = dateFormat.parse(startTS + "+0000");
-                    Date dateEnd = dateFormat.parse(endtime + "+0000");
-                    startTimeSecs = dateStart.getTime();
-                    duration = (dateEnd.getTime() - startTimeSecs);
-                } catch (ParseException e) {
-                    e.printStackTrace();
-                }
-                // if airdate missing default it to starttime.
-                if (starttime != null && airdate == null
-                        && startTimeSecs != 0) {
-                    TimeZone tz = TimeZone.getDefault();
-                    startTimeSecs += tz.getOffset(startTimeSecs);
-                    airdate = dbDateFormat.format(new Date(startTimeSecs));
-                }
-                progflags = programNode.getString(XMLTAG_PROGFLAGS);
-                videoProps = programNode.getString(XMLTAG_VIDEOPROPS);
+            ContentValues videoValues = buildProgram(programNode, phase, ixSingle >= 0,
+                    baseMasterUrl, maxparental);
+            if (videoValues != null)
+                videosToInsert.add(videoValues);
+            if (ixSingle >= 0)
+                break;
+        }
+        return;
+    }
+
+    /**
+     * Build the database row for one recording or video
+     *
+     * @param programNode Program or VideoMetadataInfo node
+     * @param phase   0 for recordings, 1 for videos
+     * @param single true if this is a specifically requested record, so that
+     *               the parental level check is skipped
+     * @return the row, or null if this entry is to be skipped
+     */
+    private synchronized ContentValues buildProgram(XmlNode programNode, int phase, boolean single,
+                                       String baseMasterUrl, int maxparental)
+            throws IOException, XmlPullParserException {
+        String tagRecordedId = null;
+        if (phase == 0)  //Recordings
+            tagRecordedId = XMLTAG_RECORDEDID;
+        if (phase == 1)  //Videos
+            tagRecordedId = XMLTAG_ID;
+        XmlNode recordingNode = null;
+        int rectype = -1;
+        String recGroup = null;
+        String storageGroup = null;
+        String channel = null;
+        String airdate = null;
+        String starttime = null;
+        String endtime = null;
+        String baseUrl = null;
+        long duration = 0;
+        String progflags = "0";
+        String videoProps = "0";
+        if (phase == 0) { // Recordings
+            rectype = VideoContract.VideoEntry.RECTYPE_RECORDING;
+            String fileSize = programNode.getString(XMLTAG_FILESIZE);
+            recordingNode = programNode.getNode(XMLTAG_RECORDING);
+            String recordId = recordingNode.getString(XMLTAG_RECORDID);
+            // Skip dummy LiveTV entry
+            if ("0".equals(fileSize) && "0".equals(recordId))
+                return null;
+            recGroup = recordingNode.getString(XMLTAG_RECGROUP);
+            if (recGroup == null || recGroup.length() == 0)
+                recGroup = "Default";
+            storageGroup = recordingNode.getString(XMLTAG_STORAGEGROUP);
+            channel = programNode.getString(XMLTAGS_CHANNELNAME);
+            airdate = programNode.getString(XMLTAG_AIRDATE);
+            starttime = programNode.getString(XMLTAG_STARTTIME);
+
+            String startTS = recordingNode.getString(XMLTAG_STARTTS);
+            endtime = recordingNode.getString(XMLTAG_ENDTS);
+            long startTimeSecs = 0;
+            try {
+                Date dateStart = dateFormat.parse(startTS + "+0000");
+                Date dateEnd = dateFormat.parse(endtime + "+0000");
+                startTimeSecs = dateStart.getTime();
+                duration = (dateEnd.getTime() - startTimeSecs);
+            } catch (ParseException e) {
+                e.printStackTrace();
             }
-            if (phase == 1) { // Videos
-                if (ixSingle < 0) {
-                    int parental = programNode.getInt("ParentalLevel", 1);
-                    if (parental > maxparental)
-                        continue;
-                }
-                rectype = VideoContract.VideoEntry.RECTYPE_VIDEO;
-                recordingNode = programNode;
-                recGroup = null;
-                storageGroup = "Videos";
-                channel = null;
-                airdate = programNode.getString(XMLTAG_RELEASEDATE);
-                if (airdate != null && airdate.length() > 10)
-                    airdate = programNode.getString(XMLTAG_RELEASEDATE).substring(0, 10);
-                starttime = null;
-                String watched = programNode.getString(XMLTAG_WATCHED);
-                if ("true".equals(watched))
-                    progflags = VALUE_WATCHED;
-                else
-                    progflags = "0";
+            // if airdate missing default it to starttime.
+            if (starttime != null && airdate == null
+                    && startTimeSecs != 0) {
+                TimeZone tz = TimeZone.getDefault();
+                startTimeSecs += tz.getOffset(startTimeSecs);
+                airdate = dbDateFormat.format(new Date(startTimeSecs));
             }
-            String recordedid = null;
-            String videoFileName = null;
-            String coverArtUrl = null;
-            String title = null;
-            String subtitle = null;
-            String description = null;
-            String videoUrl = null;
-            String hostName = null;
-            String fanArtUrl = null;
-            String prodYear = null;
-            String baseHostUrl = null;
-            if (phase == 0 || phase == 1) {
-                recordedid = recordingNode.getString(tagRecordedId);
-                title = programNode.getString(XMLTAG_TITLE);
-                // These next three lines cause chaos.!!!
-                if (phase == 0 && mBackendOverride)  // Recordings
-                    hostName = mMasterServer;
-                else
-                    hostName = recordingNode.getString(XMLTAG_HOSTNAME);
-                subtitle = programNode.getString(XMLTAG_SUBTITLE);
-                description = programNode.getString(XMLTAG_DESCRIPTION);
-                videoFileName = recordingNode.getString(XMLTAG_FILENAME);
-                baseUrl = XmlNode.mythApiUrl(hostName, null);
-                baseHostUrl = XmlNode.mythApiUrl(recordingNode.getString(XMLTAG_HOSTNAME), null);
-                videoUrl = baseUrl
+            progflags = programNode.getString(XMLTAG_PROGFLAGS);
+            videoProps = programNode.getString(XMLTAG_VIDEOPROPS);
+        }
+        if (phase == 1) { // Videos
+            if (!single) {
+                int parental = programNode.getInt("ParentalLevel", 1);
+                if (parental > maxparental)
+                    return null;
+            }
+            rectype = VideoContract.VideoEntry.RECTYPE_VIDEO;
+            recordingNode = programNode;
+            recGroup = null;
+            storageGroup = "Videos";
+            channel = null;
+            airdate = programNode.getString(XMLTAG_RELEASEDATE);
+            if (airdate != null && airdate.length() > 10)
+                airdate = programNode.getString(XMLTAG_RELEASEDATE).substring(0, 10);
+            starttime = null;
+            String watched = programNode.getString(XMLTAG_WATCHED);
+            if ("true".equals(watched))
+                progflags = VALUE_WATCHED;
+            else
+                progflags = "0";
+        }
+        String recordedid = null;
+        String videoFileName = null;
+        String coverArtUrl = null;
+        String title = null;
+        String subtitle = null;
+        String description = null;
+        String videoUrl = null;
+        String hostName = null;
+        String fanArtUrl = null;
+        String prodYear = null;
+        String baseHostUrl = null;
+        if (phase == 0 || phase == 1) {
+            recordedid = recordingNode.getString(tagRecordedId);
+            title = programNode.getString(XMLTAG_TITLE);
+            // These next three lines cause chaos.!!!
+            if (phase == 0 && mBackendOverride)  // Recordings
+                hostName = mMasterServer;
+            else
+                hostName = recordingNode.getString(XMLTAG_HOSTNAME);
+            subtitle = programNode.getString(XMLTAG_SUBTITLE);
+            description = programNode.getString(XMLTAG_DESCRIPTION);
+            videoFileName = recordingNode.getString(XMLTAG_FILENAME);
+            baseUrl = XmlNode.mythApiUrl(hostName, null);
+            baseHostUrl = XmlNode.mythApiUrl(recordingNode.getString(XMLTAG_HOSTNAME), null);
+            videoUrl = baseUrl
 //                videoUrl = "http://emulator:6744"
-                        + "/Content/GetFile?StorageGroup="
-                        + storageGroup + "&FileName=/" + URLEncoder.encode(videoFileName, "UTF-8");
-                XmlNode artInfoNode = null;
-                for (; ; ) {
-                    if (artInfoNode == null)
-                        artInfoNode = programNode.getNode(XMLTAGS_ARTINFO, 0);
-                    else
-                        artInfoNode = artInfoNode.getNextSibling();
-                    if (artInfoNode == null)
-                        break;
-                    String artType = artInfoNode.getString(XMLTAG_ARTTYPE);
-                    String artUrl = baseMasterUrl + artInfoNode.getString(XMLTAG_ARTURL);
-                    int equ = artUrl.lastIndexOf('=');
-                    if (equ > 0) {
-                        String fileName = artUrl.substring(equ + 1);
-                        if (fileName.length() > 0) {
-                            // decode and encode it to ensure it is encoded
-                            fileName = URLDecoder.decode(fileName, "UTF-8");
-                            fileName = URLEncoder.encode(fileName, "UTF-8");
-                            artUrl = artUrl.substring(0, equ + 1) + fileName;
-                        }
+                    + "/Content/GetFile?StorageGroup="
+                    + storageGroup + "&FileName=/" + URLEncoder.encode(videoFileName, "UTF-8");
+            XmlNode artInfoNode = null;
+            for (; ; ) {
+                if (artInfoNode == null)
+                    artInfoNode = programNode.getNode(XMLTAGS_ARTINFO, 0);
+                else
+                    artInfoNode = artInfoNode.getNextSibling();
+                if (artInfoNode == null)
+                    break;
+                String artType = artInfoNode.getString(XMLTAG_ARTTYPE);
+                String artUrl = baseMasterUrl + artInfoNode.getString(XMLTAG_ARTURL);
+                int equ = artUrl.lastIndexOf('=');
+                if (equ > 0) {
+                    String fileName = artUrl.substring(equ + 1);
+                    if (fileName.length() > 0) {
+                        // decode and encode it to ensure it is encoded
+                        fileName = URLDecoder.decode(fileName, "UTF-8");
+                        fileName = URLEncoder.encode(fileName, "UTF-8");
+                        artUrl = artUrl.substring(0, equ + 1) + fileName;
                     }
-                    if ("coverart".equals(artType))
-                        coverArtUrl = artUrl;
-                    else if ("fanart".equals(artType))
-                        fanArtUrl = artUrl;
                 }
-
-                if (airdate != null)
-                    prodYear = airdate.substring(0, 4);
-                else if (starttime != null)
-                    prodYear = starttime.substring(0, 4);
-            }
-            String cardImageURL = null;
-            String dbFileName = null;
-            dbFileName = videoFileName;
-            if (phase == 0) { // Recordings
-                cardImageURL = baseHostUrl + "/Content/GetPreviewImage?Format=png&RecordedId=" + recordedid;
+                if ("coverart".equals(artType))
+                    coverArtUrl = artUrl;
+                else if ("fanart".equals(artType))
+                    fanArtUrl = artUrl;
             }
-            if (phase == 1) { // Videos
-                cardImageURL = coverArtUrl;
-            }
-            String season = programNode.getString(XMLTAG_SEASON);
-            String episode = programNode.getString(XMLTAG_EPISODE);
-
-            if (title == null || title.length() == 0)
-                title = " ";
-            if (subtitle == null || subtitle.length() == 0)
-                subtitle = " ";
-            if (description == null || description.length() == 0)
-                description = " ";
-
-            ContentValues videoValues = new ContentValues();
-            videoValues.put(VideoContract.VideoEntry.COLUMN_RECTYPE, rectype);
-            videoValues.put(VideoContract.VideoEntry.COLUMN_TITLE, title);
-            videoValues.put(VideoContract.VideoEntry.COLUMN_SUBTITLE, subtitle);
-            videoValues.put(VideoContract.VideoEntry.COLUMN_DESC, description);
-            videoValues.put(VideoContract.VideoEntry.COLUMN_VIDEO_URL, videoUrl);
-            videoValues.put(VideoContract.VideoEntry.COLUMN_FILENAME, dbFileName);
-            videoValues.put(VideoContract.VideoEntry.COLUMN_HOSTNAME, hostName);
-            videoValues.put(VideoContract.VideoEntry.COLUMN_CARD_IMG, cardImageURL);
-            videoValues.put(VideoContract.VideoEntry.COLUMN_BG_IMAGE_URL, fanArtUrl);
-            videoValues.put(VideoContract.VideoEntry.COLUMN_CHANNEL, channel);
-            videoValues.put(VideoContract.VideoEntry.COLUMN_AIRDATE, airdate);
-
-            videoValues.put(VideoContract.VideoEntry.COLUMN_STARTTIME, starttime);
-            videoValues.put(VideoContract.VideoEntry.COLUMN_ENDTIME, endtime);
-            videoValues.put(VideoContract.VideoEntry.COLUMN_PRODUCTION_YEAR, prodYear);
-            videoValues.put(VideoContract.VideoEntry.COLUMN_RECORDEDID, recordedid);
-            videoValues.put(VideoContract.VideoEntry.COLUMN_STORAGEGROUP, storageGroup);
-            videoValues.put(VideoContract.VideoEntry.COLUMN_RECGROUP, recGroup);
-            videoValues.put(VideoContract.VideoEntry.COLUMN_SEASON, season);
-            videoValues.put(VideoContract.VideoEntry.COLUMN_EPISODE, episode);
-
-            videoValues.put(VideoContract.VideoEntry.COLUMN_CONTENT_TYPE, "video/mp4");
-            videoValues.put(VideoContract.VideoEntry.COLUMN_DURATION, duration);
-            if (mContext != null) {
-                videoValues.put(VideoContract.VideoEntry.COLUMN_ACTION,
-                        mContext.getResources().getString(R.string.global_search));
-            }
-            videoValues.put(VideoContract.VideoEntry.COLUMN_PROGFLAGS, progflags);
-            videoValues.put(VideoContract.VideoEntry.COLUMN_VIDEOPROPS, videoProps);
 
-            videosToInsert.add(videoValues);
-            if (ixSingle >= 0)
-                break;
+            if (airdate != null)
+                prodYear = airdate.substring(0, 4);
+            else if (starttime != null)
+                prodYear = starttime.substring(0, 4);
         }
-        return;
+        String cardImageURL = null;
+        String dbFileName = null;
+        dbFileName = videoFileName;
+        if (phase == 0) { // Recordings
+            cardImageURL = baseHostUrl + "/Content/GetPreviewImage?Format=png&RecordedId=" + recordedid;
+        }
+        if (phase == 1) { // Videos
+            cardImageURL = coverArtUrl;
+        }
+        String season = programNode.getString(XMLTAG_SEASON);
+        String episode = programNode.getString(XMLTAG_EPISODE);
+
+        if (title == null || title.length() == 0)
+            title = " ";
+        if (subtitle == null || subtitle.length() == 0)
+            subtitle = " ";
+        if (description == null || description.length() == 0)
+            description = " ";
+
+        ContentValues videoValues = new ContentValues();
+        videoValues.put(VideoContract.VideoEntry.COLUMN_RECTYPE, rectype);
+        videoValues.put(VideoContract.VideoEntry.COLUMN_TITLE, title);
+        videoValues.put(VideoContract.VideoEntry.COLUMN_TITLE_SORT, makeSortKey(title, '^'));
+        videoValues.put(VideoContract.VideoEntry.COLUMN_SUBTITLE, subtitle);
+        videoValues.put(VideoContract.VideoEntry.COLUMN_DESC, description);
+        videoValues.put(VideoContract.VideoEntry.COLUMN_VIDEO_URL, videoUrl);
+        videoValues.put(VideoContract.VideoEntry.COLUMN_URL_HASH, VideoContract.urlHash(videoUrl));
+        videoValues.put(VideoContract.VideoEntry.COLUMN_FILENAME, dbFileName);
+        // Only videos are sorted by file name
+        if (rectype == VideoContract.VideoEntry.RECTYPE_VIDEO)
+            videoValues.put(VideoContract.VideoEntry.COLUMN_FILENAME_SORT,
+                    makeSortKey(dbFileName, '/'));
+        videoValues.put(VideoContract.VideoEntry.COLUMN_HOSTNAME, hostName);
+        videoValues.put(VideoContract.VideoEntry.COLUMN_CARD_IMG, cardImageURL);
+        videoValues.put(VideoContract.VideoEntry.COLUMN_BG_IMAGE_URL, fanArtUrl);
+        videoValues.put(VideoContract.VideoEntry.COLUMN_CHANNEL, channel);
+        videoValues.put(VideoContract.VideoEntry.COLUMN_AIRDATE, airdate);
+
+        videoValues.put(VideoContract.VideoEntry.COLUMN_STARTTIME, starttime);
+        videoValues.put(VideoContract.VideoEntry.COLUMN_ENDTIME, endtime);
+        videoValues.put(VideoContract.VideoEntry.COLUMN_PRODUCTION_YEAR, prodYear);
+        videoValues.put(VideoContract.VideoEntry.COLUMN_RECORDEDID, recordedid);
+        videoValues.put(VideoContract.VideoEntry.COLUMN_STORAGEGROUP, storageGroup);
+        videoValues.put(VideoContract.VideoEntry.COLUMN_RECGROUP, recGroup);
+        videoValues.put(VideoContract.VideoEntry.COLUMN_SEASON, season);
+        videoValues.put(VideoContract.VideoEntry.COLUMN_EPISODE, episode);
+
+        videoValues.put(VideoContract.VideoEntry.COLUMN_CONTENT_TYPE, "video/mp4");
+        videoValues.put(VideoContract.VideoEntry.COLUMN_DURATION, duration);
+        if (mContext != null) {
+            videoValues.put(VideoContract.VideoEntry.COLUMN_ACTION,
+                    mContext.getResources().getString(R.string.global_search));
+        }
+        videoValues.put(VideoContract.VideoEntry.COLUMN_PROGFLAGS, progflags);
+        videoValues.put(VideoContract.VideoEntry.COLUMN_VIDEOPROPS, videoProps);
+        return videoValues;
     }
 
     private void loadChannels(XmlNode xmlFull, List<ContentValues> channelsToInsert) {
@@ -387,54 +458,86 @@ public class VideoDbBuilder {
                 channelNode = channelNode.getNextSibling();
             if (channelNode == null)
                 break;
-            int rectype = VideoContract.VideoEntry.RECTYPE_CHANNEL;
-            String chanid = channelNode.getString(XMLTAG_CHANID);
-            String channum = channelNode.getString(XMLTAG_CHANNUM);
-            String callsign = channelNode.getString(XMLTAG_CALLSIGN);
-            String channelname = channelNode.getString(XMLTAG_CHANNELNAME);
-            if (channum == null || channum.length() == 0) {
-                channum = " ";
-            }
-            String title;
-            float fChannum = -1.0f;
-            try {
-                fChannum = Float.parseFloat(channum.replace('-', '.'));
-            } catch (NumberFormatException e) {
-
-                fChannum = -1.0f;
-            }
-            if (fChannum < 0.0f) {
-                // Non numeric channel number
-                title = mContext.getString(R.string.row_header_channels) + " " + channum.toUpperCase().charAt(0);
-            }
-            else {
-                int start = (((int) fChannum) /rowsize) * rowsize;
-                int end = start + rowsize-1;
-                String spacer;
-                if (fChannum < 1.0f)
-                    spacer = "    ";
-                else if (fChannum < 100.0f)
-                    spacer = "   ";
-                else if (fChannum < 1000.0f)
-                    spacer = "  ";
-                else
-                    spacer = " ";
-                title = mContext.getString(R.string.row_header_channels) + spacer + start + " - " + end;
-            }
-            ContentValues channelValues = new ContentValues();
-            channelValues.put(VideoContract.VideoEntry.COLUMN_RECTYPE, rectype);
-            channelValues.put(VideoContract.VideoEntry.COLUMN_TITLE, title);
-            channelValues.put(VideoContract.VideoEntry.COLUMN_SUBTITLE, channum + " " + channelname + " " + callsign);
-            channelValues.put(VideoContract.VideoEntry.COLUMN_CHANID, chanid);
-            channelValues.put(VideoContract.VideoEntry.COLUMN_CHANNUM, channum);
-            channelValues.put(VideoContract.VideoEntry.COLUMN_RECORDEDID, chanid);
-            channelValues.put(VideoContract.VideoEntry.COLUMN_CALLSIGN, callsign);
-            channelValues.put(VideoContract.VideoEntry.COLUMN_CHANNEL, channelname);
-            channelValues.put(VideoContract.VideoEntry.COLUMN_PROGFLAGS, "0");
-            channelValues.put(VideoContract.VideoEntry.COLUMN_VIDEOPROPS, "0");
-            channelValues.put(VideoContract.VideoEntry.COLUMN_RECGROUP, "LiveTV");
-            channelsToInsert.add(channelValues);
+            channelsToInsert.add(buildChannel(channelNode, rowsize));
         }
         return;
     }
+
+    private synchronized ContentValues buildChannel(XmlNode channelNode, int rowsize) {
+        int rectype = VideoContract.VideoEntry.RECTYPE_CHANNEL;
+        String chanid = channelNode.getString(XMLTAG_CHANID);
+        String channum = channelNode.getString(XMLTAG_CHANNUM);
+        String callsign = channelNode.getString(XMLTAG_CALLSIGN);
+        String channelname = channelNode.getString(XMLTAG_CHANNELNAME);
+        if (channum == null || channum.length() == 0) {
+            channum = " ";
+        }
+        String title;
+        float fChannum = -1.0f;
+        try {
+            fChannum = Float.parseFloat(channum.replace('-', '.'));
+        } catch (NumberFormatException e) {
+
+            fChannum = -1.0f;
+        }
+        if (fChannum < 0.0f) {
+            // Non numeric channel number
+            title = mContext.getString(R.string.row_header_channels) + " " + channum.toUpperCase().charAt(0);
+        }
+        else {
+            int start = (((int) fChannum) /rowsize) * rowsize;
+            int end = start + rowsize-1;
+            String spacer;
+            if (fChannum < 1.0f)
+                spacer = "    ";
+            else if (fChannum < 100.0f)
+                spacer = "   ";
+            else if (fChannum < 1000.0f)
+                spacer = "  ";
+            else
+                spacer = " ";
+            title = mContext.getString(R.string.row_header_channels) + spacer + start + " - " + end;
+        }
+        ContentValues channelValues = new ContentValues();
+        channelValues.put(VideoContract.VideoEntry.COLUMN_RECTYPE, rectype);
+        channelValues.put(VideoContract.VideoEntry.COLUMN_TITLE, title);
+        channelValues.put(VideoContract.VideoEntry.COLUMN_TITLE_SORT, makeSortKey(title, '^'));
+        channelValues.put(VideoContract.VideoEntry.COLUMN_SUBTITLE, channum + " " + channelname + " " + callsign);
+        channelValues.put(VideoContract.VideoEntry.COLUMN_CHANID, chanid);
+        channelValues.put(VideoContract.VideoEntry.COLUMN_CHANNUM, channum);
+        channelValues.put(VideoContract.VideoEntry.COLUMN_RECORDEDID, chanid);
+        channelValues.put(VideoContract.VideoEntry.COLUMN_CALLSIGN, callsign);
+        channelValues.put(VideoContract.VideoEntry.COLUMN_CHANNEL, channelname);
+        channelValues.put(VideoContract.VideoEntry.COLUMN_PROGFLAGS, "0");
+        channelValues.put(VideoContract.VideoEntry.COLUMN_VIDEOPROPS, "0");
+        channelValues.put(VideoContract.VideoEntry.COLUMN_RECGROUP, "LiveTV");
+        return channelValues;
+    }
+
+    /**
+     * Create the key to sort on, upper case and excluding articles "the" "a"
+     * etc at the front or at the front of directory names. This is stored
+     * in the database so that lists can be sorted without string
+     * manipulation in the query.
+     * @param value Title or file name
+     * @param delim Delimiter to use - ^ for title and / for directory
+     * @return Sort key, or null if value is null
+     */
+    public static String makeSortKey(String value, char delim) {
+        if (value == null)
+            return null;
+        String[] articles;
+        synchronized (VideoDbBuilder.class) {
+            if (sArticles == null)
+                sArticles = MyApplication.getAppContext().getResources()
+                        .getStringArray(R.array.title_sort_articles);
+            articles = sArticles;
+        }
+        String key = delim + value.toUpperCase(Locale.ROOT);
+        for (String article : articles) {
+            if (article != null && article.length() > 0)
+                key = key.replace(delim + article + " ", String.valueOf(delim));
+        }
+        return key;
+    }
 }
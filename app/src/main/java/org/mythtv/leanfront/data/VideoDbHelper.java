@@ -24,12 +24,18 @@
 
 package org.mythtv.leanfront.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
 import org.mythtv.leanfront.data.VideoContract.VideoEntry;
+import org.mythtv.leanfront.data.VideoContract.GuideSyncEntry;
+import org.mythtv.leanfront.data.VideoContract.ProgramEntry;
 import org.mythtv.leanfront.data.VideoContract.StatusEntry;
+import org.mythtv.leanfront.data.VideoContract.StartupTraceEntry;
+import org.mythtv.leanfront.data.VideoContract.StreamPropsEntry;
 
 
 /**
@@ -38,7 +44,7 @@ import org.mythtv.leanfront.data.VideoContract.StatusEntry;
 public class VideoDbHelper extends SQLiteOpenHelper {
 
     // Change this when you change the database schema.
-    private static final int DATABASE_VERSION = 14;
+    private static final int DATABASE_VERSION = 20;
 
     // The name of our database.
     private static final String DATABASE_NAME = "leanback.db";
@@ -54,11 +60,11 @@ public class VideoDbHelper extends SQLiteOpenHelper {
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        if (oldVersion < 14) {
+        if (oldVersion < 17) {
             // On any upgrade just recreate this table
             db.execSQL("DROP TABLE IF EXISTS " + VideoEntry.TABLE_NAME);
             // Create a table to hold videos.
-            // This table gets deleted and recreated periodically
+            // This table is synchronized with the backend periodically
             final String SQL_CREATE_VIDEO_TABLE = "CREATE TABLE " + VideoEntry.TABLE_NAME + " (" +
                     VideoEntry._ID + " INTEGER PRIMARY KEY," +
                     VideoEntry.COLUMN_RECTYPE + " INTEGER, " +
@@ -87,11 +93,38 @@ public class VideoDbHelper extends SQLiteOpenHelper {
                     VideoEntry.COLUMN_VIDEOPROPS + " TEXT," +
                     VideoEntry.COLUMN_CHANID   + " TEXT," +
                     VideoEntry.COLUMN_CHANNUM  + " TEXT," +
-                    VideoEntry.COLUMN_CALLSIGN + " TEXT" +
+                    VideoEntry.COLUMN_CALLSIGN + " TEXT," +
+                    VideoEntry.COLUMN_SYNC_HASH + " INTEGER," +
+                    VideoEntry.COLUMN_URL_HASH + " INTEGER," +
+                    VideoEntry.COLUMN_TITLE_SORT + " TEXT," +
+                    VideoEntry.COLUMN_FILENAME_SORT + " TEXT" +
                     " );";
 
             // Do the creating of the table.
             db.execSQL(SQL_CREATE_VIDEO_TABLE);
+
+            // Indexes for the main list and recording group selections,
+            // related videos in playback and single item refresh.
+            db.execSQL("CREATE INDEX video_rectype_recgroup_title ON "
+                    + VideoEntry.TABLE_NAME + " ("
+                    + VideoEntry.COLUMN_RECTYPE + ", "
+                    + VideoEntry.COLUMN_RECGROUP + ", "
+                    + VideoEntry.COLUMN_TITLE + ");");
+            // Indexes for sorting the recording group and video lists
+            db.execSQL("CREATE INDEX video_recgroup_title_sort ON "
+                    + VideoEntry.TABLE_NAME + " ("
+                    + VideoEntry.COLUMN_RECGROUP + ", "
+                    + VideoEntry.COLUMN_TITLE_SORT + ");");
+            db.execSQL("CREATE INDEX video_rectype_filename_sort ON "
+                    + VideoEntry.TABLE_NAME + " ("
+                    + VideoEntry.COLUMN_RECTYPE + ", "
+                    + VideoEntry.COLUMN_FILENAME_SORT + ");");
+            db.execSQL("CREATE INDEX video_recordedid ON "
+                    + VideoEntry.TABLE_NAME + " ("
+                    + VideoEntry.COLUMN_RECORDEDID + ");");
+            db.execSQL("CREATE INDEX video_chanid ON "
+                    + VideoEntry.TABLE_NAME + " ("
+                    + VideoEntry.COLUMN_CHANID + ");");
         }
         // This table needs to be preserved. Use alter rather than recreating
         if (oldVersion < 1) {
@@ -111,9 +144,101 @@ public class VideoDbHelper extends SQLiteOpenHelper {
                     StatusEntry.COLUMN_SHOW_RECENT + " INTEGER DEFAULT 1;";
             db.execSQL(SQL);
         }
+        if (oldVersion < 16) {
+            final String SQL = "ALTER TABLE " + StatusEntry.TABLE_NAME +
+                    " ADD COLUMN " +
+                    StatusEntry.COLUMN_URL_HASH + " INTEGER;";
+            db.execSQL(SQL);
+            // Fill in the hash for existing rows
+            Cursor cursor = db.query(StatusEntry.TABLE_NAME,
+                    new String[] {StatusEntry._ID, StatusEntry.COLUMN_VIDEO_URL},
+                    null, null, null, null, null);
+            ContentValues values = new ContentValues();
+            while (cursor.moveToNext()) {
+                values.put(StatusEntry.COLUMN_URL_HASH,
+                        VideoContract.urlHash(cursor.getString(1)));
+                db.update(StatusEntry.TABLE_NAME, values,
+                        StatusEntry._ID + " = " + cursor.getLong(0), null);
+            }
+            cursor.close();
+            db.execSQL("CREATE INDEX videostatus_url_hash ON "
+                    + StatusEntry.TABLE_NAME + " ("
+                    + StatusEntry.COLUMN_URL_HASH + ");");
+        }
+        if (oldVersion < 18) {
+            // streamprops table keeps what was found about the streams in
+            // each video on its last play, so that the next play can skip
+            // probing. LAST_USED is used to delete old entries.
+            db.execSQL("DROP TABLE IF EXISTS " + StreamPropsEntry.TABLE_NAME);
+            final String SQL_CREATE_STREAMPROPS_TABLE = "CREATE TABLE " + StreamPropsEntry.TABLE_NAME + " (" +
+                    StreamPropsEntry._ID + " INTEGER PRIMARY KEY," +
+                    StreamPropsEntry.COLUMN_VIDEO_URL + " TEXT NOT NULL UNIQUE, " +
+                    StreamPropsEntry.COLUMN_URL_HASH + " INTEGER, " +
+                    StreamPropsEntry.COLUMN_LAST_USED + " INTEGER NOT NULL, " +
+                    StreamPropsEntry.COLUMN_CONTAINER + " TEXT, " +
+                    StreamPropsEntry.COLUMN_TRACKS + " TEXT, " +
+                    StreamPropsEntry.COLUMN_EMPTY_TRACK + " INTEGER, " +
+                    StreamPropsEntry.COLUMN_FRAME_RATE + " REAL, " +
+                    StreamPropsEntry.COLUMN_BITRATE + " INTEGER);";
+            db.execSQL(SQL_CREATE_STREAMPROPS_TABLE);
+            db.execSQL("CREATE INDEX streamprops_url_hash ON "
+                    + StreamPropsEntry.TABLE_NAME + " ("
+                    + StreamPropsEntry.COLUMN_URL_HASH + ");");
+        }
+
+        if (oldVersion < 19) {
+            // startuptrace table keeps the time taken by each phase of
+            // recent playback startups. Only the latest entries are kept.
+            db.execSQL("DROP TABLE IF EXISTS " + StartupTraceEntry.TABLE_NAME);
+            final String SQL_CREATE_STARTUPTRACE_TABLE = "CREATE TABLE " + StartupTraceEntry.TABLE_NAME + " (" +
+                    StartupTraceEntry._ID + " INTEGER PRIMARY KEY," +
+                    StartupTraceEntry.COLUMN_START_TIME + " INTEGER NOT NULL, " +
+                    StartupTraceEntry.COLUMN_VIDEO_URL + " TEXT, " +
+                    StartupTraceEntry.COLUMN_BOOKMARK + " INTEGER, " +
+                    StartupTraceEntry.COLUMN_PLAY + " INTEGER, " +
+                    StartupTraceEntry.COLUMN_FILE_LENGTH + " INTEGER, " +
+                    StartupTraceEntry.COLUMN_OPEN + " INTEGER, " +
+                    StartupTraceEntry.COLUMN_EXTRACTOR + " INTEGER, " +
+                    StartupTraceEntry.COLUMN_PREPARED + " INTEGER, " +
+                    StartupTraceEntry.COLUMN_READY + " INTEGER, " +
+                    StartupTraceEntry.COLUMN_PLAY_REQUESTED + " INTEGER, " +
+                    StartupTraceEntry.COLUMN_FIRST_FRAME + " INTEGER, " +
+                    StartupTraceEntry.COLUMN_PLAYING + " INTEGER);";
+            db.execSQL(SQL_CREATE_STARTUPTRACE_TABLE);
+        }
+
+        if (oldVersion < 20) {
+            // program table is a local copy of the guide, synchronized
+            // from the backend a day at a time. guidesync records when
+            // each day was fetched.
+            db.execSQL("DROP TABLE IF EXISTS " + ProgramEntry.TABLE_NAME);
+            final String SQL_CREATE_PROGRAM_TABLE = "CREATE TABLE " + ProgramEntry.TABLE_NAME + " (" +
+                    ProgramEntry._ID + " INTEGER PRIMARY KEY," +
+                    ProgramEntry.COLUMN_CHANID + " INTEGER NOT NULL, " +
+                    ProgramEntry.COLUMN_START_TIME + " INTEGER NOT NULL, " +
+                    ProgramEntry.COLUMN_END_TIME + " INTEGER NOT NULL, " +
+                    ProgramEntry.COLUMN_TITLE + " TEXT, " +
+                    ProgramEntry.COLUMN_SUBTITLE + " TEXT, " +
+                    ProgramEntry.COLUMN_SEASON + " INTEGER, " +
+                    ProgramEntry.COLUMN_EPISODE + " INTEGER, " +
+                    ProgramEntry.COLUMN_REC_STATUS + " TEXT, " +
+                    "UNIQUE (" + ProgramEntry.COLUMN_CHANID + ", "
+                    + ProgramEntry.COLUMN_START_TIME + "));";
+            db.execSQL(SQL_CREATE_PROGRAM_TABLE);
+            db.execSQL("CREATE INDEX program_start_time ON "
+                    + ProgramEntry.TABLE_NAME + " ("
+                    + ProgramEntry.COLUMN_START_TIME + ");");
+            db.execSQL("DROP TABLE IF EXISTS " + GuideSyncEntry.TABLE_NAME);
+            final String SQL_CREATE_GUIDESYNC_TABLE = "CREATE TABLE " + GuideSyncEntry.TABLE_NAME + " (" +
+                    GuideSyncEntry._ID + " INTEGER PRIMARY KEY," +
+                    GuideSyncEntry.COLUMN_DAY_START + " INTEGER NOT NULL UNIQUE, " +
+                    GuideSyncEntry.COLUMN_FETCH_TIME + " INTEGER NOT NULL, " +
+                    GuideSyncEntry.COLUMN_COUNT + " INTEGER);";
+            db.execSQL(SQL_CREATE_GUIDESYNC_TABLE);
+        }
 
         // View for keeping track of recently watched
-        if (oldVersion < 14) {
+        if (oldVersion < 17) {
             final String DROP_VIEW = "DROP VIEW IF EXISTS " + VideoEntry.VIEW_NAME + ";";
             db.execSQL(DROP_VIEW);
             StringBuilder createView = new StringBuilder("CREATE VIEW " + VideoEntry.VIEW_NAME);
@@ -147,6 +272,8 @@ public class VideoDbHelper extends SQLiteOpenHelper {
                         VideoEntry.COLUMN_CHANID + " ," +
                         VideoEntry.COLUMN_CHANNUM + " ," +
                         VideoEntry.COLUMN_CALLSIGN + " , " +
+                        VideoEntry.COLUMN_TITLE_SORT + " , " +
+                        VideoEntry.COLUMN_FILENAME_SORT + " , " +
                         StatusEntry.COLUMN_LAST_USED + " , " +
                         StatusEntry.COLUMN_SHOW_RECENT + " ) ");
             }
@@ -154,7 +281,8 @@ public class VideoDbHelper extends SQLiteOpenHelper {
                     VideoEntry.COLUMN_RECTYPE + " , " +
                     VideoEntry.COLUMN_TITLE + " , " +
                     VideoEntry.COLUMN_SUBTITLE + " , " +
-                    VideoEntry.COLUMN_VIDEO_URL + " , " +
+                    VideoEntry.TABLE_NAME + "." + VideoEntry.COLUMN_VIDEO_URL +
+                    " AS " + VideoEntry.COLUMN_VIDEO_URL + " , " +
                     VideoEntry.COLUMN_FILENAME + " , " +
                     VideoEntry.COLUMN_HOSTNAME + " , " +
                     VideoEntry.COLUMN_DESC + " , " +
@@ -178,11 +306,16 @@ public class VideoDbHelper extends SQLiteOpenHelper {
                     VideoEntry.COLUMN_CHANID + " ," +
                     VideoEntry.COLUMN_CHANNUM + " ," +
                     VideoEntry.COLUMN_CALLSIGN + " , " +
+                    VideoEntry.COLUMN_TITLE_SORT + " , " +
+                    VideoEntry.COLUMN_FILENAME_SORT + " , " +
                     StatusEntry.COLUMN_LAST_USED + " , " +
                     StatusEntry.COLUMN_SHOW_RECENT + " FROM " +
                     VideoEntry.TABLE_NAME + " LEFT OUTER JOIN " +
-                    StatusEntry.TABLE_NAME + " USING ( " +
-                    VideoEntry.COLUMN_VIDEO_URL + " ); ");
+                    StatusEntry.TABLE_NAME + " ON " +
+                    VideoEntry.TABLE_NAME + "." + VideoEntry.COLUMN_URL_HASH + " = " +
+                    StatusEntry.TABLE_NAME + "." + StatusEntry.COLUMN_URL_HASH + " AND " +
+                    VideoEntry.TABLE_NAME + "." + VideoEntry.COLUMN_VIDEO_URL + " = " +
+                    StatusEntry.TABLE_NAME + "." + StatusEntry.COLUMN_VIDEO_URL + " ; ");
             db.execSQL(createView.toString());
         }
     }
@@ -30,15 +30,23 @@ import org.xmlpull.v1.XmlPullParserException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class XmlNode {
+
+    /**
+     * Receives each matching element of a streamed response as soon
+     * as its end tag has been parsed.
+     */
+    public interface NodeHandler {
+        void onNode(XmlNode node) throws IOException, XmlPullParserException;
+    }
+
     private static final String TAG = "lfe";
     private static final String CLASS = "XmlNode";
 
@@ -47,10 +55,11 @@ public class XmlNode {
     private HashMap<String, String> attributeMap = new HashMap<>();
     private String text = null;
     private XmlNode nextSibling;
-    private static HashMap<String, String> sHostMap;
-    private static String sBackendIP;
+    // Read without the lock by getKnownIpAndPort
+    private static volatile ConcurrentHashMap<String, String> sHostMap;
+    private static volatile String sBackendIP;
 
-    private static String getIpAndPort(String hostname) throws IOException, XmlPullParserException {
+    private static synchronized String getIpAndPort(String hostname) throws IOException, XmlPullParserException {
         String backendIP = Settings.getString("pref_backend");
         String mainPort = Settings.getString("pref_http_port");
         if (backendIP == null || mainPort == null) {
@@ -59,7 +68,7 @@ public class XmlNode {
         }
         if (!backendIP.equals(sBackendIP)) {
             sBackendIP = backendIP;
-            sHostMap = new HashMap<>();
+            sHostMap = new ConcurrentHashMap<>();
         }
         if (hostname == null)
             return sBackendIP + ":" + mainPort;
@@ -85,9 +94,29 @@ public class XmlNode {
         return hostIpAndPort;
     }
 
-    public static void clearCache() {
+    /**
+     * Get the ip address and port of a backend without any network
+     * request and without waiting for a lookup in progress.
+     *
+     * @param hostname MythTV host name, null for the master backend
+     * @return ip:port or null if the host has not been looked up yet
+     */
+    public static String getKnownIpAndPort(String hostname) {
+        String backendIP = Settings.getString("pref_backend");
+        String mainPort = Settings.getString("pref_http_port");
+        if (backendIP == null || mainPort == null)
+            return null;
+        if (hostname == null)
+            return backendIP + ":" + mainPort;
+        ConcurrentHashMap<String, String> hostMap = sHostMap;
+        if (hostMap == null || !backendIP.equals(sBackendIP))
+            return null;
+        return hostMap.get(hostname);
+    }
+
+    public static synchronized void clearCache() {
         sBackendIP = null;
-        sHostMap = new HashMap<>();
+        sHostMap = new ConcurrentHashMap<>();
     }
 
     public static XmlNode parseStream(InputStream in) throws XmlPullParserException, IOException {
@@ -105,6 +134,66 @@ public class XmlNode {
         return ret;
     }
 
+    /**
+     * Parse a stream, building an XmlNode subtree only for elements found at
+     * the specified path below the root element. Each subtree is passed to the
+     * handler as soon as it is complete and is not retained, so memory use does
+     * not depend on the number of elements in the response.
+     *
+     * @param tags path of the repeating element, e.g. {"Programs", "Program"}.
+     *             If the root element is itself the last tag it is delivered whole.
+     * @return the root element with its other direct children, e.g.
+     *         Count and TotalAvailable, but not the streamed elements.
+     */
+    public static XmlNode parseStream(InputStream in, String[] tags, NodeHandler handler)
+            throws XmlPullParserException, IOException {
+        XmlPullParser parser = Xml.newPullParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+        parser.setInput(in, "utf-8");
+        XmlNode root = new XmlNode();
+        // depth 1 is the root element, tags[0] is at depth 2
+        int matched = 0;
+        int eventType = parser.getEventType();
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            if (eventType == XmlPullParser.START_TAG) {
+                int depth = parser.getDepth();
+                String name = parser.getName();
+                if (depth == 1) {
+                    if (tags[tags.length - 1].equals(name)) {
+                        root = parseNode(parser);
+                        handler.onNode(root);
+                    }
+                    else {
+                        root.name = name;
+                        int numAttribs = parser.getAttributeCount();
+                        for (int ix = 0; ix < numAttribs; ix++) {
+                            root.attributeMap.put(parser.getAttributeName(ix),
+                                    parser.getAttributeValue(ix));
+                        }
+                    }
+                }
+                else if (depth - 2 == matched && matched < tags.length
+                        && tags[matched].equals(name)) {
+                    if (matched == tags.length - 1)
+                        // parseNode consumes up to and including the END_TAG
+                        handler.onNode(parseNode(parser));
+                    else
+                        matched++;
+                }
+                else if (depth == 2) {
+                    XmlNode child = parseNode(parser);
+                    root.childMap.put(child.name, child);
+                }
+            }
+            else if (eventType == XmlPullParser.END_TAG) {
+                if (parser.getDepth() - 2 < matched)
+                    matched = Math.max(parser.getDepth() - 2, 0);
+            }
+            eventType = parser.next();
+        }
+        return root;
+    }
+
     // called on a START_TAG
     private static XmlNode parseNode(XmlPullParser parser) throws IOException, XmlPullParserException {
         XmlNode ret = new XmlNode();
@@ -143,46 +232,39 @@ public class XmlNode {
      */
     public static XmlNode fetch(String urlString, String requestMethod)
             throws XmlPullParserException, IOException {
-        XmlNode ret = null;
-        URL url = null;
-        HttpURLConnection urlConnection = null;
-        InputStream is = null;
         try {
-            url = new URL(urlString);
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.addRequestProperty("Cache-Control", "no-cache");
-            urlConnection.setConnectTimeout(5000);
-            // 5 minutes - should never be this long.
-            urlConnection.setReadTimeout(300000);
-            if (requestMethod != null)
-                urlConnection.setRequestMethod(requestMethod);
-            Log.d(TAG, CLASS + " URL: " + urlString);
-            is = urlConnection.getInputStream();
-            Log.d(TAG, CLASS + " Response: " + urlConnection.getResponseCode()
-                    + " " + urlConnection.getResponseMessage());
-            ret = XmlNode.parseStream(is);
+            return BackendHttpClient.request(urlString, requestMethod,
+                    BackendHttpClient.TIMEOUT_DEFAULT, true, XmlNode::parseStream);
         } catch(FileNotFoundException e) {
-            Log.d(TAG, CLASS + " Response: " + urlConnection.getResponseCode()
-                    + " " + urlConnection.getResponseMessage());
             throw e;
         } catch(IOException e) {
-            Log.d(TAG, CLASS + " Response: " + urlConnection.getResponseCode()
-                    + " " + urlConnection.getResponseMessage());
             if (!urlString.endsWith("/Myth/DelayShutdown"))
                 MainFragment.restartMythTask();
             throw e;
-        } finally {
-            if (urlConnection != null)
-                urlConnection.disconnect();
-            if (is != null) {
-                try {
-                    is.close();
-                } catch (IOException e) {
-                    Log.e(TAG, CLASS + " XML feed closed: " + urlString, e);
-                }
-            }
         }
-        return ret;
+    }
+
+    /**
+     * Fetch XML from a given URL, passing each element at the tag path to
+     * the handler as it is parsed instead of building the whole tree.
+     *
+     * @return the root element without the streamed elements
+     * @throws XmlPullParserException
+     * @throws IOException
+     */
+    public static XmlNode fetch(String urlString, String requestMethod,
+                            String[] tags, NodeHandler handler)
+            throws XmlPullParserException, IOException {
+        try {
+            return BackendHttpClient.request(urlString, requestMethod,
+                    BackendHttpClient.TIMEOUT_DEFAULT, true,
+                    (InputStream in) -> parseStream(in, tags, handler));
+        } catch(FileNotFoundException e) {
+            throw e;
+        } catch(IOException e) {
+            MainFragment.restartMythTask();
+            throw e;
+        }
     }
 
     public static XmlNode safeFetch(String urlString, String requestMethod) {
@@ -127,4 +127,10 @@ public final class BundledExtractorsAdapter implements ProgressiveMediaExtractor
     return Assertions.checkNotNull(extractor)
         .read(Assertions.checkNotNull(extractorInput), positionHolder);
   }
+
+  // Peter
+  @Nullable
+  public Extractor getExtractor() {
+    return extractor;
+  }
 }
@@ -155,6 +155,9 @@ import java.util.Map;
 
   // Peter
   private boolean possibleEmptyTrack;
+  @Nullable private ProgressiveMediaSource.SkipRanges skipRanges;
+  private int expectedTrackCount;
+  @Nullable private ProgressiveMediaSource.StartupListener startupListener;
 
   /**
    * @param uri The {@link Uri} of the media stream.
@@ -796,6 +799,25 @@ import java.util.Map;
       sampleQueues = list.toArray(new SampleQueue[0]);
       nullStreamCount = 0;
     }
+    // Peter
+    // A previous play of this video found this many tracks, so do not
+    // wait for the rest, which would have no data.
+    if (nullStreamCount > 0 && expectedTrackCount > 0
+        && sampleQueues.length - nullStreamCount >= expectedTrackCount) {
+      ArrayList<SampleQueue> list = new ArrayList<>();
+      ArrayList<TrackId> ids = new ArrayList<>();
+      for (int i = 0; i < sampleQueues.length; i++) {
+        if (sampleQueues[i].getUpstreamFormat() == null)
+          sampleQueues[i].release();
+        else {
+          list.add(sampleQueues[i]);
+          ids.add(sampleQueueTrackIds[i]);
+        }
+      }
+      sampleQueues = list.toArray(new SampleQueue[0]);
+      sampleQueueTrackIds = ids.toArray(new TrackId[0]);
+      nullStreamCount = 0;
+    }
     if (nullStreamCount > 0)
       return;
 
@@ -837,6 +859,10 @@ import java.util.Map;
     }
     trackState = new TrackState(new TrackGroupArray(trackArray), trackIsAudioVideoFlags);
     prepared = true;
+    // Peter
+    if (startupListener != null) {
+      startupListener.onPrepared();
+    }
     Assertions.checkNotNull(callback).onPrepared(this);
   }
 
@@ -986,6 +1012,30 @@ import java.util.Map;
     this.possibleEmptyTrack = possibleEmptyTrack;
   }
 
+  // Peter
+  public void setSkipRanges(@Nullable ProgressiveMediaSource.SkipRanges skipRanges) {
+    this.skipRanges = skipRanges;
+  }
+
+  // Peter
+  public void setExpectedTrackCount(int expectedTrackCount) {
+    this.expectedTrackCount = expectedTrackCount;
+  }
+
+  // Peter
+  public void setStartupListener(
+      @Nullable ProgressiveMediaSource.StartupListener startupListener) {
+    this.startupListener = startupListener;
+  }
+
+  // Peter
+  @Nullable
+  public Extractor getExtractor() {
+    if (progressiveMediaExtractor instanceof BundledExtractorsAdapter)
+      return ((BundledExtractorsAdapter) progressiveMediaExtractor).getExtractor();
+    return null;
+  }
+
   private final class SampleStreamImpl implements SampleStream {
 
     private final int track;
@@ -1069,6 +1119,8 @@ import java.util.Map;
       while (result == Extractor.RESULT_CONTINUE && !loadCanceled) {
         try {
           long position = positionHolder.position;
+          // Peter
+          long openPosition = position;
           dataSpec = buildDataSpec(position);
           length = dataSource.open(dataSpec);
           if (length != C.LENGTH_UNSET) {
@@ -1088,6 +1140,11 @@ import java.util.Map;
               position,
               length,
               extractorOutput);
+          // Peter
+          ProgressiveMediaSource.StartupListener listener = startupListener;
+          if (listener != null) {
+            listener.onExtractorSelected();
+          }
 
           if (icyHeaders != null) {
             progressiveMediaExtractor.disableSeekingOnMp3Streams();
@@ -1110,6 +1167,17 @@ import java.util.Map;
               loadCondition.close();
               handler.post(onContinueLoadingRequestedRunnable);
             }
+            // Peter
+            // Jump over a skipped range by seeking past it, so that it
+            // is neither downloaded nor decoded. A range that playback
+            // was started or positioned inside is not skipped.
+            if (result == Extractor.RESULT_CONTINUE && skipRanges != null) {
+              int skip = skipRanges.findSkip(openPosition, currentInputPosition);
+              if (skip >= 0) {
+                setLoadPosition(skipRanges.getEndPosition(skip), skipRanges.getEndTimeUs(skip));
+                result = Extractor.RESULT_SEEK;
+              }
+            }
           }
         } finally {
           if (result == Extractor.RESULT_SEEK) {
@@ -273,6 +273,44 @@ public final class ProgressiveMediaSource extends BaseMediaSource
   // Peter
   ProgressiveMediaPeriod mediaPeriod;
   private boolean possibleEmptyTrack;
+  @Nullable private SkipRanges skipRanges;
+  private int expectedTrackCount;
+  @Nullable private StartupListener startupListener;
+
+  // Peter
+  /**
+   * Byte ranges of the media that the loader jumps over instead of
+   * loading, for example commercial breaks.
+   */
+  public interface SkipRanges {
+    /**
+     * Find a range that starts between two positions.
+     *
+     * @param fromPosition Position where loading started.
+     * @param toPosition Position loaded up to.
+     * @return Index of the range, or -1 if there is none.
+     */
+    int findSkip(long fromPosition, long toPosition);
+
+    /** Returns the position where loading continues after the range. */
+    long getEndPosition(int index);
+
+    /** Returns the time in microseconds of the end position. */
+    long getEndTimeUs(int index);
+  }
+
+  // Peter
+  /**
+   * Told when the first period reaches each stage of preparing, for
+   * timing playback startup. Called on the loading and playback threads.
+   */
+  public interface StartupListener {
+    /** Called when an extractor has been selected for the media. */
+    void onExtractorSelected();
+
+    /** Called when the tracks have been found. */
+    void onPrepared();
+  }
 
   private ProgressiveMediaSource(
       MediaItem mediaItem,
@@ -340,6 +378,9 @@ public final class ProgressiveMediaSource extends BaseMediaSource
         playbackProperties.customCacheKey,
         continueLoadingCheckIntervalBytes);
     mediaPeriod.setPossibleEmptyTrack(possibleEmptyTrack);
+    mediaPeriod.setSkipRanges(skipRanges);
+    mediaPeriod.setExpectedTrackCount(expectedTrackCount);
+    mediaPeriod.setStartupListener(startupListener);
     return mediaPeriod;
   }
 
@@ -353,6 +394,8 @@ public final class ProgressiveMediaSource extends BaseMediaSource
 
   // Peter
   public SampleQueue [] getSampleQueues() {
+    if (mediaPeriod == null)
+      return new SampleQueue[0];
     return mediaPeriod.getSampleQueues();
   }
 
@@ -361,6 +404,34 @@ public final class ProgressiveMediaSource extends BaseMediaSource
     this.possibleEmptyTrack = possibleEmptyTrack;
   }
 
+  // Peter
+  public void setSkipRanges(@Nullable SkipRanges skipRanges) {
+    this.skipRanges = skipRanges;
+  }
+
+  // Peter
+  /**
+   * Finish preparing once this many tracks have a format, instead of
+   * waiting for all of them. 0 to wait for all.
+   */
+  public void setExpectedTrackCount(int expectedTrackCount) {
+    this.expectedTrackCount = expectedTrackCount;
+  }
+
+  // Peter
+  public void setStartupListener(@Nullable StartupListener startupListener) {
+    this.startupListener = startupListener;
+  }
+
+  // Peter
+  /** Returns the extractor reading the media, or null if not chosen yet. */
+  @Nullable
+  public Extractor getExtractor() {
+    if (mediaPeriod == null)
+      return null;
+    return mediaPeriod.getExtractor();
+  }
+
   @Override
   protected void releaseSourceInternal() {
     drmSessionManager.release();
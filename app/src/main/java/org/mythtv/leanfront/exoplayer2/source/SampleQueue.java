@@ -47,6 +47,7 @@ import com.google.android.exoplayer2.util.MimeTypes;
 import com.google.android.exoplayer2.util.ParsableByteArray;
 import com.google.android.exoplayer2.util.Util;
 import java.io.IOException;
+import org.mythtv.leanfront.player.FrameRateEstimator;
 //import org.checkerframework.checker.nullness.compatqual.NullableType;
 
 /** A queue of media samples. */
@@ -106,6 +107,9 @@ public class SampleQueue implements TrackOutput {
   private long sampleOffsetUs;
   private boolean pendingSplice;
 
+  // Peter
+  private final FrameRateEstimator frameRateEstimator = new FrameRateEstimator();
+
   /**
    * Creates a sample queue without DRM resource management.
    *
@@ -195,6 +199,8 @@ public class SampleQueue implements TrackOutput {
   @CallSuper
   public void reset(boolean resetUpstreamFormat) {
     sampleDataQueue.reset();
+    // Peter
+    frameRateEstimator.discontinuity();
     length = 0;
     absoluteFirstIndex = 0;
     relativeFirstIndex = 0;
@@ -790,6 +796,8 @@ public class SampleQueue implements TrackOutput {
 
     isLastSampleQueued = (sampleFlags & C.BUFFER_FLAG_LAST_SAMPLE) != 0;
     largestQueuedTimestampUs = max(largestQueuedTimestampUs, timeUs);
+    // Peter
+    frameRateEstimator.addSample(timeUs);
 
     int relativeEndIndex = getRelativeIndex(length);
     timesUs[relativeEndIndex] = timeUs;
@@ -1064,6 +1072,11 @@ public class SampleQueue implements TrackOutput {
     return timesUs;
   }
 
+  // Peter
+  public FrameRateEstimator getFrameRateEstimator() {
+    return frameRateEstimator;
+  }
+
   /** A holder for sample metadata not held by {@link DecoderInputBuffer}. */
   /* package */ static final class SampleExtrasHolder {
 
@@ -11,6 +11,7 @@ import java.text.DateFormat;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Objects;
 
 public class GuideSlot {
     public int chanId = -1;
@@ -138,15 +139,39 @@ public class GuideSlot {
         public int season;
         public int episode;
         public String recordingStatus;
-        private static final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'Z");
         private static final String TAG = "lfe";
         private static final String CLASS = "Program";
 
+        public Program() {
+        }
+
+        /**
+         * @return true if both are null or they have the same details.
+         */
+        public static boolean isSame(Program a, Program b) {
+            if (a == b)
+                return true;
+            if (a == null || b == null)
+                return false;
+            return a.chanId == b.chanId
+                    && a.season == b.season
+                    && a.episode == b.episode
+                    && Objects.equals(a.startTime, b.startTime)
+                    && Objects.equals(a.endTime, b.endTime)
+                    && Objects.equals(a.title, b.title)
+                    && Objects.equals(a.subTitle, b.subTitle)
+                    && Objects.equals(a.recordingStatus, b.recordingStatus);
+        }
+
         public Program(XmlNode programNode) {
             try {
                 chanId = Integer.parseInt(programNode.getNode("Channel").getString("ChanId"));
-                startTime = dateFormat.parse(programNode.getString("StartTime") + "+0000");
-                endTime = dateFormat.parse(programNode.getString("EndTime") + "+0000");
+                long time = ProgramStore.parseUtc(programNode.getString("StartTime"));
+                if (time >= 0)
+                    startTime = new Date(time);
+                time = ProgramStore.parseUtc(programNode.getString("EndTime"));
+                if (time >= 0)
+                    endTime = new Date(time);
                 title = programNode.getString("Title");
                 subTitle = programNode.getString("SubTitle");
                 season = programNode.getInt("Season",0);
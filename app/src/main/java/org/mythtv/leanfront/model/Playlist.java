@@ -88,6 +88,17 @@ public class Playlist {
         return null;
     }
 
+    /**
+     * Returns the next video in the playlist without moving to it.
+     *
+     * @return The next video, or null if at the end of the playlist.
+     */
+    public Video peekNext() {
+        if ((currentPosition + 1) < size())
+            return playlist.get(currentPosition + 1);
+        return null;
+    }
+
     /**
      * Moves to the previous video in the playlist. If the playlist is already at the beginning,
      * null will be returned and the position will not change.
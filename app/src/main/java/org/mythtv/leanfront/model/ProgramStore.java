@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2021 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.model;
+
+import org.mythtv.leanfront.data.XmlNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+
+/**
+ * Programs of the guide held in arrays, one per field, ordered by channel
+ * and start time. With hundreds of channels this uses far less memory
+ * than an object per program, and titles and recording status values
+ * that repeat are stored once.
+ *
+ * A GuideSlot.Program object is only made for a program when it is
+ * placed in the grid, and is then kept for reuse.
+ */
+public class ProgramStore {
+    private final int mCount;
+    private final int[] mChanIds;
+    private final long[] mStartTimes;
+    private final long[] mEndTimes;
+    private final int[] mTitles;
+    private final String[] mSubTitles;
+    private final int[] mSeasons;
+    private final int[] mEpisodes;
+    private final int[] mRecStatus;
+    // Distinct values, indexed by mTitles and mRecStatus
+    private final String[] mTitleValues;
+    private final String[] mRecStatusValues;
+    // Distinct channels in order, and the index of the first program of
+    // each. mChannelStart has an extra entry at the end for the count.
+    private final int[] mChannels;
+    private final int[] mChannelStart;
+    private GuideSlot.Program[] mPrograms;
+
+    private ProgramStore(Builder builder) {
+        mCount = builder.mCount;
+        int[] order = builder.sortOrder();
+        mChanIds = new int[mCount];
+        mStartTimes = new long[mCount];
+        mEndTimes = new long[mCount];
+        mTitles = new int[mCount];
+        mSubTitles = new String[mCount];
+        mSeasons = new int[mCount];
+        mEpisodes = new int[mCount];
+        mRecStatus = new int[mCount];
+        int channelCount = 0;
+        for (int ix = 0; ix < mCount; ix++) {
+            int from = order == null ? ix : order[ix];
+            mChanIds[ix] = builder.mChanIds[from];
+            mStartTimes[ix] = builder.mStartTimes[from];
+            mEndTimes[ix] = builder.mEndTimes[from];
+            mTitles[ix] = builder.mTitles[from];
+            mSubTitles[ix] = builder.mSubTitles[from];
+            mSeasons[ix] = builder.mSeasons[from];
+            mEpisodes[ix] = builder.mEpisodes[from];
+            mRecStatus[ix] = builder.mRecStatus[from];
+            if (ix == 0 || mChanIds[ix] != mChanIds[ix - 1])
+                ++channelCount;
+        }
+        mTitleValues = builder.mTitleValues.toArray(new String[0]);
+        mRecStatusValues = builder.mRecStatusValues.toArray(new String[0]);
+        mChannels = new int[channelCount];
+        mChannelStart = new int[channelCount + 1];
+        int channel = -1;
+        for (int ix = 0; ix < mCount; ix++) {
+            if (ix == 0 || mChanIds[ix] != mChanIds[ix - 1]) {
+                ++channel;
+                mChannels[channel] = mChanIds[ix];
+                mChannelStart[channel] = ix;
+            }
+        }
+        mChannelStart[channelCount] = mCount;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    public int getChannelCount() {
+        return mChannels.length;
+    }
+
+    public int getChannel(int channel) {
+        return mChannels[channel];
+    }
+
+    /**
+     * @return index of the first program of the channel, the programs
+     * of the channel run up to getChannelStart(channel + 1).
+     */
+    public int getChannelStart(int channel) {
+        return mChannelStart[channel];
+    }
+
+    /**
+     * @return index of the first program of the channel that ends after
+     * the time. This is getChannelStart(channel + 1) if there is none.
+     */
+    public int findFirstEndingAfter(int channel, long time) {
+        // Programs on a channel do not overlap so end times are in order
+        int low = mChannelStart[channel];
+        int high = mChannelStart[channel + 1];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mEndTimes[mid] <= time)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    public int getChanId(int ix) {
+        return mChanIds[ix];
+    }
+
+    public long getStartTime(int ix) {
+        return mStartTimes[ix];
+    }
+
+    public long getEndTime(int ix) {
+        return mEndTimes[ix];
+    }
+
+    public String getTitle(int ix) {
+        return mTitleValues[mTitles[ix]];
+    }
+
+    public String getSubTitle(int ix) {
+        return mSubTitles[ix];
+    }
+
+    public int getSeason(int ix) {
+        return mSeasons[ix];
+    }
+
+    public int getEpisode(int ix) {
+        return mEpisodes[ix];
+    }
+
+    public String getRecordingStatus(int ix) {
+        return mRecStatusValues[mRecStatus[ix]];
+    }
+
+    /**
+     * @return the program as an object for the grid. It is made on the
+     * first call and the same one returned after that.
+     */
+    public synchronized GuideSlot.Program getProgram(int ix) {
+        if (mPrograms == null)
+            mPrograms = new GuideSlot.Program[mCount];
+        GuideSlot.Program program = mPrograms[ix];
+        if (program == null) {
+            program = new GuideSlot.Program();
+            program.chanId = mChanIds[ix];
+            program.startTime = new Date(mStartTimes[ix]);
+            program.endTime = new Date(mEndTimes[ix]);
+            program.title = getTitle(ix);
+            program.subTitle = mSubTitles[ix];
+            program.season = mSeasons[ix];
+            program.episode = mEpisodes[ix];
+            program.recordingStatus = getRecordingStatus(ix);
+            mPrograms[ix] = program;
+        }
+        return program;
+    }
+
+    /**
+     * Parse a backend UTC time such as 2021-03-15T18:30:00Z.
+     * This is much faster than SimpleDateFormat and is thread safe.
+     *
+     * @return milliseconds since the epoch, or -1 if it is not valid.
+     */
+    public static long parseUtc(String value) {
+        if (value == null || value.length() < 19)
+            return -1;
+        int year = digits(value, 0, 4);
+        int month = digits(value, 5, 2);
+        int day = digits(value, 8, 2);
+        int hour = digits(value, 11, 2);
+        int minute = digits(value, 14, 2);
+        int second = digits(value, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || hour < 0
+                || minute < 0 || second < 0)
+            return -1;
+        // Days from 1970-01-01 in the proleptic Gregorian calendar, with
+        // the year starting in March so that leap days come last.
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = (long) era * 146097 + dayOfEra - 719468;
+        return ((days * 24 + hour) * 60 + minute) * 60000L + second * 1000L;
+    }
+
+    private static int digits(String value, int start, int count) {
+        int ret = 0;
+        for (int ix = start; ix < start + count; ix++) {
+            char c = value.charAt(ix);
+            if (c < '0' || c > '9')
+                return -1;
+            ret = ret * 10 + (c - '0');
+        }
+        return ret;
+    }
+
+    /**
+     * Collects programs in any order. Arrays grow as needed.
+     */
+    public static class Builder {
+        private int mCount;
+        private int[] mChanIds = new int[256];
+        private long[] mStartTimes = new long[256];
+        private long[] mEndTimes = new long[256];
+        private int[] mTitles = new int[256];
+        private String[] mSubTitles = new String[256];
+        private int[] mSeasons = new int[256];
+        private int[] mEpisodes = new int[256];
+        private int[] mRecStatus = new int[256];
+        private final ArrayList<String> mTitleValues = new ArrayList<>();
+        private final ArrayList<String> mRecStatusValues = new ArrayList<>();
+        private final HashMap<String, Integer> mTitleIndex = new HashMap<>();
+        private final HashMap<String, Integer> mRecStatusIndex = new HashMap<>();
+        private boolean mSorted = true;
+
+        public Builder add(int chanId, long startTime, long endTime, String title,
+                           String subTitle, int season, int episode, String recordingStatus) {
+            if (mCount == mChanIds.length)
+                grow();
+            int ix = mCount++;
+            mChanIds[ix] = chanId;
+            mStartTimes[ix] = startTime;
+            mEndTimes[ix] = endTime;
+            mTitles[ix] = intern(title, mTitleValues, mTitleIndex);
+            mSubTitles[ix] = subTitle;
+            mSeasons[ix] = season;
+            mEpisodes[ix] = episode;
+            mRecStatus[ix] = intern(recordingStatus, mRecStatusValues, mRecStatusIndex);
+            if (ix > 0 && compare(ix - 1, ix) > 0)
+                mSorted = false;
+            return this;
+        }
+
+        /**
+         * Add a Program element from a GetProgramList response.
+         * Programs without valid times are left out.
+         */
+        public Builder add(XmlNode programNode) {
+            XmlNode channelNode = programNode.getNode("Channel");
+            int chanId = channelNode == null ? -1 : channelNode.getInt("ChanId", -1);
+            long startTime = parseUtc(programNode.getString("StartTime"));
+            long endTime = parseUtc(programNode.getString("EndTime"));
+            if (chanId < 0 || startTime < 0 || endTime < 0)
+                return this;
+            XmlNode recordingNode = programNode.getNode("Recording");
+            String recordingStatus = recordingNode == null ? null : recordingNode.getString("Status");
+            if ("Unknown".equals(recordingStatus))
+                recordingStatus = null;
+            return add(chanId, startTime, endTime, programNode.getString("Title"),
+                    programNode.getString("SubTitle"), programNode.getInt("Season", 0),
+                    programNode.getInt("Episode", 0), recordingStatus);
+        }
+
+        public ProgramStore build() {
+            return new ProgramStore(this);
+        }
+
+        private static int intern(String value, ArrayList<String> values,
+                                  HashMap<String, Integer> index) {
+            Integer ret = index.get(value);
+            if (ret == null) {
+                ret = values.size();
+                values.add(value);
+                index.put(value, ret);
+            }
+            return ret;
+        }
+
+        private void grow() {
+            int size = mChanIds.length * 2;
+            mChanIds = Arrays.copyOf(mChanIds, size);
+            mStartTimes = Arrays.copyOf(mStartTimes, size);
+            mEndTimes = Arrays.copyOf(mEndTimes, size);
+            mTitles = Arrays.copyOf(mTitles, size);
+            mSubTitles = Arrays.copyOf(mSubTitles, size);
+            mSeasons = Arrays.copyOf(mSeasons, size);
+            mEpisodes = Arrays.copyOf(mEpisodes, size);
+            mRecStatus = Arrays.copyOf(mRecStatus, size);
+        }
+
+        private int compare(int a, int b) {
+            if (mChanIds[a] != mChanIds[b])
+                return mChanIds[a] < mChanIds[b] ? -1 : 1;
+            return Long.compare(mStartTimes[a], mStartTimes[b]);
+        }
+
+        // Order of the programs by channel and start time, or null if
+        // they were added in that order. Merge sort of the indexes.
+        private int[] sortOrder() {
+            if (mSorted)
+                return null;
+            int[] order = new int[mCount];
+            int[] work = new int[mCount];
+            for (int ix = 0; ix < mCount; ix++)
+                order[ix] = ix;
+            for (int width = 1; width < mCount; width *= 2) {
+                for (int low = 0; low < mCount; low += 2 * width) {
+                    int mid = Math.min(low + width, mCount);
+                    int high = Math.min(low + 2 * width, mCount);
+                    int left = low;
+                    int right = mid;
+                    for (int ix = low; ix < high; ix++) {
+                        if (left < mid && (right >= high || compare(order[left], order[right]) <= 0))
+                            work[ix] = order[left++];
+                        else
+                            work[ix] = order[right++];
+                    }
+                }
+                int[] swap = order;
+                order = work;
+                work = swap;
+            }
+            return order;
+        }
+    }
+}
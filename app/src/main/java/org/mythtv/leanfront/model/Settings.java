@@ -82,6 +82,8 @@ public class Settings {
         mEditor.putString("pref_seq_ascdesc",str);
         str = mPrefs.getString("pref_audio", "auto");
         mEditor.putString("pref_audio",str);
+        str = mPrefs.getString("pref_skip_breaks", "false");
+        mEditor.putString("pref_skip_breaks",str);
         str = mPrefs.getString("pref_arrow_jump", "false");
         mEditor.putString("pref_arrow_jump",str);
         str = mPrefs.getString("pref_jump", "5");
@@ -119,6 +121,26 @@ public class Settings {
         mEditor.putString("pref_livetv_rowsize",str);
         str = mPrefs.getString("pref_video_parental", "4");
         mEditor.putString("pref_video_parental",str);
+        str = mPrefs.getString("pref_tweak_http_connect_timeout", "5");
+        mEditor.putString("pref_tweak_http_connect_timeout",str);
+        str = mPrefs.getString("pref_tweak_http_read_timeout", "300");
+        mEditor.putString("pref_tweak_http_read_timeout",str);
+        str = mPrefs.getString("pref_tweak_http_pool_size", "5");
+        mEditor.putString("pref_tweak_http_pool_size",str);
+        str = mPrefs.getString("pref_tweak_readahead_size", "16");
+        mEditor.putString("pref_tweak_readahead_size",str);
+        str = mPrefs.getString("pref_tweak_readahead_low", "50");
+        mEditor.putString("pref_tweak_readahead_low",str);
+        str = mPrefs.getString("pref_tweak_readahead_high", "95");
+        mEditor.putString("pref_tweak_readahead_high",str);
+        str = mPrefs.getString("pref_tweak_playback_cache_size", "256");
+        mEditor.putString("pref_tweak_playback_cache_size",str);
+        str = mPrefs.getString("pref_tweak_parallel_connections", "1");
+        mEditor.putString("pref_tweak_parallel_connections",str);
+        str = mPrefs.getString("pref_tweak_parallel_chunk", "1024");
+        mEditor.putString("pref_tweak_parallel_chunk",str);
+        str = mPrefs.getString("pref_startup_trace", "false");
+        mEditor.putString("pref_startup_trace",str);
 
         mEditor.apply();
     }
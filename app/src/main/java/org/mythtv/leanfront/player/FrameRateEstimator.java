@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2021 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.player;
+
+/**
+ * Estimates the frame rate of a track from the timestamps of its samples
+ * as they are queued, counting the intervals between frames by the
+ * standard frame rate they belong to.
+ *
+ * Samples are queued in decode order, so a few are held back to put
+ * them in presentation order before the intervals are counted. Each
+ * sample takes a fixed small amount of work and nothing is allocated.
+ */
+public class FrameRateEstimator {
+    private static final float[] FPS_VALUES = {
+            0.0f,  59.94f, 50.0f, 29.97f, 25.0f, 23.976f, 0.0f};
+    // Frame intervals in microsecs. Values below each of these are taken
+    // as being for the corresponding fps value above.
+    private static final long[] FPS_INTERVALS = {
+            15000, 18000,  30000, 35000,  40800, 43000, Long.MAX_VALUE};
+    // Samples held to restore presentation order, more than the
+    // reordering caused by B frames.
+    private static final int WINDOW = 8;
+    // Intervals of one frame rate needed before the estimate is settled
+    private static final int SETTLED_COUNT = 30;
+    // Longer gaps are a break in the stream rather than a frame interval
+    private static final long MAX_INTERVAL = 1_000_000;
+
+    private final long[] mWindow = new long[WINDOW];
+    private int mWindowCount;
+    private long mLastTimeUs = -1;
+    private final int[] mCounters = new int[FPS_INTERVALS.length];
+    private long mIntervalSumUs;
+    private int mIntervalCount;
+
+    public synchronized void addSample(long timeUs) {
+        int ix = mWindowCount;
+        if (ix == WINDOW) {
+            count(mWindow[0]);
+            System.arraycopy(mWindow, 1, mWindow, 0, WINDOW - 1);
+            ix--;
+        } else
+            mWindowCount++;
+        while (ix > 0 && mWindow[ix - 1] > timeUs) {
+            mWindow[ix] = mWindow[ix - 1];
+            ix--;
+        }
+        mWindow[ix] = timeUs;
+    }
+
+    /**
+     * Called when the samples that follow are not continuous with the
+     * prior ones, for example after a seek.
+     */
+    public synchronized void discontinuity() {
+        mWindowCount = 0;
+        mLastTimeUs = -1;
+    }
+
+    private void count(long timeUs) {
+        if (timeUs == 0)
+            return;
+        if (mLastTimeUs > 0) {
+            long interval = timeUs - mLastTimeUs;
+            if (interval >= 0) {
+                for (int ivlix = 0; ivlix < FPS_INTERVALS.length; ivlix++) {
+                    if (interval < FPS_INTERVALS[ivlix]) {
+                        mCounters[ivlix]++;
+                        break;
+                    }
+                }
+                if (interval < MAX_INTERVAL) {
+                    mIntervalSumUs += interval;
+                    mIntervalCount++;
+                }
+            }
+        }
+        mLastTimeUs = timeUs;
+    }
+
+    private int getBestIndex() {
+        int maxix = 0;
+        int maxcount = 0;
+        // ignore the first and last which are "unknown".
+        for (int ivlix = 1; ivlix < FPS_INTERVALS.length - 1; ivlix++) {
+            if (mCounters[ivlix] > maxcount) {
+                maxcount = mCounters[ivlix];
+                maxix = ivlix;
+            }
+        }
+        // if there is a mixture of 29.97 and 23.976, then select 29.97
+        if (mCounters[3] > 5 && mCounters[5] > 5)
+            maxix = 3;
+        return maxix;
+    }
+
+    /**
+     * @return true once there are enough samples for a reliable estimate.
+     */
+    public synchronized boolean isSettled() {
+        int maxix = getBestIndex();
+        return maxix > 0 && mCounters[maxix] >= SETTLED_COUNT;
+    }
+
+    /**
+     * @return frame rate, or 0 if it is not known.
+     */
+    public synchronized float getFrameRate() {
+        int maxix = getBestIndex();
+        if (maxix > 0 && mCounters[maxix] > 5)
+            return FPS_VALUES[maxix];
+        // Get estimated framerate for cases where timestamps are messed up
+        if (mIntervalCount > 0 && mIntervalSumUs > 0)
+            return (float) mIntervalCount * 1_000_000.0f / (float) mIntervalSumUs;
+        return 0.0f;
+    }
+}
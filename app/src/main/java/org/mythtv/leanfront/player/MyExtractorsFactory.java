@@ -31,24 +31,69 @@ import com.google.android.exoplayer2.extractor.ts.TsPayloadReader;
 import com.google.android.exoplayer2.util.MimeTypes;
 import com.google.android.exoplayer2.util.TimestampAdjuster;
 
+import org.mythtv.leanfront.data.RecordedSeekTable;
 import org.mythtv.leanfront.model.Settings;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 public class MyExtractorsFactory implements ExtractorsFactory {
 
     private DefaultExtractorsFactory defaultFactory;
+    private Future<RecordedSeekTable> seekTable;
+    private String container;
 
     public MyExtractorsFactory() {
         this.defaultFactory = new DefaultExtractorsFactory();
     }
 
+    /**
+     * @param seekTable backend seek table to use for seeking in TS files,
+     *                  or null to use the TsExtractor's own search.
+     */
+    public MyExtractorsFactory(Future<RecordedSeekTable> seekTable) {
+        this();
+        this.seekTable = seekTable;
+    }
+
+    /**
+     * Use only the extractor for a container found on a previous play,
+     * so that the file is not sniffed by each extractor in turn.
+     *
+     * @param container name from {@link #getContainerName(Extractor)},
+     *                  or null to sniff.
+     */
+    public void setContainer(String container) {
+        this.container = container;
+    }
+
+    /**
+     * @return name for the type of container the extractor reads.
+     */
+    public static String getContainerName(Extractor extractor) {
+        if (extractor == null)
+            return null;
+        if (extractor instanceof SeekTableExtractor)
+            extractor = ((SeekTableExtractor) extractor).getExtractor();
+        return extractor.getClass().getSimpleName();
+    }
+
     @Override
     public Extractor[] createExtractors() {
         Extractor[] exts = defaultFactory.createExtractors();
         updateExtractors(exts);
+        return selectExtractor(exts);
+    }
+
+    private Extractor[] selectExtractor(Extractor[] exts) {
+        if (container != null) {
+            for (Extractor ext : exts) {
+                if (container.equals(getContainerName(ext)))
+                    return new Extractor[] {ext};
+            }
+        }
         return exts;
     }
 
@@ -75,6 +120,8 @@ public class MyExtractorsFactory implements ExtractorsFactory {
                         new TimestampAdjuster(0),
                         payloadReaderFactory,
                         Settings.getInt("pref_tweak_ts_search_pkts") * TsExtractor.TS_PACKET_SIZE);
+                if (seekTable != null)
+                    exts[ix] = new SeekTableExtractor(exts[ix], seekTable);
             }
         }
     }
@@ -82,6 +129,6 @@ public class MyExtractorsFactory implements ExtractorsFactory {
     public Extractor[] createExtractors(Uri uri, Map<String, List<String>> responseHeaders) {
         Extractor[] exts = defaultFactory.createExtractors(uri, responseHeaders);
         updateExtractors(exts);
-        return exts;
+        return selectExtractor(exts);
     }
 }
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2021 Peter Bennett
+ *
+ * This file is part of MythTV-leanfront.
+ *
+ * MythTV-leanfront is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * MythTV-leanfront is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with MythTV-leanfront.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.mythtv.leanfront.player;
+
+import android.util.Log;
+
+import com.google.android.exoplayer2.extractor.Extractor;
+import com.google.android.exoplayer2.extractor.ExtractorInput;
+import com.google.android.exoplayer2.extractor.ExtractorOutput;
+import com.google.android.exoplayer2.extractor.PositionHolder;
+import com.google.android.exoplayer2.extractor.SeekMap;
+import com.google.android.exoplayer2.extractor.TrackOutput;
+
+import org.mythtv.leanfront.data.RecordedSeekTable;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Wraps the TsExtractor so that seeks in a recording use the seek table
+ * from the backend instead of a binary search on the PCR timestamps,
+ * which takes several range requests for each seek.
+ *
+ * If the table is not available, or a seek is past the end of it, the
+ * TsExtractor's own seek map is used.
+ */
+public class SeekTableExtractor implements Extractor {
+    private static final String TAG = "lfe";
+    private static final String CLASS = "SeekTableExtractor";
+    // How long to wait for the table when the extractor needs its seek map.
+    // The table is normally fetched while the details page is shown, so a
+    // table that is not ready by now is not waited for.
+    private static final long TABLE_WAIT = 300;
+
+    private final Extractor mExtractor;
+    private final Future<RecordedSeekTable> mTableFuture;
+    private RecordedSeekTable mTable;
+
+    public SeekTableExtractor(Extractor extractor, Future<RecordedSeekTable> tableFuture) {
+        mExtractor = extractor;
+        mTableFuture = tableFuture;
+    }
+
+    public Extractor getExtractor() {
+        return mExtractor;
+    }
+
+    @Override
+    public boolean sniff(ExtractorInput input) throws IOException {
+        return mExtractor.sniff(input);
+    }
+
+    @Override
+    public void init(ExtractorOutput output) {
+        mExtractor.init(new Output(output));
+    }
+
+    @Override
+    public int read(ExtractorInput input, PositionHolder seekPosition) throws IOException {
+        return mExtractor.read(input, seekPosition);
+    }
+
+    @Override
+    public void seek(long position, long timeUs) {
+        // A position from the table is the start of a key frame, so the
+        // extractor just carries on from there. Passing a time would make
+        // it do its own search for the position.
+        if (mTable != null && position > 0 && mTable.contains(timeUs))
+            mExtractor.seek(position, 0);
+        else
+            mExtractor.seek(position, timeUs);
+    }
+
+    @Override
+    public void release() {
+        mExtractor.release();
+    }
+
+    private RecordedSeekTable getTable() {
+        long startTime = System.currentTimeMillis();
+        try {
+            RecordedSeekTable table = mTableFuture.get(TABLE_WAIT, TimeUnit.MILLISECONDS);
+            if (table != null && !table.isEmpty())
+                return table;
+        } catch (TimeoutException e) {
+            Log.w(TAG, CLASS + " Seek table not available after "
+                    + (System.currentTimeMillis() - startTime) + " ms");
+        } catch (ExecutionException e) {
+            Log.e(TAG, CLASS + " Seek table failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    private class Output implements ExtractorOutput {
+        private final ExtractorOutput mOutput;
+
+        Output(ExtractorOutput output) {
+            mOutput = output;
+        }
+
+        @Override
+        public TrackOutput track(int id, int type) {
+            return mOutput.track(id, type);
+        }
+
+        @Override
+        public void endTracks() {
+            mOutput.endTracks();
+        }
+
+        @Override
+        public void seekMap(SeekMap seekMap) {
+            // An unseekable map means the file is still being written or
+            // the duration is unknown, so leave that alone.
+            if (seekMap.isSeekable()) {
+                mTable = getTable();
+                if (mTable != null) {
+                    Log.i(TAG, CLASS + " Using backend seek table");
+                    seekMap = mTable.createSeekMap(seekMap);
+                }
+            }
+            mOutput.seekMap(seekMap);
+        }
+    }
+}
@@ -369,6 +369,10 @@ public class VideoPlayerGlue extends PlaybackTransportControlGlue<LeanbackPlayer
         return duration;
     }
 
+    public boolean isPlaylistPlay() {
+        return mPlaylistPlayAction.getIndex() == 1;
+    }
+
     public long getSavedDuration() {
         return mSavedDuration;
     }
@@ -38,6 +38,7 @@ import androidx.leanback.widget.GuidedAction;
 import org.mythtv.leanfront.R;
 import org.mythtv.leanfront.data.AsyncBackendCall;
 import org.mythtv.leanfront.data.AsyncRemoteCall;
+import org.mythtv.leanfront.data.GuideSync;
 import org.mythtv.leanfront.data.XmlNode;
 import org.mythtv.leanfront.model.RecordRule;
 import org.mythtv.leanfront.model.Video;
@@ -604,6 +605,12 @@ public class EditScheduleFragment extends GuidedStepSupportFragment
             call.execute(Video.ACTION_ADD_OR_UPDATERECRULE);
     }
 
+    @Override
+    public void onDestroy() {
+        AsyncBackendCall.cancelAll(this);
+        super.onDestroy();
+    }
+
     @Override
     public void onPostExecute(AsyncBackendCall taskRunner) {
         if (taskRunner == null)
@@ -621,6 +628,8 @@ public class EditScheduleFragment extends GuidedStepSupportFragment
                 } else {
                     Toast.makeText(getContext(),R.string.sched_updated, Toast.LENGTH_LONG).show();
                     Log.i(TAG, CLASS + " Recording scheduled, Response:" + result);
+                    // Recording status in the stored guide may have changed
+                    GuideSync.scheduleChanged(getContext());
                     getActivity().finish();
                 }
                 break;
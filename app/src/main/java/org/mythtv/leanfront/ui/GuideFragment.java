@@ -19,11 +19,10 @@
 
 package org.mythtv.leanfront.ui;
 
+import android.app.Activity;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.os.Bundle;
 import android.text.InputType;
 import android.util.SparseIntArray;
@@ -42,18 +41,27 @@ import androidx.leanback.widget.VerticalGridPresenter;
 
 import org.mythtv.leanfront.R;
 import org.mythtv.leanfront.data.AsyncBackendCall;
-import org.mythtv.leanfront.data.VideoContract;
-import org.mythtv.leanfront.data.VideoDbHelper;
+import org.mythtv.leanfront.data.ChannelLineup;
+import org.mythtv.leanfront.data.GuideSync;
 import org.mythtv.leanfront.data.XmlNode;
 import org.mythtv.leanfront.model.GuideSlot;
+import org.mythtv.leanfront.model.ProgramStore;
 import org.mythtv.leanfront.model.Video;
 import org.mythtv.leanfront.presenter.GuidePresenterSelector;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class GuideFragment extends GridFragment implements AsyncBackendCall.OnBackendCallListener{
 
@@ -65,8 +73,9 @@ public class GuideFragment extends GridFragment implements AsyncBackendCall.OnBa
     public static final int DATE_RANGE = 21;
     private final int ZOOM_FACTOR = FocusHighlight.ZOOM_FACTOR_XSMALL;
     private ArrayObjectAdapter mGridAdapter;
-    private Date mGridStartTime;
-    private long mPriorGridStartTime;
+    private volatile Date mGridStartTime;
+    private boolean mGridBuilt;
+    private boolean mBuildingGrid;
     // map chanid to position in object adapter
     private SparseIntArray mChanArray = new SparseIntArray();
     private GuideSlot [] mTimeRow;
@@ -75,8 +84,34 @@ public class GuideFragment extends GridFragment implements AsyncBackendCall.OnBa
     private static DateFormat mDayFormatter;
     private GregorianCalendar mTimeSelectCalendar;
     private AlertDialog mDialog;
+    // The grid is waiting for the programs of its time window
     private boolean mLoadInProgress;
     private boolean mDoingUpdate;
+    // Programs of recent time windows, by window start time, least
+    // recently used first. Includes the windows either side of the
+    // grid so that the arrows can show them at once.
+    private static final int WINDOW_CACHE_SIZE = 5;
+    private final LinkedHashMap<Long, ProgramStore> mWindowCache
+            = new LinkedHashMap<Long, ProgramStore>(WINDOW_CACHE_SIZE + 1, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, ProgramStore> eldest) {
+            return size() > WINDOW_CACHE_SIZE;
+        }
+    };
+    // Start times of windows being fetched
+    private final HashSet<Long> mPendingWindows = new HashSet<>();
+    // Queries of the local guide and placing of programs in the grid
+    // are done on this thread, in order.
+    private static final ExecutorService sLoader = Executors.newSingleThreadExecutor();
+    private static final ProgramStore EMPTY_STORE = new ProgramStore.Builder().build();
+    // Programs in each cell as shown, by position in the adapter
+    private GuideSlot.Program[] mCellPrograms = new GuideSlot.Program[0];
+    private GuideSlot.Program[] mCellPrograms2 = new GuideSlot.Program[0];
+    // Window start time of the programs shown, and of the latest placement
+    private long mShownStartTime;
+    private long mPlacedStartTime;
+    // Incremented for each placement so that one overtaken by a later one is dropped
+    private int mPlaceGeneration;
 
     private static final int ACTION_EDIT_1 = 1;
     private static final int ACTION_EDIT_2 = 2;
@@ -106,8 +141,6 @@ public class GuideFragment extends GridFragment implements AsyncBackendCall.OnBa
             @Override
             public void onItemClicked(Presenter.ViewHolder itemViewHolder,
                     Object item, RowPresenter.ViewHolder rowViewHolder, Row row) {
-                if (mLoadInProgress)
-                    return;
                 GuideSlot card = (GuideSlot)item;
                 if (card == null)
                     return;
@@ -138,9 +171,37 @@ public class GuideFragment extends GridFragment implements AsyncBackendCall.OnBa
     @Override
     public void onResume() {
         super.onResume();
+        GuideSync.setListener(this::onGuideSynced);
+        GuideSync.start(getContext(), false);
         setupGridData();
     }
 
+    @Override
+    public void onPause() {
+        GuideSync.setListener(null);
+        super.onPause();
+    }
+
+    // Called on the sync thread. Drop cached windows that overlap the
+    // new data and show it if it is in the grid.
+    private void onGuideSynced(long startTime, long endTime) {
+        Activity activity = getActivity();
+        if (activity == null)
+            return;
+        activity.runOnUiThread(() -> {
+            long windowSize = TIMESLOT_SIZE * TIMESLOTS * 60000;
+            Iterator<Long> it = mWindowCache.keySet().iterator();
+            while (it.hasNext()) {
+                long windowStart = it.next();
+                if (windowStart < endTime && windowStart + windowSize > startTime)
+                    it.remove();
+            }
+            long gridStartTime = mGridStartTime.getTime();
+            if (isStarted && startTime < gridStartTime + windowSize && endTime > gridStartTime)
+                setupGridData();
+        });
+    }
+
     private void programClicked(GuideSlot card) {
         String[] prompts = new String[10];
         int[] actions = new int[10];
@@ -237,7 +298,11 @@ public class GuideFragment extends GridFragment implements AsyncBackendCall.OnBa
         long millis = mTimeSelectCalendar.getTimeInMillis() + 1000;
         long startTimeMillis = mGridStartTime.getTime();
         int dateSelection = -1;
+        // Only list the days that have guide data
+        long guideEnd = GuideSync.getGuideEnd();
         for (int i = 0; i < DATE_RANGE; i++) {
+            if (i > 0 && guideEnd > 0 && millis >= guideEnd)
+                break;
             Date date = new Date(millis);
             adapter.add(mDayFormatter.format(date) + mDateFormatter.format(date));
             long timediff = startTimeMillis - millis;
@@ -309,112 +374,163 @@ public class GuideFragment extends GridFragment implements AsyncBackendCall.OnBa
     }
 
     private void setupGridData() {
-        if (mLoadInProgress)
+        long startTime = mGridStartTime.getTime();
+        if (!loadCells())
             return;
+        // After a schedule change the recording status has to come from the backend
+        if (mDoingUpdate) {
+            // The programs shown stay until the update arrives
+            mDoingUpdate = false;
+            mWindowCache.clear();
+            mLoadInProgress = true;
+            AsyncBackendCall call = new AsyncBackendCall(this);
+            call.setStartTime(mGridStartTime);
+            call.setEndTime(new Date(startTime + TIMESLOT_SIZE * TIMESLOTS * 60000));
+            call.execute(Video.ACTION_PAUSE, Video.ACTION_GUIDE);
+            return;
+        }
+        ProgramStore programs = mWindowCache.get(startTime);
+        if (programs != null) {
+            mLoadInProgress = false;
+            showPrograms(programs);
+            prefetchAdjacent();
+            return;
+        }
+        // If it is already being fetched it is shown when it arrives
         mLoadInProgress = true;
-        Date gridEndTime = new Date(mGridStartTime.getTime() + TIMESLOT_SIZE * TIMESLOTS * 60000);
-        loadCells();
+        if (mPlacedStartTime != startTime)
+            showPrograms(EMPTY_STORE);
+        fetchWindow(startTime);
+    }
+
+    /**
+     * Get the programs of a time window, from the local copy of the guide
+     * if it has the window or else from the backend. They are passed to
+     * onWindowLoaded. The local copy is checked on the loader thread since
+     * the first check reads the database.
+     */
+    private void fetchWindow(long startTime) {
+        if (mPendingWindows.contains(startTime))
+            return;
+        long endTime = startTime + TIMESLOT_SIZE * TIMESLOTS * 60000;
+        Activity activity = getActivity();
+        if (activity == null)
+            return;
+        mPendingWindows.add(startTime);
+        sLoader.execute(() -> {
+            ProgramStore programs = null;
+            if (GuideSync.isAvailable(activity, startTime, endTime))
+                programs = GuideSync.query(activity, startTime, endTime);
+            final ProgramStore local = programs;
+            activity.runOnUiThread(() -> {
+                if (local != null)
+                    onWindowLoaded(startTime, local);
+                else if (isAdded())
+                    fetchBackendWindow(startTime, endTime);
+                else
+                    mPendingWindows.remove(startTime);
+            });
+        });
+    }
+
+    private void fetchBackendWindow(long startTime, long endTime) {
         AsyncBackendCall call = new AsyncBackendCall(this);
-        call.setStartTime(mGridStartTime);
-        call.setEndTime(gridEndTime);
-        if (mDoingUpdate)
-            call.execute(Video.ACTION_PAUSE, Video.ACTION_GUIDE);
-        else
-            call.execute(Video.ACTION_GUIDE);
-        mDoingUpdate = false;
+        call.setStartTime(new Date(startTime));
+        call.setEndTime(new Date(endTime));
+        call.execute(Video.ACTION_GUIDE);
+    }
+
+    private void onWindowLoaded(long startTime, ProgramStore programs) {
+        mPendingWindows.remove(startTime);
+        mWindowCache.put(startTime, programs);
+        if (mLoadInProgress && isStarted && startTime == mGridStartTime.getTime()) {
+            mLoadInProgress = false;
+            showPrograms(programs);
+            prefetchAdjacent();
+        }
+    }
+
+    // Fetch the windows either side of the grid in case the arrows are used
+    private void prefetchAdjacent() {
+        long startTime = mGridStartTime.getTime();
+        long windowSize = TIMESLOT_SIZE * TIMESLOTS * 60000;
+        for (long windowStart : new long[] {startTime + windowSize, startTime - windowSize}) {
+            if (!mWindowCache.containsKey(windowStart))
+                fetchWindow(windowStart);
+        }
     }
 
     /**
      * Preload the grid with timeslots for each channel.
      * TIMESLOT_SIZE minutes for each cell.
      * 1 cell per timeslot plus 1 for channel and two for arrows
+     * The first time the cells are made on the loader thread from the
+     * channel lineup, and setupGridData is called again when they are
+     * in the grid.
+     *
+     * @return true if the grid is ready for programs.
      */
-    private void loadCells() {
-        if (mPriorGridStartTime > 0) {
+    private boolean loadCells() {
+        if (mGridBuilt) {
             updateCells();
-            return;
+            return true;
         }
-        mPriorGridStartTime = mGridStartTime.getTime();
-        VideoDbHelper dbh = new VideoDbHelper(getContext());
-        SQLiteDatabase db = dbh.getReadableDatabase();
-
-        // Define a projection that specifies which columns from the database
-        // you will actually use after this query.
-        String[] projection = {
-                VideoContract.VideoEntry.COLUMN_SUBTITLE, // This is channel details
-                VideoContract.VideoEntry.COLUMN_CHANID,
-                VideoContract.VideoEntry.COLUMN_CHANNUM,
-        };
-
-        // Filter results
-        String selection = VideoContract.VideoEntry.COLUMN_RECTYPE + " = "
-                 + VideoContract.VideoEntry.RECTYPE_CHANNEL;
-
-        StringBuilder orderby = new StringBuilder();
-        orderby.append("CAST (").append(VideoContract.VideoEntry.COLUMN_CHANNUM).append(" as real), ");
-        orderby.append(VideoContract.VideoEntry.COLUMN_CHANNUM).append(", ");
-        orderby.append(VideoContract.VideoEntry.COLUMN_SUBTITLE).append(", ");
-        orderby.append(VideoContract.VideoEntry.COLUMN_CHANID);
-
-        Cursor cursor = db.query(
-                VideoContract.VideoEntry.TABLE_NAME,   // The table to query
-                projection,             // The array of columns to return (pass null to get all)
-                selection,              // The columns for the WHERE clause
-                null,          // The values for the WHERE clause
-                null,                   // don't group the rows
-                null,                   // don't filter by row groups
-                orderby.toString()               // The sort order
-        );
+        Activity activity = getActivity();
+        if (mBuildingGrid || activity == null)
+            return false;
+        mBuildingGrid = true;
 
         // arrow slots
         GuideSlot leftArrowSlot = new GuideSlot(GuideSlot.CELL_LEFTARROW);
         GuideSlot rightArrowSlot = new GuideSlot(GuideSlot.CELL_RIGHTARROW);
-
-        // Counter to ensure new time row every few rows.
-        int tsRowCount = 0;
         setupTimeRow(leftArrowSlot, rightArrowSlot);
-
-        int colSubt = cursor.getColumnIndex(VideoContract.VideoEntry.COLUMN_SUBTITLE);
-        int colChId = cursor.getColumnIndex(VideoContract.VideoEntry.COLUMN_CHANID);
-        int colChNum = cursor.getColumnIndex(VideoContract.VideoEntry.COLUMN_CHANNUM);
-        while (cursor.moveToNext()) {
-            if (tsRowCount == 0)
-                addTimeRow();
-            if (++tsRowCount >= TIME_ROW_INTERVAL)
-                tsRowCount = 0;
-            String chanDetails = cursor.getString(colSubt);
-            int chanId = cursor.getInt(colChId);
-            String chanNumStr = cursor.getString(colChNum);
-            int chanNum = -1;
-            if (chanNumStr != null) {
-                String[] chanNumSplit = chanNumStr.split("[^0123456789]");
-                if (chanNumSplit.length > 0 && chanNumSplit[0] != null)
-                    chanNum = Integer.parseInt(chanNumSplit[0]);
-            }
-            // channel slot at front
-            GuideSlot slot = new GuideSlot(chanId, chanNum, chanDetails);
-            mGridAdapter.add(slot);
-            mGridAdapter.add(leftArrowSlot);
-            mChanArray.put(chanId,mGridAdapter.size());
-            for (int i = 0; i< TIMESLOTS; i++) {
-                int position;
-                switch (i) {
-                    case 0:
-                        position = GuideSlot.POS_LEFT;
-                        break;
-                    case TIMESLOTS-1:
-                        position = GuideSlot.POS_RIGHT;
-                        break;
-                    default:
-                        position = GuideSlot.POS_MIDDLE;
+        GuideSlot[] timeRow = mTimeRow;
+
+        sLoader.execute(() -> {
+            ChannelLineup lineup = ChannelLineup.get(activity);
+            int channelCount = lineup.size();
+            ArrayList<GuideSlot> cells = new ArrayList<>(
+                    (channelCount + channelCount / TIME_ROW_INTERVAL + 1) * COLUMNS);
+            SparseIntArray chanArray = new SparseIntArray(channelCount);
+            // Counter to ensure new time row every few rows.
+            int tsRowCount = 0;
+            for (int ix = 0; ix < channelCount; ix++) {
+                if (tsRowCount == 0)
+                    cells.addAll(Arrays.asList(timeRow));
+                if (++tsRowCount >= TIME_ROW_INTERVAL)
+                    tsRowCount = 0;
+                // channel slot at front
+                cells.add(lineup.getChannelSlot(ix));
+                cells.add(leftArrowSlot);
+                chanArray.put(lineup.getChanId(ix), cells.size());
+                for (int i = 0; i< TIMESLOTS; i++) {
+                    int position;
+                    switch (i) {
+                        case 0:
+                            position = GuideSlot.POS_LEFT;
+                            break;
+                        case TIMESLOTS-1:
+                            position = GuideSlot.POS_RIGHT;
+                            break;
+                        default:
+                            position = GuideSlot.POS_MIDDLE;
+                    }
+                    cells.add(new GuideSlot(GuideSlot.CELL_PROGRAM, position, timeRow[i+2].timeSlot));
                 }
-                slot = new GuideSlot(GuideSlot.CELL_PROGRAM, position, mTimeRow[i+2].timeSlot);
-                mGridAdapter.add(slot);
+                cells.add(rightArrowSlot);
             }
-            mGridAdapter.add(rightArrowSlot);
-        }
-        cursor.close();
-        db.close();
+            activity.runOnUiThread(() -> {
+                mBuildingGrid = false;
+                mGridBuilt = true;
+                mGridAdapter.addAll(0, cells);
+                mChanArray = chanArray;
+                mCellPrograms = new GuideSlot.Program[cells.size()];
+                mCellPrograms2 = new GuideSlot.Program[cells.size()];
+                if (isStarted)
+                    setupGridData();
+            });
+        });
+        return false;
     }
 
     private void updateCells() {
@@ -424,16 +540,11 @@ public class GuideFragment extends GridFragment implements AsyncBackendCall.OnBa
             mTimeRow[ix+2].timeSlot =
                     new Date( mGridStartTime.getTime() + ix * TIMESLOT_SIZE * 60000);
         }
-        // Clear out program cells
-        for (int ix = 0 ; ix < mGridAdapter.size(); ix++) {
-            GuideSlot slot = (GuideSlot)mGridAdapter.get(ix);
-            int iPos = ix % (TIMESLOTS+3);
-            if (slot.cellType == GuideSlot.CELL_PROGRAM) {
-                slot.program = null;
-                slot.program2 = null;
-                slot.timeSlot = mTimeRow[iPos].timeSlot;
-            }
-        }
+        // There is a time row before every TIME_ROW_INTERVAL channels.
+        // Program cells are updated when their programs are placed.
+        int size = mGridAdapter.size();
+        for (int ix = 0; ix < size; ix += (TIME_ROW_INTERVAL + 1) * COLUMNS)
+            mGridAdapter.notifyArrayItemRangeChanged(ix, COLUMNS);
     }
 
     private void setupTimeRow(GuideSlot leftArrowSlot, GuideSlot rightArrowSlot) {
@@ -449,30 +560,35 @@ public class GuideFragment extends GridFragment implements AsyncBackendCall.OnBa
         mTimeRow[TIMESLOTS+2] = rightArrowSlot;
     }
 
-    private void addTimeRow() {
-        for (int i = 0; i < mTimeRow.length; i++)
-            mGridAdapter.add(mTimeRow[i]);
-    }
 
+    @Override
+    public void onDestroy() {
+        AsyncBackendCall.cancelAll(this);
+        super.onDestroy();
+    }
 
     @Override
     public void onPostExecute(AsyncBackendCall taskRunner) {
         int [] tasks = taskRunner.getTasks();
         switch (tasks[0]) {
             case Video.ACTION_GUIDE:
-                loadGuideData(taskRunner.getXmlResult());
+                loadGuideData(taskRunner.getStartTime().getTime(),
+                        taskRunner.getXmlResult(), false);
                 break;
             case Video.ACTION_PAUSE:
-                loadGuideData(taskRunner.getXmlResults().get(1));
+                loadGuideData(taskRunner.getStartTime().getTime(),
+                        taskRunner.getXmlResults().get(1), true);
         }
     }
 
-    void loadGuideData(XmlNode result) {
-        mLoadInProgress = false;
-        if (result == null)
-            return;
-        if (!isStarted)
+    void loadGuideData(long startTime, XmlNode result, boolean update) {
+        if (result == null) {
+            mPendingWindows.remove(startTime);
+            if (startTime == mGridStartTime.getTime())
+                mLoadInProgress = false;
             return;
+        }
+        ProgramStore.Builder builder = new ProgramStore.Builder();
         XmlNode programNode = null;
         for (; ; ) {
             if (programNode == null)
@@ -481,51 +597,157 @@ public class GuideFragment extends GridFragment implements AsyncBackendCall.OnBa
                 programNode = programNode.getNextSibling();
             if (programNode == null)
                 break;
-            GuideSlot.Program program = new GuideSlot.Program(programNode);
-            int adapterPos = mChanArray.get(program.chanId,-1);
-            if (adapterPos == -1)
-                continue;
-            if (program.startTime == null || program.endTime == null)
-                continue;
-
-            long lPos = (program.startTime.getTime() - mGridStartTime.getTime())
-                    / (TIMESLOT_SIZE*60);
-            float fPos = (float)lPos / 1000.0f;
-            // Start position is the slot wherein the show starts.
-            int startPos = (int)(fPos);
-            if (startPos >= TIMESLOTS)
-                continue;
-            if (startPos < 0)
-                startPos = 0;
-
-            lPos = (program.endTime.getTime() - mGridStartTime.getTime())
-                    / (TIMESLOT_SIZE*60);
-            fPos = (float)lPos / 1000.0f;
-            // End position is the slot before the one where the show ends
-            // unless it ends in the same slot as it starts.
-            int endPos = (int)(fPos);
-            if (endPos <= 0)
-                continue;
-            if (endPos >= TIMESLOTS)
-                endPos = TIMESLOTS;
-            if (endPos == startPos)
-                ++endPos;
-
-            for (int ix = adapterPos+startPos; ix < adapterPos+endPos; ix++) {
-                GuideSlot slot = (GuideSlot)mGridAdapter.get(ix);
-                if (slot.program == null)
-                    slot.program = program;
-                else if (slot.program2 == null) {
-                    if (program.startTime.after(slot.program.startTime))
-                        slot.program2 = program;
-                    else {
-                        slot.program2 = slot.program;
-                        slot.program = program;
+            builder.add(programNode);
+        }
+        ProgramStore programs = builder.build();
+        // Keep the local copy of the guide up to date with the schedule change
+        if (update && getContext() != null)
+            GuideSync.update(getContext(), startTime,
+                    startTime + TIMESLOT_SIZE * TIMESLOTS * 60000, programs);
+        onWindowLoaded(startTime, programs);
+    }
+
+    /**
+     * Place the programs in the grid on the loader thread, then update
+     * only the cells that have changed.
+     */
+    private void showPrograms(ProgramStore programs) {
+        Activity activity = getActivity();
+        if (activity == null)
+            return;
+        int generation = ++mPlaceGeneration;
+        mPlacedStartTime = mGridStartTime.getTime();
+        Placement placement = new Placement(mPlacedStartTime, mShownStartTime,
+                mChanArray, mCellPrograms, mCellPrograms2);
+        sLoader.execute(() -> {
+            placement.place(programs);
+            activity.runOnUiThread(() -> {
+                if (generation == mPlaceGeneration)
+                    applyPlacement(placement);
+            });
+        });
+    }
+
+    private void applyPlacement(Placement placement) {
+        int[] changes = placement.changes;
+        for (int ix = 0; ix < placement.changeCount; ix += 2) {
+            int start = changes[ix];
+            int count = changes[ix + 1];
+            for (int pos = start; pos < start + count; pos++) {
+                GuideSlot slot = (GuideSlot) mGridAdapter.get(pos);
+                slot.program = placement.programs[pos];
+                slot.program2 = placement.programs2[pos];
+                slot.timeSlot = mTimeRow[pos % COLUMNS].timeSlot;
+            }
+            mGridAdapter.notifyArrayItemRangeChanged(start, count);
+        }
+        mCellPrograms = placement.programs;
+        mCellPrograms2 = placement.programs2;
+        mShownStartTime = placement.startTime;
+    }
+
+    /**
+     * Programs for each cell of the grid, and the ranges of cells that
+     * differ from what is shown. Made on the loader thread from a snapshot
+     * of the grid. The channel positions do not change once the grid is
+     * built, and the arrays of programs shown are replaced, not changed.
+     */
+    private static class Placement {
+        final long startTime;
+        final long shownStartTime;
+        final SparseIntArray chanArray;
+        final GuideSlot.Program[] shownPrograms;
+        final GuideSlot.Program[] shownPrograms2;
+        GuideSlot.Program[] programs;
+        GuideSlot.Program[] programs2;
+        // Pairs of start position and count
+        int[] changes = new int[32];
+        int changeCount;
+
+        Placement(long startTime, long shownStartTime, SparseIntArray chanArray,
+                  GuideSlot.Program[] shownPrograms, GuideSlot.Program[] shownPrograms2) {
+            this.startTime = startTime;
+            this.shownStartTime = shownStartTime;
+            this.chanArray = chanArray;
+            this.shownPrograms = shownPrograms;
+            this.shownPrograms2 = shownPrograms2;
+        }
+
+        /**
+         * A program fills the cells from the one it starts in to the one
+         * before it ends, or one cell if it starts and ends in the same
+         * one. A cell holds up to two programs.
+         */
+        void place(ProgramStore store) {
+            programs = new GuideSlot.Program[shownPrograms.length];
+            programs2 = new GuideSlot.Program[shownPrograms.length];
+            long endTime = startTime + TIMESLOT_SIZE * TIMESLOTS * 60000;
+            long slotSize = TIMESLOT_SIZE * 60000;
+            int channelCount = store.getChannelCount();
+            for (int channel = 0; channel < channelCount; channel++) {
+                int adapterPos = chanArray.get(store.getChannel(channel), -1);
+                if (adapterPos == -1)
+                    continue;
+                int channelEnd = store.getChannelStart(channel + 1);
+                for (int ix = store.findFirstEndingAfter(channel, startTime);
+                     ix < channelEnd; ix++) {
+                    long programStart = store.getStartTime(ix);
+                    if (programStart >= endTime)
+                        break;
+                    // Start position is the slot wherein the show starts.
+                    int startPos = (int) ((programStart - startTime) / slotSize);
+                    if (startPos < 0)
+                        startPos = 0;
+                    // End position is the slot before the one where the show ends
+                    // unless it ends in the same slot as it starts.
+                    int endPos = (int) ((store.getEndTime(ix) - startTime) / slotSize);
+                    if (endPos <= 0)
+                        continue;
+                    if (endPos >= TIMESLOTS)
+                        endPos = TIMESLOTS;
+                    if (endPos == startPos)
+                        ++endPos;
+
+                    GuideSlot.Program program = store.getProgram(ix);
+                    for (int pos = adapterPos + startPos; pos < adapterPos + endPos; pos++) {
+                        if (programs[pos] == null)
+                            programs[pos] = program;
+                        else if (programs2[pos] == null) {
+                            if (program.startTime.after(programs[pos].startTime))
+                                programs2[pos] = program;
+                            else {
+                                programs2[pos] = programs[pos];
+                                programs[pos] = program;
+                            }
+                        }
                     }
                 }
             }
+            // When the time window has moved every program cell has
+            // a new time, otherwise only cells with different programs.
+            boolean moved = startTime != shownStartTime;
+            int size = chanArray.size();
+            for (int ix = 0; ix < size; ix++) {
+                int rowStart = chanArray.valueAt(ix);
+                for (int pos = rowStart; pos < rowStart + TIMESLOTS; pos++) {
+                    if (moved
+                            || !GuideSlot.Program.isSame(programs[pos], shownPrograms[pos])
+                            || !GuideSlot.Program.isSame(programs2[pos], shownPrograms2[pos]))
+                        addChange(pos);
+                }
+            }
+        }
+
+        private void addChange(int pos) {
+            if (changeCount > 0 && changes[changeCount - 2] + changes[changeCount - 1] == pos) {
+                ++changes[changeCount - 1];
+                return;
+            }
+            if (changeCount == changes.length)
+                changes = Arrays.copyOf(changes, changeCount * 2);
+            changes[changeCount++] = pos;
+            changes[changeCount++] = 1;
         }
-        mGridAdapter.notifyArrayItemRangeChanged(0, mGridAdapter.size()-1);
     }
 
 }
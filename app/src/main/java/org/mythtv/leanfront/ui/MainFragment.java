@@ -31,7 +31,9 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.CursorWrapper;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
@@ -68,7 +70,7 @@ import androidx.core.content.ContextCompat;
 import androidx.loader.content.CursorLoader;
 import androidx.loader.content.Loader;
 
-import android.os.Looper;
+import android.os.SystemClock;
 import android.text.Html;
 import android.text.Spanned;
 import android.util.DisplayMetrics;
@@ -87,10 +89,11 @@ import com.bumptech.glide.request.RequestOptions;
 import com.bumptech.glide.request.target.SimpleTarget;
 import com.bumptech.glide.request.transition.Transition;
 
-import org.mythtv.leanfront.MyApplication;
 import org.mythtv.leanfront.R;
 import org.mythtv.leanfront.data.AsyncBackendCall;
+import org.mythtv.leanfront.data.BackendResponseCache;
 import org.mythtv.leanfront.data.FetchVideoService;
+import org.mythtv.leanfront.data.GuideSync;
 import org.mythtv.leanfront.data.VideoContract;
 import org.mythtv.leanfront.data.VideoDbHelper;
 import org.mythtv.leanfront.data.XmlNode;
@@ -114,6 +117,7 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Objects;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -191,6 +195,8 @@ public class MainFragment extends BrowseSupportFragment
     private ItemViewClickedListener mItemViewClickedListener;
     private ScrollSupport scrollSupport;
     private Loader loader;
+    // When the play key was pressed, for the startup trace
+    private long mPlayClickTime;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -287,6 +293,8 @@ public class MainFragment extends BrowseSupportFragment
     public void startLoader() {
         LoaderManager manager = LoaderManager.getInstance(this);
         loader = manager.initLoader(CATEGORY_LOADER, null, this);
+        // An existing loader may have been created for an earlier instance
+        ((RowLoader) loader).setFragment(this);
     }
 
     @Override
@@ -316,6 +324,9 @@ public class MainFragment extends BrowseSupportFragment
 
     @Override
     public void onDestroy() {
+        AsyncBackendCall.cancelAll(this);
+        if (loader != null)
+            ((RowLoader) loader).setFragment(null);
         mHandler.removeCallbacks(mBackgroundTask);
         mBackgroundManager = null;
         if (mType == TYPE_TOPLEVEL) {
@@ -423,6 +434,7 @@ public class MainFragment extends BrowseSupportFragment
                     case TYPE_EPISODE:
                     case TYPE_VIDEO:
                     case TYPE_SERIES:
+                        mPlayClickTime = SystemClock.elapsedRealtime();
                         new AsyncBackendCall(video, 0L, false,
                                 this).execute(Video.ACTION_REFRESH);
                         return true;
@@ -462,6 +474,7 @@ public class MainFragment extends BrowseSupportFragment
                 intent.putExtra(VideoDetailsActivity.VIDEO, taskRunner.getVideo());
                 intent.putExtra(VideoDetailsActivity.BOOKMARK, taskRunner.getBookmark());
                 intent.putExtra(VideoDetailsActivity.POSBOOKMARK, taskRunner.getPosBookmark());
+                intent.putExtra(VideoDetailsActivity.START_TIME, mPlayClickTime);
                 startActivity(intent);
                 break;
             case Video.ACTION_LIVETV:
@@ -649,68 +662,87 @@ public class MainFragment extends BrowseSupportFragment
 
         String seq = Settings.getString("pref_seq");
         String ascdesc = Settings.getString("pref_seq_ascdesc");
-        StringBuilder orderby = new StringBuilder();
+        String selection = makeSelection(mType, mBaseName);
+        String [] selectionArgs = makeSelectionArgs(mType, mBaseName);
+        String orderby = makeOrderBy(mType, mBaseName, seq, ascdesc);
+
+        Loader ret = new RowLoader(this,
+                VideoContract.VideoEntry.CONTENT_URI, // Table to query
+                null, // Projection to return - null means return all fields
+                selection, // Selection clause
+                selectionArgs,  // Select based on the category id.
+                orderby);
+        // Map video results from the database to Video objects.
+        videoCursorAdapter =
+                new CursorObjectAdapter(new CardPresenter());
+        videoCursorAdapter.setMapper(new VideoCursorMapper());
+        return ret;
+    }
+
+    // Selection for the list query. Also used by VideoDbBenchmark.
+    public static String makeSelection(int type, String baseName) {
         StringBuilder selection = new StringBuilder();
-        String [] selectionArgs = null;
+        // for Recording Group page, limit selection to those recordings.
+        // Only the "All" recgroup basename ends with \t
+        if (type == TYPE_RECGROUP && !baseName.endsWith("\t"))
+            selection.append(VideoContract.VideoEntry.COLUMN_RECGROUP).append(" = ? ");
+        // for Video Directory page, limit selection to videos
+        if (type == TYPE_VIDEODIR) {
+            selection.append(VideoContract.VideoEntry.COLUMN_RECTYPE).append(" = ");
+            selection.append(VideoContract.VideoEntry.RECTYPE_VIDEO);
+        }
+        return selection.toString();
+    }
+
+    public static String[] makeSelectionArgs(int type, String baseName) {
+        if (type == TYPE_RECGROUP && !baseName.endsWith("\t"))
+            return new String[] {baseName};
+        return null;
+    }
+
+    // Sort order for the list query. Also used by VideoDbBenchmark.
+    public static String makeOrderBy(int type, String baseName, String seq, String ascdesc) {
+        StringBuilder orderby = new StringBuilder();
 
         /*
         SQL "order by" is complicated. Below are examples for the various cases
 
         Top Level list or Videos list
             CASE WHEN rectype = 3 THEN 1 ELSE rectype END,
-            CASE WHEN rectype = 2
-             THEN REPLACE(REPLACE(REPLACE('/'||UPPER(filename),'/THE ','/'),'/A ','/'),'/AN ','/')
-             ELSE NULL END,
+            filename_sort,
             recgroup,
-            REPLACE(REPLACE(REPLACE('^'||UPPER(suggest_text_1),'^THE ','^'),'^A ','^'),'^AN ','^'),
+            title_sort,
             starttime asc, airdate asc
 
         Recording Group list
-            REPLACE(REPLACE(REPLACE('^'||UPPER(suggest_text_1),'^THE ','^'),'^A ','^'),'^AN ','^'),
+            title_sort,
             starttime asc, airdate asc
 
         LiveTV list
             CAST (channum as real), channum,
-            REPLACE(REPLACE(REPLACE('^'||UPPER(suggest_text_1),'^THE ','^'),'^A ','^'),'^AN ','^'),
+            title_sort,
             starttime asc, airdate asc
+
+        title_sort and filename_sort are set up by VideoDbBuilder.makeSortKey,
+        filename_sort is null except for videos.
          */
 
-        if (mType == TYPE_TOPLEVEL || mType == TYPE_VIDEODIR) {
+        if (type == TYPE_TOPLEVEL || type == TYPE_VIDEODIR) {
             // This case will sort channels together with videos
             orderby.append("CASE WHEN ");
             orderby.append(VideoContract.VideoEntry.COLUMN_RECTYPE).append(" = ");
             orderby.append(VideoContract.VideoEntry.RECTYPE_CHANNEL);
             orderby.append(" THEN ").append(VideoContract.VideoEntry.RECTYPE_RECORDING);
             orderby.append(" ELSE ").append(VideoContract.VideoEntry.COLUMN_RECTYPE).append(" END, ");
-            orderby.append("CASE WHEN ");
-            orderby.append(VideoContract.VideoEntry.COLUMN_RECTYPE).append(" = ");
-            orderby.append(VideoContract.VideoEntry.RECTYPE_VIDEO).append(" THEN ");
-            StringBuilder fnSort = makeTitleSort(VideoContract.VideoEntry.COLUMN_FILENAME, '/');
-            orderby.append(fnSort);
-            orderby.append(" ELSE NULL END, ");
+            orderby.append(VideoContract.VideoEntry.COLUMN_FILENAME_SORT).append(", ");
             orderby.append(VideoContract.VideoEntry.COLUMN_RECGROUP).append(", ");
         }
-        // for Recording Group page, limit selection to those recordings.
-        if (mType == TYPE_RECGROUP) {
-            // Only the "All" recgroup basename ends with \t
-            if (!mBaseName.endsWith("\t")) {
-                selection.append(VideoContract.VideoEntry.COLUMN_RECGROUP).append(" = ? ");
-                selectionArgs = new String[1];
-                selectionArgs[0] = mBaseName;
-                if (mBaseName.equals("LiveTV")) {
-                    orderby.append("CAST (").append(VideoContract.VideoEntry.COLUMN_CHANNUM).append(" as real), ");
-                    orderby.append(VideoContract.VideoEntry.COLUMN_CHANNUM).append(", ");
-                }
-            }
-        }
-        // for Video Directory page, limit selection to videos
-        if (mType == TYPE_VIDEODIR) {
-            selection.append(VideoContract.VideoEntry.COLUMN_RECTYPE).append(" = ");
-            selection.append(VideoContract.VideoEntry.RECTYPE_VIDEO);
+        if (type == TYPE_RECGROUP && "LiveTV".equals(baseName)) {
+            orderby.append("CAST (").append(VideoContract.VideoEntry.COLUMN_CHANNUM).append(" as real), ");
+            orderby.append(VideoContract.VideoEntry.COLUMN_CHANNUM).append(", ");
         }
 
-        StringBuilder titleSort = makeTitleSort(VideoContract.VideoEntry.COLUMN_TITLE, '^');
-        orderby.append(titleSort).append(", ");
+        orderby.append(VideoContract.VideoEntry.COLUMN_TITLE_SORT).append(", ");
         if ("airdate".equals(seq)) {
             orderby.append(VideoContract.VideoEntry.COLUMN_AIRDATE).append(" ")
                     .append(ascdesc).append(", ");
@@ -728,41 +760,7 @@ public class MainFragment extends BrowseSupportFragment
         orderby.append(", ").append(VideoContract.VideoEntry.COLUMN_RECORDEDID).append(" ")
                 .append(ascdesc);
 
-        Loader ret = new CursorLoader(
-                getContext(),
-                VideoContract.VideoEntry.CONTENT_URI, // Table to query
-                null, // Projection to return - null means return all fields
-                selection.toString(), // Selection clause
-                selectionArgs,  // Select based on the category id.
-                orderby.toString());
-        // Map video results from the database to Video objects.
-        videoCursorAdapter =
-                new CursorObjectAdapter(new CardPresenter());
-        videoCursorAdapter.setMapper(new VideoCursorMapper());
-        return ret;
-    }
-
-    static final String[] articles = MyApplication.getAppContext().getResources().getStringArray(R.array.title_sort_articles);
-    /**
-     * Create the Sql to sort with excluding articles "the" "a" etc at the front
-     * or at the front of directory names
-     * @param columnName Column for sorting on
-     * @param delim Delimiter to use - ^ for title and / for directory
-     * @return StringBuilder with resulting phrase for "order by"
-     */
-    public static StringBuilder makeTitleSort(String columnName, char delim) {
-        // Sort uppercase title
-        StringBuilder titleSort = new StringBuilder();
-        titleSort.append("'").append(delim).append("'||UPPER(")
-                .append(columnName).append(")");
-        for (String article : articles) {
-            if (article != null && article.length() > 0) {
-                titleSort.insert(0, "REPLACE(");
-                titleSort.append(",'").append(delim).append(article)
-                        .append(" ','").append(delim).append("')");
-            }
-        }
-        return titleSort;
+        return orderby.toString();
     }
 
     @Override
@@ -775,6 +773,149 @@ public class MainFragment extends BrowseSupportFragment
             new AsyncBackendCall(null, 0L, false,
                     MainFragment.this).execute(Video.ACTION_BACKEND_INFO);
 
+            final int loaderId = loader.getId();
+            if (loaderId == CATEGORY_LOADER) {
+                // The rows were built by the loader in the background,
+                // from this cursor.
+                RowModel model = null;
+                if (data instanceof RowCursor)
+                    model = ((RowCursor) data).mModel;
+                applyRows(data, model);
+                return;
+            }
+            setProgressBar(false);
+        }
+    }
+
+    private void applyRows(Cursor data, RowModel model) {
+        if (model != null) {
+            videoCursorAdapter.changeCursor(data);
+            // Every time we have to re-get the category loader, we must re-create the sidebar.
+            mCategoryRowAdapter.clear();
+            mCategoryRowAdapter.addAll(0, model.rows);
+            if (model.selectedRowNum != -1) {
+                SelectionSetter setter = new SelectionSetter(model.selectedRowNum,
+                        model.selectedItemNum);
+                mHandler.postDelayed(setter, 100);
+            }
+        }
+        setProgressBar(false);
+    }
+
+    /**
+     * Rows for the browse screen, built by RowBuilder.
+     * The adapters are not changed after they are handed to the UI thread.
+     */
+    private static class RowModel {
+        final ArrayList<ListRow> rows;
+        final int selectedRowNum;
+        final int selectedItemNum;
+
+        RowModel(ArrayList<ListRow> rows, int selectedRowNum, int selectedItemNum) {
+            this.rows = rows;
+            this.selectedRowNum = selectedRowNum;
+            this.selectedItemNum = selectedItemNum;
+        }
+    }
+
+    // An entry in the recents row, used to find other episodes of a series.
+    private static class RecentEntry {
+        final int key;
+        final Video video;
+
+        RecentEntry(int key, Video video) {
+            this.key = key;
+            this.video = video;
+        }
+    }
+
+    /**
+     * Loader for the category query that also builds the rows, in the
+     * same background load, from the cursor it delivers.
+     * The fragment is only used on the UI thread, to take a new
+     * RowBuilder before each load.
+     */
+    private static class RowLoader extends CursorLoader {
+        private MainFragment mFragment;
+        private volatile RowBuilder mBuilder;
+
+        RowLoader(MainFragment fragment, Uri uri, String[] projection, String selection,
+                  String[] selectionArgs, String sortOrder) {
+            super(fragment.getContext(), uri, projection, selection,
+                    selectionArgs, sortOrder);
+            mFragment = fragment;
+        }
+
+        void setFragment(MainFragment fragment) {
+            mFragment = fragment;
+        }
+
+        @Override
+        protected void onForceLoad() {
+            if (mFragment != null && mFragment.isAdded())
+                mBuilder = new RowBuilder(mFragment);
+            super.onForceLoad();
+        }
+
+        @Override
+        public Cursor loadInBackground() {
+            Cursor cursor = super.loadInBackground();
+            RowBuilder builder = mBuilder;
+            if (cursor == null || builder == null)
+                return cursor;
+            return new RowCursor(cursor, builder.build(cursor));
+        }
+    }
+
+    // The category cursor, with the rows that were built from it.
+    private static class RowCursor extends CursorWrapper {
+        final RowModel mModel;
+
+        RowCursor(Cursor cursor, RowModel model) {
+            super(cursor);
+            mModel = model;
+        }
+    }
+
+    /**
+     * Builds the rows from the category cursor on a background thread.
+     * Everything it needs from the fragment is copied when it is created
+     * on the UI thread, so the fragment can change while it runs.
+     */
+    private static class RowBuilder {
+        private final Resources res;
+        private final int mType;
+        private final String mBaseName;
+        private final int mSelectedRowType;
+        private final String mSelectedRowName;
+        private final int mSelectedItemType;
+        private final String mSelectedItemId;
+        private final VideoCursorMapper mapper = new VideoCursorMapper();
+
+        RowBuilder(MainFragment fragment) {
+            res = fragment.getResources();
+            mType = fragment.mType;
+            mBaseName = fragment.mBaseName;
+            mSelectedRowType = fragment.mSelectedRowType;
+            mSelectedRowName = fragment.mSelectedRowName;
+            mSelectedItemType = fragment.mSelectedItemType;
+            mSelectedItemId = fragment.mSelectedItemId;
+        }
+
+        RowModel build(Cursor data) {
+            long startTime = System.currentTimeMillis();
+            try {
+                RowModel model = doBuild(data);
+                Log.d(TAG, CLASS + " Rows built in "
+                        + (System.currentTimeMillis() - startTime) + " ms");
+                return model;
+            } catch (SQLiteException e) {
+                Log.e(TAG, CLASS + " Rows not built", e);
+                return null;
+            }
+        }
+
+        private RowModel doBuild(Cursor data) {
             String seq = Settings.getString("pref_seq");
             String ascdesc = Settings.getString("pref_seq_ascdesc");
             boolean showRecents = "true".equals(Settings.getString("pref_show_recents"));
@@ -786,7 +927,7 @@ public class MainFragment extends BrowseSupportFragment
             int allType = TYPE_RECGROUP_ALL;
             String allTitle = null;
             if (mType == TYPE_TOPLEVEL) {
-                allTitle = getString(R.string.all_title) + "\t";
+                allTitle = res.getString(R.string.all_title) + "\t";
                 allType = TYPE_TOP_ALL;
             }
             if (mType == TYPE_RECGROUP) {
@@ -795,364 +936,364 @@ public class MainFragment extends BrowseSupportFragment
                 allType = TYPE_RECGROUP_ALL;
             }
 
-            final int loaderId = loader.getId();
-            if (loaderId == CATEGORY_LOADER) {
-                int rectypeIndex =
-                        data.getColumnIndex(VideoContract.VideoEntry.COLUMN_RECTYPE);
-                int recgroupIndex =
-                        data.getColumnIndex(VideoContract.VideoEntry.COLUMN_RECGROUP);
-                int titleIndex =
-                        data.getColumnIndex(VideoContract.VideoEntry.COLUMN_TITLE);
-                int airdateIndex =
-                        data.getColumnIndex(VideoContract.VideoEntry.COLUMN_AIRDATE);
-                int starttimeIndex =
-                        data.getColumnIndex(VideoContract.VideoEntry.COLUMN_STARTTIME);
-                int filenameIndex =
-                        data.getColumnIndex(VideoContract.VideoEntry.COLUMN_FILENAME);
-                SimpleDateFormat dbDateFormat = new SimpleDateFormat("yyyy-MM-dd");
-                SimpleDateFormat dbTimeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-                int sortkey;
-                SimpleDateFormat sortKeyFormat;
-                if ("airdate".equals(seq)) {
-                    sortkey = airdateIndex;
-                    sortKeyFormat = dbDateFormat;
-                }
-                else {
-                    sortkey = starttimeIndex;
-                    sortKeyFormat = dbTimeFormat;
-                }
-                boolean cursorHasData = data.moveToFirst();
-                int selectedRowNum = -1;
-                int selectedItemNum = -1;
-
-                // Every time we have to re-get the category loader, we must re-create the sidebar.
-                mCategoryRowAdapter.clear();
-                ArrayObjectAdapter rowObjectAdapter = null;
-                SparseArrayObjectAdapter allObjectAdapter = null;
-                SparseArrayObjectAdapter recentsObjectAdapter = null;
-                ArrayObjectAdapter rootObjectAdapter = null;
-                videoCursorAdapter.changeCursor(data);
-
-                String currentCategory = null;
-                int currentRowType = -1;
-                String currentItem = null;
-                int currentRowNum = -1;
-                int allRowNum = -1;
-                int recentsRowNum = -1;
-                int rootRowNum = -1;
-                MyHeaderItem header;
-                ListRow row;
-
-                // Create the recents row, only for top level
-                if (mType == TYPE_TOPLEVEL && showRecents) {
-                    String title = getString(R.string.recents_title) + "\t";
-                    header = new MyHeaderItem(title, TYPE_RECENTS, mBaseName);
-                    recentsObjectAdapter = new SparseArrayObjectAdapter(new CardPresenter());
-                    row = new ListRow(header, recentsObjectAdapter);
-                    row.setContentDescription(title);
-                    mCategoryRowAdapter.add(row);
-                    recentsRowNum = mCategoryRowAdapter.size() - 1;
-                    if (mSelectedRowType == TYPE_RECENTS
-                            && Objects.equals(title,mSelectedRowName))
-                        selectedRowNum = recentsRowNum;
-                }
-
-                // Create "All" row (but not for videos)
-                if (mType != TYPE_VIDEODIR) {
-                    header = new MyHeaderItem(allTitle,
-                            allType, mBaseName);
-                    allObjectAdapter = new SparseArrayObjectAdapter(new CardPresenter());
-                    row = new ListRow(header, allObjectAdapter);
-                    row.setContentDescription(allTitle);
-                    mCategoryRowAdapter.add(row);
-                    allRowNum = mCategoryRowAdapter.size() - 1;
-                    if (mSelectedRowType == allType
-                            && Objects.equals(allTitle,mSelectedRowName))
-                        selectedRowNum = allRowNum;
-                }
-
-                // Create "Root" row
-                if (mType == TYPE_VIDEODIR) {
-                    String rootTitle = "\t";
-                    header = new MyHeaderItem(rootTitle,
-                            TYPE_VIDEODIR,mBaseName);
-                    rootObjectAdapter = new ArrayObjectAdapter(new CardPresenter());
-                    row = new ListRow(header, rootObjectAdapter);
-                    row.setContentDescription(rootTitle);
-                    mCategoryRowAdapter.add(row);
-                    rootRowNum = mCategoryRowAdapter.size() - 1;
-                    if (mSelectedRowType == TYPE_VIDEODIR
-                            && Objects.equals(rootTitle,mSelectedRowName))
-                        selectedRowNum = rootRowNum;
-                }
-
-                // Iterate through each category entry and add it to the ArrayAdapter.
-                while (cursorHasData && !data.isAfterLast()) {
-
-                    boolean addToRow = true;
-                    int itemType = -1;
-                    int rowType = -1;
+            int rectypeIndex =
+                    data.getColumnIndex(VideoContract.VideoEntry.COLUMN_RECTYPE);
+            int recgroupIndex =
+                    data.getColumnIndex(VideoContract.VideoEntry.COLUMN_RECGROUP);
+            int titleIndex =
+                    data.getColumnIndex(VideoContract.VideoEntry.COLUMN_TITLE);
+            int airdateIndex =
+                    data.getColumnIndex(VideoContract.VideoEntry.COLUMN_AIRDATE);
+            int starttimeIndex =
+                    data.getColumnIndex(VideoContract.VideoEntry.COLUMN_STARTTIME);
+            int filenameIndex =
+                    data.getColumnIndex(VideoContract.VideoEntry.COLUMN_FILENAME);
+            SimpleDateFormat dbDateFormat = new SimpleDateFormat("yyyy-MM-dd");
+            SimpleDateFormat dbTimeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+            int sortkey;
+            SimpleDateFormat sortKeyFormat;
+            if ("airdate".equals(seq)) {
+                sortkey = airdateIndex;
+                sortKeyFormat = dbDateFormat;
+            }
+            else {
+                sortkey = starttimeIndex;
+                sortKeyFormat = dbTimeFormat;
+            }
+            boolean cursorHasData = data.moveToFirst();
+            int selectedRowNum = -1;
+            int selectedItemNum = -1;
+
+            ArrayList<ListRow> rows = new ArrayList<>();
+            ArrayObjectAdapter rowObjectAdapter = null;
+            SparseArrayObjectAdapter allObjectAdapter = null;
+            SparseArrayObjectAdapter recentsObjectAdapter = null;
+            ArrayObjectAdapter rootObjectAdapter = null;
+
+            String currentCategory = null;
+            int currentRowType = -1;
+            String currentItem = null;
+            int currentRowNum = -1;
+            int allRowNum = -1;
+            int recentsRowNum = -1;
+            int rootRowNum = -1;
+            HashMap<String, ArrayList<RecentEntry>> recentsBySeries = new HashMap<>();
+            MyHeaderItem header;
+            ListRow row;
+
+            // Create the recents row, only for top level
+            if (mType == TYPE_TOPLEVEL && showRecents) {
+                String title = res.getString(R.string.recents_title) + "\t";
+                header = new MyHeaderItem(title, TYPE_RECENTS, mBaseName);
+                recentsObjectAdapter = new SparseArrayObjectAdapter(new CardPresenter());
+                row = new ListRow(header, recentsObjectAdapter);
+                row.setContentDescription(title);
+                rows.add(row);
+                recentsRowNum = rows.size() - 1;
+                if (mSelectedRowType == TYPE_RECENTS
+                        && Objects.equals(title,mSelectedRowName))
+                    selectedRowNum = recentsRowNum;
+            }
 
-                    String recgroup = data.getString(recgroupIndex);
-                    int rectype = data.getInt(rectypeIndex);
+            // Create "All" row (but not for videos)
+            if (mType != TYPE_VIDEODIR) {
+                header = new MyHeaderItem(allTitle,
+                        allType, mBaseName);
+                allObjectAdapter = new SparseArrayObjectAdapter(new CardPresenter());
+                row = new ListRow(header, allObjectAdapter);
+                row.setContentDescription(allTitle);
+                rows.add(row);
+                allRowNum = rows.size() - 1;
+                if (mSelectedRowType == allType
+                        && Objects.equals(allTitle,mSelectedRowName))
+                    selectedRowNum = allRowNum;
+            }
 
-                    String category = null;
-                    Video video = (Video) videoCursorAdapter.get(data.getPosition());
-                    Video dbVideo = video;
+            // Create "Root" row
+            if (mType == TYPE_VIDEODIR) {
+                String rootTitle = "\t";
+                header = new MyHeaderItem(rootTitle,
+                        TYPE_VIDEODIR,mBaseName);
+                rootObjectAdapter = new ArrayObjectAdapter(new CardPresenter());
+                row = new ListRow(header, rootObjectAdapter);
+                row.setContentDescription(rootTitle);
+                rows.add(row);
+                rootRowNum = rows.size() - 1;
+                if (mSelectedRowType == TYPE_VIDEODIR
+                        && Objects.equals(rootTitle,mSelectedRowName))
+                    selectedRowNum = rootRowNum;
+            }
 
-                    // For Rec Group type, only use recordings from that recording group.
-                    // categories are titles.
-                    if (mType == TYPE_RECGROUP) {
-                        category = data.getString(titleIndex);
-                        if (recgroup != null
-                            && (getString(R.string.all_title) + "\t").equals(mBaseName)) {
-                            // Do not mix deleted episodes or LiveTV in the All group
-                            if ("Deleted".equals(recgroup) || "LiveTV".equals(recgroup)) {
-                                data.moveToNext();
-                                continue;
-                            }
-                        } else {
-                            if (!Objects.equals(mBaseName,recgroup)) {
-                                data.moveToNext();
-                                continue;
-                            }
+            // Iterate through each category entry and add it to the ArrayAdapter.
+            while (cursorHasData && !data.isAfterLast()) {
+
+                boolean addToRow = true;
+                int itemType = -1;
+                int rowType = -1;
+
+                String recgroup = data.getString(recgroupIndex);
+                int rectype = data.getInt(rectypeIndex);
+
+                String category = null;
+                Video video = (Video) mapper.convert(data);
+                Video dbVideo = video;
+
+                // For Rec Group type, only use recordings from that recording group.
+                // categories are titles.
+                if (mType == TYPE_RECGROUP) {
+                    category = data.getString(titleIndex);
+                    if (recgroup != null
+                        && (res.getString(R.string.all_title) + "\t").equals(mBaseName)) {
+                        // Do not mix deleted episodes or LiveTV in the All group
+                        if ("Deleted".equals(recgroup) || "LiveTV".equals(recgroup)) {
+                            data.moveToNext();
+                            continue;
                         }
-                        if (rectype == VideoContract.VideoEntry.RECTYPE_RECORDING) {
-                            rowType = TYPE_SERIES;
-                            itemType = TYPE_EPISODE;
-                        }
-                        else if (rectype == VideoContract.VideoEntry.RECTYPE_CHANNEL) {
-                            rowType = TYPE_CHANNEL_ALL;
-                            itemType = TYPE_CHANNEL;
+                    } else {
+                        if (!Objects.equals(mBaseName,recgroup)) {
+                            data.moveToNext();
+                            continue;
                         }
                     }
+                    if (rectype == VideoContract.VideoEntry.RECTYPE_RECORDING) {
+                        rowType = TYPE_SERIES;
+                        itemType = TYPE_EPISODE;
+                    }
+                    else if (rectype == VideoContract.VideoEntry.RECTYPE_CHANNEL) {
+                        rowType = TYPE_CHANNEL_ALL;
+                        itemType = TYPE_CHANNEL;
+                    }
+                }
 
-                    // For Top Level type, only use 1 recording from each title
-                    // categories are recgroups
-                    String filename = data.getString(filenameIndex);
-                    String [] fileparts;
-                    String dirname = null;
-                    String itemname = null;
-                    // Split file name and see if it is a directory
-                    if (rectype == VideoContract.VideoEntry.RECTYPE_VIDEO && filename != null) {
-                        String shortName = filename;
-                        // itemlevel 0 means there is only one row for all
-                        // videos so the first part of the name is the entry
+                // For Top Level type, only use 1 recording from each title
+                // categories are recgroups
+                String filename = data.getString(filenameIndex);
+                String [] fileparts;
+                String dirname = null;
+                String itemname = null;
+                // Split file name and see if it is a directory
+                if (rectype == VideoContract.VideoEntry.RECTYPE_VIDEO && filename != null) {
+                    String shortName = filename;
+                    // itemlevel 0 means there is only one row for all
+                    // videos so the first part of the name is the entry
+                    // in the row.
+                    int itemlevel = 1;
+                    if (mType == TYPE_VIDEODIR) {
+                        // itemlevel 1 means there is one row for each
+                        // directory so the second part of the name is the entry
                         // in the row.
-                        int itemlevel = 1;
-                        if (mType == TYPE_VIDEODIR) {
-                            // itemlevel 1 means there is one row for each
-                            // directory so the second part of the name is the entry
-                            // in the row.
-                            itemlevel = 2;
-                            if (mBaseName.length() == 0)
-                                shortName = filename;
-                            else if (shortName.startsWith(mBaseName + "/"))
-                                shortName = filename.substring(mBaseName.length()+1);
-                            else {
-                                data.moveToNext();
-                                continue;
-                            }
-                        }
-                        fileparts = shortName.split("/");
-                        if (fileparts.length == 1 || mType == TYPE_TOPLEVEL) {
-                            itemname = fileparts[0];
-                        }
+                        itemlevel = 2;
+                        if (mBaseName.length() == 0)
+                            shortName = filename;
+                        else if (shortName.startsWith(mBaseName + "/"))
+                            shortName = filename.substring(mBaseName.length()+1);
                         else {
-                            dirname = fileparts[0];
-                            itemname = fileparts[1];
-                        }
-                        if ((fileparts.length <= 2 && mType == TYPE_VIDEODIR)
-                                || fileparts.length == 1)
-                            itemType = TYPE_VIDEO;
-                        else
-                            itemType = TYPE_VIDEODIR;
-                        if (itemType == TYPE_VIDEODIR && Objects.equals(itemname,currentItem)) {
-                            itemType = TYPE_VIDEO;
-                            addToRow = false;
+                            data.moveToNext();
+                            continue;
                         }
-                        else
-                            currentItem = itemname;
                     }
+                    fileparts = shortName.split("/");
+                    if (fileparts.length == 1 || mType == TYPE_TOPLEVEL) {
+                        itemname = fileparts[0];
+                    }
+                    else {
+                        dirname = fileparts[0];
+                        itemname = fileparts[1];
+                    }
+                    if ((fileparts.length <= 2 && mType == TYPE_VIDEODIR)
+                            || fileparts.length == 1)
+                        itemType = TYPE_VIDEO;
+                    else
+                        itemType = TYPE_VIDEODIR;
+                    if (itemType == TYPE_VIDEODIR && Objects.equals(itemname,currentItem)) {
+                        itemType = TYPE_VIDEO;
+                        addToRow = false;
+                    }
+                    else
+                        currentItem = itemname;
+                }
 
-                    if (mType == TYPE_TOPLEVEL) {
-                        if (rectype == VideoContract.VideoEntry.RECTYPE_VIDEO) {
-                            category = getString(R.string.row_header_videos)+ "\t";
-                            rowType = TYPE_VIDEODIR_ALL;
+                if (mType == TYPE_TOPLEVEL) {
+                    if (rectype == VideoContract.VideoEntry.RECTYPE_VIDEO) {
+                        category = res.getString(R.string.row_header_videos)+ "\t";
+                        rowType = TYPE_VIDEODIR_ALL;
+                    }
+                    else if (rectype == VideoContract.VideoEntry.RECTYPE_RECORDING
+                            || rectype == VideoContract.VideoEntry.RECTYPE_CHANNEL) {
+                        category = recgroup;
+                        String title;
+                        if (rectype == VideoContract.VideoEntry.RECTYPE_CHANNEL)
+                            title = "Channels\t";
+                        else
+                            title = data.getString(titleIndex);
+                        if (Objects.equals(title,currentItem)) {
+                            addToRow = false;
                         }
-                        else if (rectype == VideoContract.VideoEntry.RECTYPE_RECORDING
-                                || rectype == VideoContract.VideoEntry.RECTYPE_CHANNEL) {
-                            category = recgroup;
-                            String title;
-                            if (rectype == VideoContract.VideoEntry.RECTYPE_CHANNEL)
-                                title = "Channels\t";
-                            else
-                                title = data.getString(titleIndex);
-                            if (Objects.equals(title,currentItem)) {
-                                addToRow = false;
-                            }
-                            else {
-                                currentItem = title;
-                                rowType = TYPE_RECGROUP;
-                                itemType = TYPE_SERIES;
-                            }
+                        else {
+                            currentItem = title;
+                            rowType = TYPE_RECGROUP;
+                            itemType = TYPE_SERIES;
                         }
                     }
+                }
 
-                    // For Video Directory type, only use videos (recgroup null)
-                    // category is full directory name.
-                    // Only one videos page
-                    // First is "all" row, then "root" row, then dir rows
-                    // mBaseName = "Videos" String
-                    // Display = "Videos" String
-                    if (mType == TYPE_VIDEODIR) {
-                        category = dirname;
-                        rowType = TYPE_VIDEODIR;
-                    }
+                // For Video Directory type, only use videos (recgroup null)
+                // category is full directory name.
+                // Only one videos page
+                // First is "all" row, then "root" row, then dir rows
+                // mBaseName = "Videos" String
+                // Display = "Videos" String
+                if (mType == TYPE_VIDEODIR) {
+                    category = dirname;
+                    rowType = TYPE_VIDEODIR;
+                }
 
-                    // Change of row
-                    if (addToRow && category != null && !Objects.equals(category,currentCategory)) {
-                        // Finish off prior row
-                        if (rowObjectAdapter != null) {
-                            // Create header for this category.
-                            header = new MyHeaderItem(currentCategory,
-                                    currentRowType,mBaseName);
-                            row = new ListRow(header, rowObjectAdapter);
-                            row.setContentDescription(currentCategory);
-                            mCategoryRowAdapter.add(row);
-                        }
-                        currentRowNum = mCategoryRowAdapter.size();
-                        currentRowType = rowType;
-                        rowObjectAdapter = new ArrayObjectAdapter(new CardPresenter());
-                        currentCategory = category;
-                        if (mSelectedRowType == rowType
-                                && Objects.equals(currentCategory,mSelectedRowName))
-                            selectedRowNum = currentRowNum;
+                // Change of row
+                if (addToRow && category != null && !Objects.equals(category,currentCategory)) {
+                    // Finish off prior row
+                    if (rowObjectAdapter != null) {
+                        // Create header for this category.
+                        header = new MyHeaderItem(currentCategory,
+                                currentRowType,mBaseName);
+                        row = new ListRow(header, rowObjectAdapter);
+                        row.setContentDescription(currentCategory);
+                        rows.add(row);
                     }
+                    currentRowNum = rows.size();
+                    currentRowType = rowType;
+                    rowObjectAdapter = new ArrayObjectAdapter(new CardPresenter());
+                    currentCategory = category;
+                    if (mSelectedRowType == rowType
+                            && Objects.equals(currentCategory,mSelectedRowName))
+                        selectedRowNum = currentRowNum;
+                }
 
-                    // If a directory, create a placeholder for directory name
-                    if (itemType == TYPE_VIDEODIR)
-                        video = new Video.VideoBuilder()
-                                .id(-1).title(itemname)
-                                .recordedid(itemname)
-                                .subtitle("")
+                // If a directory, create a placeholder for directory name
+                if (itemType == TYPE_VIDEODIR)
+                    video = new Video.VideoBuilder()
+                            .id(-1).title(itemname)
+                            .recordedid(itemname)
+                            .subtitle("")
+                            .bgImageUrl("android.resource://org.mythtv.leanfront/" + R.drawable.background)
+                            .progflags("0")
+                            .build();
+                video.type = itemType;
+
+                // Add video to row
+                if (addToRow && category != null) {
+                    Video tVideo = video;
+                    if (mType == TYPE_TOPLEVEL && video.rectype == VideoContract.VideoEntry.RECTYPE_CHANNEL) {
+                        // Create dummy video for "All Channels"
+                        tVideo = new Video.VideoBuilder()
+                                .id(-1).channel(res.getString(R.string.row_header_channels))
+                                .rectype(VideoContract.VideoEntry.RECTYPE_CHANNEL)
                                 .bgImageUrl("android.resource://org.mythtv.leanfront/" + R.drawable.background)
                                 .progflags("0")
                                 .build();
-                    video.type = itemType;
-
-                    // Add video to row
-                    if (addToRow && category != null) {
-                        Video tVideo = video;
-                        if (mType == TYPE_TOPLEVEL && video.rectype == VideoContract.VideoEntry.RECTYPE_CHANNEL) {
-                            // Create dummy video for "All Channels"
-                            tVideo = new Video.VideoBuilder()
-                                    .id(-1).channel(getString(R.string.row_header_channels))
-                                    .rectype(VideoContract.VideoEntry.RECTYPE_CHANNEL)
-                                    .bgImageUrl("android.resource://org.mythtv.leanfront/" + R.drawable.background)
-                                    .progflags("0")
-                                    .build();
-                            tVideo.type = TYPE_CHANNEL_ALL;
-                        }
-                        rowObjectAdapter.add(tVideo);
-                        if (selectedRowNum == currentRowNum) {
-                            if (video.getItemType() == mSelectedItemType
-                                    && Objects.equals(mSelectedItemId,video.recordedid))
-                                selectedItemNum = rowObjectAdapter.size() - 1;
-                        }
+                        tVideo.type = TYPE_CHANNEL_ALL;
                     }
-
-                    // Add video to "Root" row
-                    if (addToRow && rootObjectAdapter != null
-                        && category == null) {
-                        rootObjectAdapter.add(video);
-                        if (selectedRowNum == rootRowNum) {
-                            if (video.getItemType() == mSelectedItemType
-                                    && Objects.equals(video.recordedid,mSelectedItemId))
-                                selectedItemNum = rootObjectAdapter.size() - 1;
-                        }
+                    rowObjectAdapter.add(tVideo);
+                    if (selectedRowNum == currentRowNum) {
+                        if (video.getItemType() == mSelectedItemType
+                                && Objects.equals(mSelectedItemId,video.recordedid))
+                            selectedItemNum = rowObjectAdapter.size() - 1;
                     }
+                }
 
-                    // Add video to "All" row
-                    if (addToRow && allObjectAdapter != null && rowType != TYPE_VIDEODIR_ALL
-                        && rectype == VideoContract.VideoEntry.RECTYPE_RECORDING
-                        && !(mType == TYPE_TOPLEVEL && "Deleted".equals(recgroup))) {
-                        int position = 0;
-                        String sortKeyStr = data.getString(sortkey);
-                        if (sortKeyStr != null) {
-                            try {
-                                Date date = sortKeyFormat.parse(sortKeyStr);
-                                // 525960 minutes in a year
-                                // Get position as number of minutes since 1970
-                                position = (int) (date.getTime() / 60000L);
-                                // Add 70 years in case it is before 1970
-                                position += 36817200;
-                                if ("desc".equals(ascdesc))
-                                    position = Integer.MAX_VALUE - position;
-                            } catch (ParseException | NullPointerException e) {
-                                e.printStackTrace();
-                                position = 0;
-                            }
-                        }
-                        // Make sure we have an empty slot
-                        try {
-                            while (allObjectAdapter.lookup(position) != null)
-                                position++;
-                        } catch (ArrayIndexOutOfBoundsException e) { }
-
-                        allObjectAdapter.set(position,video);
-
-                        if (selectedRowNum == allRowNum) {
-                            if (video.getItemType() == mSelectedItemType
-                                    && Objects.equals(video.recordedid,mSelectedItemId))
-                                selectedItemNum = position;
-                        }
+                // Add video to "Root" row
+                if (addToRow && rootObjectAdapter != null
+                    && category == null) {
+                    rootObjectAdapter.add(video);
+                    if (selectedRowNum == rootRowNum) {
+                        if (video.getItemType() == mSelectedItemType
+                                && Objects.equals(video.recordedid,mSelectedItemId))
+                            selectedItemNum = rootObjectAdapter.size() - 1;
                     }
+                }
 
-                    // Add to recents row if applicable
-                    if (recentsObjectAdapter != null
-                            && dbVideo.isRecentViewed()) {
-                        // 525960 minutes in a year
-                        // Get key as number of minutes since 1970
-                        // Will stop working in the year 5982
-                        int key = (int) (dbVideo.lastUsed / 60000L);
-                        // Add 70 years in case it is before 1970
-                        key += 36817200;
-                        // descending
-                        key = Integer.MAX_VALUE - key;
-                        // Make sure we have an empty slot
+                // Add video to "All" row
+                if (addToRow && allObjectAdapter != null && rowType != TYPE_VIDEODIR_ALL
+                    && rectype == VideoContract.VideoEntry.RECTYPE_RECORDING
+                    && !(mType == TYPE_TOPLEVEL && "Deleted".equals(recgroup))) {
+                    int position = 0;
+                    String sortKeyStr = data.getString(sortkey);
+                    if (sortKeyStr != null) {
                         try {
-                            while (recentsObjectAdapter.lookup(key) != null)
-                                key++;
-                        } catch (ArrayIndexOutOfBoundsException e) { }
-
-                        if (selectedRowNum == recentsRowNum) {
-                            if (dbVideo.getItemType() == mSelectedItemType
-                                    && Objects.equals(dbVideo.recordedid, mSelectedItemId))
-                                selectedItemNum = key;
+                            Date date = sortKeyFormat.parse(sortKeyStr);
+                            // 525960 minutes in a year
+                            // Get position as number of minutes since 1970
+                            position = (int) (date.getTime() / 60000L);
+                            // Add 70 years in case it is before 1970
+                            position += 36817200;
+                            if ("desc".equals(ascdesc))
+                                position = Integer.MAX_VALUE - position;
+                        } catch (ParseException | NullPointerException e) {
+                            e.printStackTrace();
+                            position = 0;
                         }
+                    }
+                    // Make sure we have an empty slot
+                    try {
+                        while (allObjectAdapter.lookup(position) != null)
+                            position++;
+                    } catch (ArrayIndexOutOfBoundsException e) { }
 
-                        // Check if there is already an entry for that series / directory
-                        // If the user does not want duplicates of recent titles that were
-                        // watched or deleted
+                    allObjectAdapter.set(position,video);
 
-                        boolean isDeleted = "Deleted".equals(dbVideo.recGroup);
-                        boolean isWatched = dbVideo.isWatched();
-                        if (recentsTrim) {
+                    if (selectedRowNum == allRowNum) {
+                        if (video.getItemType() == mSelectedItemType
+                                && Objects.equals(video.recordedid,mSelectedItemId))
+                            selectedItemNum = position;
+                    }
+                }
 
-                            // If all recently viewed episodes of a series are watched/deleted, show the most
-                            // recently viewed.
-                            // If some recently viewed episodes of a series are watched/deleted and some are not,
-                            // show only the ones not watched/deleted
+                // Add to recents row if applicable
+                if (recentsObjectAdapter != null
+                        && dbVideo.isRecentViewed()) {
+                    // 525960 minutes in a year
+                    // Get key as number of minutes since 1970
+                    // Will stop working in the year 5982
+                    int key = (int) (dbVideo.lastUsed / 60000L);
+                    // Add 70 years in case it is before 1970
+                    key += 36817200;
+                    // descending
+                    key = Integer.MAX_VALUE - key;
+                    // Make sure we have an empty slot
+                    try {
+                        while (recentsObjectAdapter.lookup(key) != null)
+                            key++;
+                    } catch (ArrayIndexOutOfBoundsException e) { }
+
+                    if (selectedRowNum == recentsRowNum) {
+                        if (dbVideo.getItemType() == mSelectedItemType
+                                && Objects.equals(dbVideo.recordedid, mSelectedItemId))
+                            selectedItemNum = key;
+                    }
 
-                            String series = dbVideo.getSeries();
-                            if (series != null) {
-                                for (int fx = 0; fx < recentsObjectAdapter.size(); fx++) {
-                                    Video fvid = (Video) recentsObjectAdapter.get(fx);
+                    // Check if there is already an entry for that series / directory
+                    // If the user does not want duplicates of recent titles that were
+                    // watched or deleted
+
+                    boolean isDeleted = "Deleted".equals(dbVideo.recGroup);
+                    boolean isWatched = dbVideo.isWatched();
+                    if (recentsTrim) {
+
+                        // If all recently viewed episodes of a series are watched/deleted, show the most
+                        // recently viewed.
+                        // If some recently viewed episodes of a series are watched/deleted and some are not,
+                        // show only the ones not watched/deleted
+
+                        String series = dbVideo.getSeries();
+                        if (series != null) {
+                            // Entries already in the row for this series, in key order,
+                            // which is the order they appear in the row.
+                            ArrayList<RecentEntry> entries = recentsBySeries.get(series);
+                            if (entries != null) {
+                                for (RecentEntry entry : entries) {
+                                    Video fvid = entry.video;
                                     boolean fisDeleted = "Deleted".equals(fvid.recGroup);
-                                    if (series.equals(fvid.getSeries())
-                                            && (isDeleted || fisDeleted || Objects.equals(dbVideo.recGroup,fvid.recGroup))) {
-                                        int fkey = Integer.MAX_VALUE - ((int) (fvid.lastUsed / 60000L) + 36817200);
+                                    if (isDeleted || fisDeleted || Objects.equals(dbVideo.recGroup,fvid.recGroup)) {
+                                        int fkey = entry.key;
                                         boolean fisWatched = fvid.isWatched();
                                         if ((isDeleted || isWatched) && (fisDeleted || fisWatched)) {
                                             // If the episode we are processing is watched/deleted and the matched
@@ -1162,6 +1303,7 @@ public class MainFragment extends BrowseSupportFragment
                                                     selectedItemNum = key;
                                                 // position is closer to front, delete the other one
                                                 recentsObjectAdapter.clear(fkey);
+                                                entries.remove(entry);
                                                 break;
                                             } else {
                                                 if (selectedRowNum == recentsRowNum && selectedItemNum == key)
@@ -1183,110 +1325,118 @@ public class MainFragment extends BrowseSupportFragment
                                             if (selectedRowNum == recentsRowNum && selectedItemNum == fkey)
                                                 selectedItemNum = key;
                                             recentsObjectAdapter.clear(fkey);
+                                            entries.remove(entry);
                                             break;
                                         }
                                     }
                                 }
                             }
                         }
-
-                        if (key != -1)
-                            recentsObjectAdapter.set(key, dbVideo);
                     }
 
-                    data.moveToNext();
-                }
-                // Finish off prior row
-                if (rowObjectAdapter != null) {
-                    // Create header for this category.
-                    header = new MyHeaderItem(currentCategory,
-                            currentRowType,mBaseName);
-                    row = new ListRow(header, rowObjectAdapter);
-                    mCategoryRowAdapter.add(row);
-                }
-
-                // Remove recents if empty
-                if (recentsObjectAdapter != null && recentsObjectAdapter.size() == 0) {
-                    mCategoryRowAdapter.removeItems(recentsRowNum,1);
-                    if (selectedRowNum > 0)
-                        selectedRowNum --;
+                    if (key != -1) {
+                        recentsObjectAdapter.set(key, dbVideo);
+                        String series = dbVideo.getSeries();
+                        if (recentsTrim && series != null) {
+                            ArrayList<RecentEntry> entries = recentsBySeries.get(series);
+                            if (entries == null) {
+                                entries = new ArrayList<>();
+                                recentsBySeries.put(series, entries);
+                            }
+                            int ix = 0;
+                            while (ix < entries.size() && entries.get(ix).key < key)
+                                ix++;
+                            entries.add(ix, new RecentEntry(key, dbVideo));
+                        }
+                    }
                 }
 
-                // Create a row for tools.
-                MyHeaderItem gridHeader = new MyHeaderItem(getString(R.string.row_header_tools),
-                        TYPE_TOOLS,mBaseName);
-                CardPresenter presenter = new CardPresenter();
-                ArrayObjectAdapter toolsRowAdapter = new ArrayObjectAdapter(presenter);
-                row = new ListRow(gridHeader, toolsRowAdapter);
-                mCategoryRowAdapter.add(row);
-
-                Video video = new Video.VideoBuilder()
-                        .id(-1).title(getString(R.string.button_settings))
-                        .subtitle("")
-                        .bgImageUrl("android.resource://org.mythtv.leanfront/" + R.drawable.background)
-                        .progflags("0")
-                        .build();
-                video.type = TYPE_SETTINGS;
-                toolsRowAdapter.add(video);
-
-                video = new Video.VideoBuilder()
-                        .id(-1).title(getString(R.string.button_refresh_lists))
-                        .subtitle("")
-                        .bgImageUrl("android.resource://org.mythtv.leanfront/" + R.drawable.background)
-                        .progflags("0")
-                        .build();
-                video.type = TYPE_REFRESH;
-                toolsRowAdapter.add(video);
-
-                video = new Video.VideoBuilder()
-                        .id(-1).title(getString(R.string.button_backend_status))
-                        .subtitle("")
-                        .bgImageUrl("android.resource://org.mythtv.leanfront/" + R.drawable.background)
-                        .progflags("0")
-                        .build();
-                video.type = TYPE_INFO;
-                toolsRowAdapter.add(video);
-
-                video = new Video.VideoBuilder()
-                        .id(-1).title(getString(R.string.button_manage_recordings))
-                        .subtitle("")
-                        .bgImageUrl("android.resource://org.mythtv.leanfront/" + R.drawable.background)
-                        .progflags("0")
-                        .build();
-                video.type = TYPE_MANAGE;
-                toolsRowAdapter.add(video);
-
-                if (selectedRowNum == allRowNum) {
-                    if (allObjectAdapter == null)
-                        selectedItemNum = -1;
-                    else
-                        selectedItemNum = allObjectAdapter.indexOf(selectedItemNum);
-                }
+                data.moveToNext();
+            }
+            // Finish off prior row
+            if (rowObjectAdapter != null) {
+                // Create header for this category.
+                header = new MyHeaderItem(currentCategory,
+                        currentRowType,mBaseName);
+                row = new ListRow(header, rowObjectAdapter);
+                rows.add(row);
+            }
 
-                if (selectedRowNum == recentsRowNum) {
-                    if (recentsObjectAdapter == null)
-                        selectedItemNum = -1;
-                    else
-                        selectedItemNum = recentsObjectAdapter.indexOf(selectedItemNum);
-                }
+            // Remove recents if empty
+            if (recentsObjectAdapter != null && recentsObjectAdapter.size() == 0) {
+                rows.remove(recentsRowNum);
+                if (selectedRowNum > 0)
+                    selectedRowNum --;
+            }
 
-                if (selectedRowNum != -1) {
-                    SelectionSetter setter = new SelectionSetter(selectedRowNum, selectedItemNum);
+            // Create a row for tools.
+            MyHeaderItem gridHeader = new MyHeaderItem(res.getString(R.string.row_header_tools),
+                    TYPE_TOOLS,mBaseName);
+            CardPresenter presenter = new CardPresenter();
+            ArrayObjectAdapter toolsRowAdapter = new ArrayObjectAdapter(presenter);
+            row = new ListRow(gridHeader, toolsRowAdapter);
+            rows.add(row);
+
+            Video video = new Video.VideoBuilder()
+                    .id(-1).title(res.getString(R.string.button_settings))
+                    .subtitle("")
+                    .bgImageUrl("android.resource://org.mythtv.leanfront/" + R.drawable.background)
+                    .progflags("0")
+                    .build();
+            video.type = TYPE_SETTINGS;
+            toolsRowAdapter.add(video);
+
+            video = new Video.VideoBuilder()
+                    .id(-1).title(res.getString(R.string.button_refresh_lists))
+                    .subtitle("")
+                    .bgImageUrl("android.resource://org.mythtv.leanfront/" + R.drawable.background)
+                    .progflags("0")
+                    .build();
+            video.type = TYPE_REFRESH;
+            toolsRowAdapter.add(video);
+
+            video = new Video.VideoBuilder()
+                    .id(-1).title(res.getString(R.string.button_backend_status))
+                    .subtitle("")
+                    .bgImageUrl("android.resource://org.mythtv.leanfront/" + R.drawable.background)
+                    .progflags("0")
+                    .build();
+            video.type = TYPE_INFO;
+            toolsRowAdapter.add(video);
+
+            video = new Video.VideoBuilder()
+                    .id(-1).title(res.getString(R.string.button_manage_recordings))
+                    .subtitle("")
+                    .bgImageUrl("android.resource://org.mythtv.leanfront/" + R.drawable.background)
+                    .progflags("0")
+                    .build();
+            video.type = TYPE_MANAGE;
+            toolsRowAdapter.add(video);
+
+            if (selectedRowNum == allRowNum) {
+                if (allObjectAdapter == null)
+                    selectedItemNum = -1;
+                else
+                    selectedItemNum = allObjectAdapter.indexOf(selectedItemNum);
+            }
 
-                    Handler handler = new Handler(Looper.getMainLooper());
-                    handler.postDelayed(setter, 100);
-                }
+            if (selectedRowNum == recentsRowNum) {
+                if (recentsObjectAdapter == null)
+                    selectedItemNum = -1;
+                else
+                    selectedItemNum = recentsObjectAdapter.indexOf(selectedItemNum);
             }
-            setProgressBar(false);
+
+            return new RowModel(rows, selectedRowNum, selectedItemNum);
         }
     }
 
-
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
         int loaderId = loader.getId();
-        if (loaderId == CATEGORY_LOADER)
+        if (loaderId == CATEGORY_LOADER) {
             mCategoryRowAdapter.clear();
+        }
     }
 
     public int getType() {
@@ -1369,6 +1519,7 @@ public class MainFragment extends BrowseSupportFragment
                     mSelectedRowType = -1;
                     mSelectedRowName = null;
                     setProgressBar(true);
+                    BackendResponseCache.clear();
                     int recType = -1;
                     String recGroup = null;
                     if (mType == TYPE_RECGROUP) {
@@ -1691,6 +1842,8 @@ public class MainFragment extends BrowseSupportFragment
                             MainActivity.getContext().getMainFragment().startFetch(-1, null, null);
                         }
                     });
+                    // Refresh the local copy of the program guide
+                    GuideSync.start(activity, true);
                 }
             } finally {
                 scheduledTaskRunning = false;
@@ -100,6 +100,12 @@ public class RecRulesFragment  extends GridFragment implements AsyncBackendCall.
         mDoingUpdate = false;
     }
 
+    @Override
+    public void onDestroy() {
+        AsyncBackendCall.cancelAll(this);
+        super.onDestroy();
+    }
+
     @Override
     public void onPostExecute(AsyncBackendCall taskRunner) {
         int [] tasks = taskRunner.getTasks();
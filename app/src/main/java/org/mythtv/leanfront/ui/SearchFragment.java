@@ -193,6 +193,12 @@ public class SearchFragment extends SearchSupportFragment
         mVideoCursorAdapter.changeCursor(null);
     }
 
+    @Override
+    public void onDestroy() {
+        AsyncBackendCall.cancelAll(this);
+        super.onDestroy();
+    }
+
     @Override
     public void onPostExecute(AsyncBackendCall taskRunner) {
         int [] tasks = taskRunner.getTasks();
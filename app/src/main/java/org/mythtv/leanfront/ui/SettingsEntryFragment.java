@@ -29,13 +29,16 @@ import android.text.InputType;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.leanback.app.GuidedStepSupportFragment;
 import androidx.leanback.widget.GuidanceStylist;
 import androidx.leanback.widget.GuidedAction;
 
+import org.mythtv.leanfront.BuildConfig;
 import org.mythtv.leanfront.R;
+import org.mythtv.leanfront.data.VideoDbBenchmark;
 import org.mythtv.leanfront.model.Settings;
 
 import java.util.ArrayList;
@@ -77,6 +80,18 @@ public class SettingsEntryFragment extends GuidedStepSupportFragment {
     private static final int ID_TWEAK_SEARCH_PKTS = 34;
     private static final int ID_LIVETV_ROWSIZE = 35;
     private static final int ID_VIDEO_PARENTAL = 36;
+    private static final int ID_TWEAK_HTTP_CONNECT_TIMEOUT = 37;
+    private static final int ID_TWEAK_HTTP_READ_TIMEOUT = 38;
+    private static final int ID_TWEAK_HTTP_POOL_SIZE = 39;
+    private static final int ID_TWEAK_READAHEAD_SIZE = 40;
+    private static final int ID_TWEAK_READAHEAD_LOW = 41;
+    private static final int ID_TWEAK_READAHEAD_HIGH = 42;
+    private static final int ID_TWEAK_PLAYBACK_CACHE_SIZE = 43;
+    private static final int ID_SKIP_BREAKS = 44;
+    private static final int ID_STARTUP_TRACE = 45;
+    private static final int ID_TWEAK_PARALLEL_CONNECTIONS = 46;
+    private static final int ID_TWEAK_PARALLEL_CHUNK = 47;
+    private static final int ID_DB_BENCHMARK = 48;
 
     private static final String KEY_EXPAND = "EXPAND";
 
@@ -157,6 +172,14 @@ public class SettingsEntryFragment extends GuidedStepSupportFragment {
                 .descriptionEditable(true)
                 .descriptionEditInputType(InputType.TYPE_CLASS_NUMBER)
                 .build());
+        str = Settings.getString("pref_skip_breaks");
+        subActions.add(new GuidedAction.Builder(getActivity())
+                .id(ID_SKIP_BREAKS)
+                .title(R.string.pref_title_skip_breaks)
+                .description(R.string.pref_desc_skip_breaks)
+                .checked("true".equals(str))
+                .checkSetId(GuidedAction.CHECKBOX_CHECK_SET_ID)
+                .build());
         str = Settings.getString("pref_arrow_jump");
         subActions.add(new GuidedAction.Builder(getActivity())
                 .id(ID_ARROW_JUMP)
@@ -362,6 +385,84 @@ public class SettingsEntryFragment extends GuidedStepSupportFragment {
                 .descriptionEditable(true)
                 .descriptionEditInputType(InputType.TYPE_CLASS_NUMBER)
                 .build());
+        subActions.add(new GuidedAction.Builder(getActivity())
+                .id(ID_TWEAK_HTTP_CONNECT_TIMEOUT)
+                .title(R.string.pref_tweak_http_connect_timeout)
+                .description(Settings.getString("pref_tweak_http_connect_timeout"))
+                .descriptionEditable(true)
+                .descriptionEditInputType(InputType.TYPE_CLASS_NUMBER)
+                .build());
+        subActions.add(new GuidedAction.Builder(getActivity())
+                .id(ID_TWEAK_HTTP_READ_TIMEOUT)
+                .title(R.string.pref_tweak_http_read_timeout)
+                .description(Settings.getString("pref_tweak_http_read_timeout"))
+                .descriptionEditable(true)
+                .descriptionEditInputType(InputType.TYPE_CLASS_NUMBER)
+                .build());
+        subActions.add(new GuidedAction.Builder(getActivity())
+                .id(ID_TWEAK_HTTP_POOL_SIZE)
+                .title(R.string.pref_tweak_http_pool_size)
+                .description(Settings.getString("pref_tweak_http_pool_size"))
+                .descriptionEditable(true)
+                .descriptionEditInputType(InputType.TYPE_CLASS_NUMBER)
+                .build());
+        subActions.add(new GuidedAction.Builder(getActivity())
+                .id(ID_TWEAK_READAHEAD_SIZE)
+                .title(R.string.pref_tweak_readahead_size)
+                .description(Settings.getString("pref_tweak_readahead_size"))
+                .descriptionEditable(true)
+                .descriptionEditInputType(InputType.TYPE_CLASS_NUMBER)
+                .build());
+        subActions.add(new GuidedAction.Builder(getActivity())
+                .id(ID_TWEAK_READAHEAD_LOW)
+                .title(R.string.pref_tweak_readahead_low)
+                .description(Settings.getString("pref_tweak_readahead_low"))
+                .descriptionEditable(true)
+                .descriptionEditInputType(InputType.TYPE_CLASS_NUMBER)
+                .build());
+        subActions.add(new GuidedAction.Builder(getActivity())
+                .id(ID_TWEAK_READAHEAD_HIGH)
+                .title(R.string.pref_tweak_readahead_high)
+                .description(Settings.getString("pref_tweak_readahead_high"))
+                .descriptionEditable(true)
+                .descriptionEditInputType(InputType.TYPE_CLASS_NUMBER)
+                .build());
+        subActions.add(new GuidedAction.Builder(getActivity())
+                .id(ID_TWEAK_PLAYBACK_CACHE_SIZE)
+                .title(R.string.pref_tweak_playback_cache_size)
+                .description(Settings.getString("pref_tweak_playback_cache_size"))
+                .descriptionEditable(true)
+                .descriptionEditInputType(InputType.TYPE_CLASS_NUMBER)
+                .build());
+        subActions.add(new GuidedAction.Builder(getActivity())
+                .id(ID_TWEAK_PARALLEL_CONNECTIONS)
+                .title(R.string.pref_tweak_parallel_connections)
+                .description(Settings.getString("pref_tweak_parallel_connections"))
+                .descriptionEditable(true)
+                .descriptionEditInputType(InputType.TYPE_CLASS_NUMBER)
+                .build());
+        subActions.add(new GuidedAction.Builder(getActivity())
+                .id(ID_TWEAK_PARALLEL_CHUNK)
+                .title(R.string.pref_tweak_parallel_chunk)
+                .description(Settings.getString("pref_tweak_parallel_chunk"))
+                .descriptionEditable(true)
+                .descriptionEditInputType(InputType.TYPE_CLASS_NUMBER)
+                .build());
+        str = Settings.getString("pref_startup_trace");
+        subActions.add(new GuidedAction.Builder(getActivity())
+                .id(ID_STARTUP_TRACE)
+                .title(R.string.pref_title_startup_trace)
+                .description(R.string.pref_desc_startup_trace)
+                .checked("true".equals(str))
+                .checkSetId(GuidedAction.CHECKBOX_CHECK_SET_ID)
+                .build());
+        // Development only
+        if (BuildConfig.DEBUG)
+            subActions.add(new GuidedAction.Builder(getActivity())
+                    .id(ID_DB_BENCHMARK)
+                    .title(R.string.pref_title_db_benchmark)
+                    .description(R.string.pref_desc_db_benchmark)
+                    .build());
         actions.add(mAudioAction = new GuidedAction.Builder(getActivity())
                 .id(ID_TWEAKS)
                 .title(R.string.pref_tweaks_title)
@@ -443,6 +544,42 @@ public class SettingsEntryFragment extends GuidedStepSupportFragment {
                 mEditor.putString("pref_video_parental",
                         validateNumber(action, 1, 4, 4));
                 break;
+            case ID_TWEAK_HTTP_CONNECT_TIMEOUT:
+                mEditor.putString("pref_tweak_http_connect_timeout",
+                        validateNumber(action, 1, 60, 5));
+                break;
+            case ID_TWEAK_HTTP_READ_TIMEOUT:
+                mEditor.putString("pref_tweak_http_read_timeout",
+                        validateNumber(action, 10, 3600, 300));
+                break;
+            case ID_TWEAK_HTTP_POOL_SIZE:
+                mEditor.putString("pref_tweak_http_pool_size",
+                        validateNumber(action, 1, 20, 5));
+                break;
+            case ID_TWEAK_READAHEAD_SIZE:
+                mEditor.putString("pref_tweak_readahead_size",
+                        validateNumber(action, 0, 64, 16));
+                break;
+            case ID_TWEAK_READAHEAD_LOW:
+                mEditor.putString("pref_tweak_readahead_low",
+                        validateNumber(action, 0, 90, 50));
+                break;
+            case ID_TWEAK_READAHEAD_HIGH:
+                mEditor.putString("pref_tweak_readahead_high",
+                        validateNumber(action, 10, 100, 95));
+                break;
+            case ID_TWEAK_PLAYBACK_CACHE_SIZE:
+                mEditor.putString("pref_tweak_playback_cache_size",
+                        validateNumber(action, 0, 4096, 256));
+                break;
+            case ID_TWEAK_PARALLEL_CONNECTIONS:
+                mEditor.putString("pref_tweak_parallel_connections",
+                        validateNumber(action, 1, 8, 1));
+                break;
+            case ID_TWEAK_PARALLEL_CHUNK:
+                mEditor.putString("pref_tweak_parallel_chunk",
+                        validateNumber(action, 256, 8192, 1024));
+                break;
             default:
                 return GuidedAction.ACTION_ID_CURRENT;
         }
@@ -507,6 +644,33 @@ public class SettingsEntryFragment extends GuidedStepSupportFragment {
             case ID_VIDEO_PARENTAL:
                 action.setDescription(Settings.getString("pref_video_parental"));
                 break;
+            case ID_TWEAK_HTTP_CONNECT_TIMEOUT:
+                action.setDescription(Settings.getString("pref_tweak_http_connect_timeout"));
+                break;
+            case ID_TWEAK_HTTP_READ_TIMEOUT:
+                action.setDescription(Settings.getString("pref_tweak_http_read_timeout"));
+                break;
+            case ID_TWEAK_HTTP_POOL_SIZE:
+                action.setDescription(Settings.getString("pref_tweak_http_pool_size"));
+                break;
+            case ID_TWEAK_READAHEAD_SIZE:
+                action.setDescription(Settings.getString("pref_tweak_readahead_size"));
+                break;
+            case ID_TWEAK_READAHEAD_LOW:
+                action.setDescription(Settings.getString("pref_tweak_readahead_low"));
+                break;
+            case ID_TWEAK_READAHEAD_HIGH:
+                action.setDescription(Settings.getString("pref_tweak_readahead_high"));
+                break;
+            case ID_TWEAK_PLAYBACK_CACHE_SIZE:
+                action.setDescription(Settings.getString("pref_tweak_playback_cache_size"));
+                break;
+            case ID_TWEAK_PARALLEL_CONNECTIONS:
+                action.setDescription(Settings.getString("pref_tweak_parallel_connections"));
+                break;
+            case ID_TWEAK_PARALLEL_CHUNK:
+                action.setDescription(Settings.getString("pref_tweak_parallel_chunk"));
+                break;
         }
     }
 
@@ -527,6 +691,23 @@ public class SettingsEntryFragment extends GuidedStepSupportFragment {
                 else
                     mEditor.putString("pref_framerate_match", "false");
                 break;
+            case ID_SKIP_BREAKS:
+                if (action.isChecked())
+                    mEditor.putString("pref_skip_breaks", "true");
+                else
+                    mEditor.putString("pref_skip_breaks", "false");
+                break;
+            case ID_STARTUP_TRACE:
+                if (action.isChecked())
+                    mEditor.putString("pref_startup_trace", "true");
+                else
+                    mEditor.putString("pref_startup_trace", "false");
+                break;
+            case ID_DB_BENCHMARK:
+                VideoDbBenchmark.start(getActivity());
+                Toast.makeText(getActivity(), R.string.msg_db_benchmark_started,
+                        Toast.LENGTH_LONG).show();
+                return false;
             case ID_ARROW_JUMP:
                 if (action.isChecked())
                     mEditor.putString("pref_arrow_jump", "true");
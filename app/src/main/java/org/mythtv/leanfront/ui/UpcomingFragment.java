@@ -101,6 +101,12 @@ public class UpcomingFragment extends GridFragment implements AsyncBackendCall.O
         mDoingUpdate = false;
     }
 
+    @Override
+    public void onDestroy() {
+        AsyncBackendCall.cancelAll(this);
+        super.onDestroy();
+    }
+
     @Override
     public void onPostExecute(AsyncBackendCall taskRunner) {
         int [] tasks = taskRunner.getTasks();
@@ -44,6 +44,8 @@ public class VideoDetailsActivity extends LeanbackActivity {
     public static final String BOOKMARK = "bookmark";
     public static final String POSBOOKMARK = "posbookmark";
     public static final String RECORDID = "recordid";
+    // SystemClock.elapsedRealtime when play was selected, for the startup trace
+    public static final String START_TIME = "starttime";
 
     private VideoDetailsFragment mFragment;
 
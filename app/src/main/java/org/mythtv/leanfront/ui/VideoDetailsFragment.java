@@ -38,6 +38,7 @@ import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.SystemClock;
 
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
@@ -85,6 +86,8 @@ import com.bumptech.glide.request.transition.Transition;
 
 import org.mythtv.leanfront.R;
 import org.mythtv.leanfront.data.AsyncBackendCall;
+import org.mythtv.leanfront.data.RecordedSeekTable;
+import org.mythtv.leanfront.data.StreamProperties;
 import org.mythtv.leanfront.data.VideoContract;
 import org.mythtv.leanfront.data.XmlNode;
 import org.mythtv.leanfront.model.Settings;
@@ -179,6 +182,13 @@ public class VideoDetailsFragment extends DetailsSupportFragment
             if (mSelectedVideo.rectype != VideoContract.VideoEntry.RECTYPE_CHANNEL)
                 new AsyncBackendCall(mSelectedVideo, 0, false,
                         this).execute(Video.ACTION_REFRESH);
+            // Fetch the seek table and stream properties now so they are
+            // ready when playback starts
+            if (mSelectedVideo.rectype == VideoContract.VideoEntry.RECTYPE_RECORDING
+                    && mSelectedVideo.recordedid != null)
+                RecordedSeekTable.fetch(mSelectedVideo);
+            if (mSelectedVideo.rectype != VideoContract.VideoEntry.RECTYPE_CHANNEL)
+                StreamProperties.fetch(getContext(), mSelectedVideo.videoUrl);
 
             // When a Related Video item is clicked.
             setOnItemViewClickedListener(itemViewClickedListener);
@@ -320,6 +330,7 @@ public class VideoDetailsFragment extends DetailsSupportFragment
                 intent.putExtra(VideoDetailsActivity.VIDEO, mSelectedVideo);
                 intent.putExtra(VideoDetailsActivity.BOOKMARK, bookmark);
                 intent.putExtra(VideoDetailsActivity.POSBOOKMARK, posbookmark);
+                intent.putExtra(VideoDetailsActivity.START_TIME, SystemClock.elapsedRealtime());
                 startActivityForResult(intent, Video.ACTION_PLAY);
                 break;
             case Video.ACTION_LIVETV:
@@ -520,8 +531,7 @@ public class VideoDetailsFragment extends DetailsSupportFragment
                     dirname = dirname + "%";
                     String subdirname = dirname + "%/%";
 
-                    orderby = MainFragment.makeTitleSort
-                            (VideoContract.VideoEntry.COLUMN_FILENAME, '/');
+                    orderby = new StringBuilder(VideoContract.VideoEntry.COLUMN_FILENAME_SORT);
                     StringBuilder where = new StringBuilder();
                     where   .append(VideoContract.VideoEntry.COLUMN_RECTYPE)
                             .append(" = ").append(VideoContract.VideoEntry.RECTYPE_VIDEO)
@@ -583,7 +593,7 @@ public class VideoDetailsFragment extends DetailsSupportFragment
                                 .append(VideoContract.VideoEntry.COLUMN_PROGFLAGS)
                                 .append(" & ").append(Video.FL_WATCHED)
                                 .append(" == 0 ");
-                    orderby = MainFragment.makeTitleSort(VideoContract.VideoEntry.COLUMN_TITLE, '^')
+                    orderby = new StringBuilder(VideoContract.VideoEntry.COLUMN_TITLE_SORT)
                         .append(", ");
                     if ("airdate".equals(seq)) {
                         orderby.append(VideoContract.VideoEntry.COLUMN_AIRDATE).append(" ")
@@ -832,6 +842,12 @@ public class VideoDetailsFragment extends DetailsSupportFragment
         }
     }
 
+    @Override
+    public void onDestroy() {
+        AsyncBackendCall.cancelAll(this);
+        super.onDestroy();
+    }
+
     @Override
     public void onPostExecute(AsyncBackendCall taskRunner) {
         Context context = getContext();
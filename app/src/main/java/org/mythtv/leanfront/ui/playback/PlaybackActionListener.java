@@ -44,6 +44,7 @@ import com.google.android.exoplayer2.util.MimeTypes;
 
 import org.mythtv.leanfront.R;
 import org.mythtv.leanfront.model.Playlist;
+import org.mythtv.leanfront.model.Settings;
 import org.mythtv.leanfront.model.Video;
 import org.mythtv.leanfront.player.VideoPlayerGlue;
 
@@ -112,6 +113,9 @@ class PlaybackActionListener implements VideoPlayerGlue.OnActionClickedListener
                 actions.add(action);
             }
         }
+        boolean showStartupTrace = "true".equals(Settings.getString("pref_startup_trace"));
+        if (showStartupTrace)
+            prompts.add(playbackFragment.getString(R.string.title_startup_trace));
         final ArrayList<Action> finalActions = actions; // needed because used in inner class
         // Theme_AppCompat_Light_Dialog_Alert or Theme_AppCompat_Dialog_Alert
         AlertDialog.Builder builder = new AlertDialog.Builder(playbackFragment.getContext(),
@@ -129,6 +133,8 @@ class PlaybackActionListener implements VideoPlayerGlue.OnActionClickedListener
                                 if (which < mActions.size()) {
                                     mParent.onActionClicked(mActions.get(which));
                                 }
+                                else if (showStartupTrace)
+                                    playbackFragment.showStartupTrace();
                             }
                         });
         mDialog = builder.create();
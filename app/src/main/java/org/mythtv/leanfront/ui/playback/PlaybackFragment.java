@@ -25,6 +25,7 @@
 package org.mythtv.leanfront.ui.playback;
 
 import android.annotation.TargetApi;
+import android.app.Activity;
 import android.app.UiModeManager;
 import android.content.Context;
 import android.content.DialogInterface;
@@ -35,6 +36,7 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Display;
 import android.view.View;
@@ -65,12 +67,22 @@ import androidx.loader.content.Loader;
 
 import org.mythtv.leanfront.R;
 import org.mythtv.leanfront.data.AsyncBackendCall;
+import org.mythtv.leanfront.data.BackendHttpClient;
+import org.mythtv.leanfront.data.BackendScheduler;
 import org.mythtv.leanfront.data.MythHttpDataSource;
+import org.mythtv.leanfront.data.PlaybackCache;
+import org.mythtv.leanfront.data.PlaybackPrefetch;
+import org.mythtv.leanfront.data.ReadAheadBuffer;
+import org.mythtv.leanfront.data.RecordedSeekTable;
+import org.mythtv.leanfront.data.RecordedSkipList;
+import org.mythtv.leanfront.data.StartupTrace;
+import org.mythtv.leanfront.data.StreamProperties;
 import org.mythtv.leanfront.data.VideoContract;
 import org.mythtv.leanfront.model.Playlist;
 import org.mythtv.leanfront.model.Settings;
 import org.mythtv.leanfront.model.Video;
 import org.mythtv.leanfront.model.VideoCursorMapper;
+import org.mythtv.leanfront.player.FrameRateEstimator;
 import org.mythtv.leanfront.player.MyExtractorsFactory;
 import org.mythtv.leanfront.player.VideoPlayerGlue;
 import org.mythtv.leanfront.presenter.CardPresenter;
@@ -98,10 +110,15 @@ import com.google.android.exoplayer2.trackselection.MappingTrackSelector;
 import com.google.android.exoplayer2.ui.SubtitleView;
 import com.google.android.exoplayer2.util.MimeTypes;
 import com.google.android.exoplayer2.util.Util;
+import com.google.android.exoplayer2.video.VideoListener;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -139,8 +156,9 @@ public class PlaybackFragment extends VideoSupportFragment
     int mAudioSelection = -2;
     private long mFileLength = -1;
     private MythHttpDataSource.Factory mDsFactory;
+    private Future<RecordedSeekTable> mSeekTable;
     ProgressiveMediaSource mMediaSource;
-    private MythHttpDataSource mDataSource;
+    private PlaybackCache.Factory mCacheFactory;
     // Bounded indicates we have a fixed file length
     boolean mIsBounded = true;
     private long mOffsetBytes = 0;
@@ -164,6 +182,26 @@ public class PlaybackFragment extends VideoSupportFragment
     private boolean possibleEmptyTrack;
     private boolean playWhenPrepared;
     private ScheduledFuture<?> audioFixTask;
+    private ScheduledFuture<?> frameRateTask;
+    // Next playlist video being got ready
+    private PlaybackPrefetch mPrefetch;
+    private ScheduledFuture<?> prefetchTask;
+    // Start getting the next video ready this long before the end
+    private static final long PREFETCH_TIME = 60000;
+    // Refresh rate was set up while buffering
+    private boolean refreshRateChecked;
+    private long refreshRateSwitchTime;
+    // Stream properties from the last play of this video
+    private StreamProperties mStreamProps;
+    private boolean mStreamPropsSaved;
+    private boolean mStreamPropsFailed;
+    // Incremented by each play, so that a play waiting for stream
+    // properties is dropped if another has been started
+    private int mPlayGeneration;
+    private boolean mTraceStartup = "true".equals(Settings.getString("pref_startup_trace"));
+    private volatile StartupTrace mStartupTrace;
+    // When the next video to be played was selected, 0 if it has started
+    private long mStartupClickTime;
     private boolean isTV;
 
     @Override
@@ -177,6 +215,8 @@ public class PlaybackFragment extends VideoSupportFragment
         mBookmark = getActivity().getIntent().getLongExtra(VideoDetailsActivity.BOOKMARK, 0);
         posBookmark = getActivity().getIntent().getLongExtra(VideoDetailsActivity.POSBOOKMARK, -1);
         mRecordid = getActivity().getIntent().getLongExtra(VideoDetailsActivity.RECORDID, -1);
+        mStartupClickTime = getActivity().getIntent().getLongExtra(VideoDetailsActivity.START_TIME,
+                SystemClock.elapsedRealtime());
         mPlaylist = new Playlist();
         mWatched = (Integer.parseInt(mVideo.progflags, 10) & Video.FL_WATCHED) != 0;
 
@@ -246,8 +286,10 @@ public class PlaybackFragment extends VideoSupportFragment
         }
         if (mRecordid >= 0) {
             // Terminate Live TV
-            new AsyncBackendCall(mVideo, mRecordid, false,
-                    null).execute(
+            AsyncBackendCall call = new AsyncBackendCall(mVideo, mRecordid, false,
+                    null);
+            call.setLane(BackendScheduler.LANE_PLAYBACK);
+            call.execute(
                     Video.ACTION_STOP_RECORDING,
                     Video.ACTION_REMOVE_RECORD_RULE);
         }
@@ -276,10 +318,15 @@ public class PlaybackFragment extends VideoSupportFragment
             action2 = Video.ACTION_SET_WATCHED;
         }
 
-        posBookmark = mBookmark * (long)(frameRate * 100.0f) / 100000;
+        RecordedSeekTable seekTable = RecordedSeekTable.getDone(mSeekTable);
+        if (seekTable != null && !seekTable.isEmpty())
+            posBookmark = seekTable.msToFrame(mBookmark);
+        else
+            posBookmark = mBookmark * (long)(frameRate * 100.0f) / 100000;
         AsyncBackendCall call =  new AsyncBackendCall(mVideo, mBookmark, mWatched,
                 null);
         call.setPosBookmark(posBookmark);
+        call.setLane(BackendScheduler.LANE_PLAYBACK);
         posBookmark = -1;
         call.execute(Video.ACTION_SET_BOOKMARK, action2);
         try {
@@ -350,6 +397,7 @@ public class PlaybackFragment extends VideoSupportFragment
 
         mPlayerEventListener = new PlayerEventListener();
         mPlayer.addListener(mPlayerEventListener);
+        mPlayer.addVideoListener(mPlayerEventListener);
 
         mPlayerAdapter = new LeanbackPlayerAdapter(getActivity(), mPlayer, UPDATE_DELAY);
         if (mPlaybackActionListener == null)
@@ -359,6 +407,7 @@ public class PlaybackFragment extends VideoSupportFragment
         mPlayerGlue.setHost(new VideoSupportFragmentGlueHost(this));
         hideControlsOverlay(false);
         play(mVideo);
+        startPrefetchCheck();
         ArrayObjectAdapter mRowsAdapter = initializeRelatedVideosRow();
         setAdapter(mRowsAdapter);
         mPlayerGlue.setupSelectedListener();
@@ -425,6 +474,7 @@ public class PlaybackFragment extends VideoSupportFragment
                             if (!playWhenPrepared) {
                                 mPlayerGlue.playWhenPrepared();
                                 playWhenPrepared = true;
+                                markStartup(StartupTrace.PHASE_PLAY_REQUESTED);
                                 // disable and enable audio to fix sync errors
                                 audioFix(5000, true);
                             }
@@ -452,7 +502,11 @@ public class PlaybackFragment extends VideoSupportFragment
     }
 
     private void releasePlayer() {
+        stopFrameRateCheck();
+        stopPrefetchCheck();
+        finishStartupTrace(true);
         if (mPlayer != null) {
+            Log.i(TAG, CLASS + " Playback cache " + PlaybackCache.getStats());
             mPlayer.release();
             mPlayer = null;
             mTrackSelector = null;
@@ -465,12 +519,39 @@ public class PlaybackFragment extends VideoSupportFragment
 
     private void play(Video video) {
 
+        if (video != mVideo)
+            mStreamPropsFailed = false;
         mVideo = video;
+        int generation = ++mPlayGeneration;
+        if (mStreamPropsFailed)
+            mStreamProps = null;
+        else {
+            Future<StreamProperties> props = StreamProperties.fetch(getContext(), video.videoUrl);
+            if (!props.isDone()) {
+                waitForStreamProps(video, generation);
+                return;
+            }
+            mStreamProps = StreamProperties.getDone(props);
+        }
+        // Trace the start of each video, but not restarts within it
+        if (mTraceStartup && mStartupClickTime > 0) {
+            mStartupTrace = new StartupTrace(mStartupClickTime, video.videoUrl,
+                    mBookmark > 0 || posBookmark >= 0);
+            mStartupTrace.mark(StartupTrace.PHASE_PLAY);
+            mStartupClickTime = 0;
+        }
         if (mIsBounded) {
             mOffsetBytes = 0;
             mPlayerGlue.setOffsetMillis(0);
         }
         Log.i(TAG, CLASS + " Playing offset mSec:" + mPlayerGlue.getOffsetMillis());
+        long knownLength = -1;
+        if (mPrefetch != null) {
+            if (mPrefetch.getVideo() == video)
+                knownLength = mPrefetch.getFileLength();
+            mPrefetch.cancel();
+            mPrefetch = null;
+        }
 
         mPlayerGlue.setTitle(video.title);
 
@@ -488,7 +569,7 @@ public class PlaybackFragment extends VideoSupportFragment
         }
         subtitle.append(video.subtitle);
         mPlayerGlue.setSubtitle(subtitle);
-        prepareMediaForPlaying(Uri.parse(video.videoUrl));
+        prepareMediaForPlaying(Uri.parse(video.videoUrl), knownLength);
 
         // This is needed to fix jkjsdevelop bad audio where audio track starts late
         mPlayerGlue.seekTo(100);
@@ -498,9 +579,303 @@ public class PlaybackFragment extends VideoSupportFragment
         // This makes future seeks faster.
         mPlayer.setSeekParameters(SeekParameters.CLOSEST_SYNC);
         playWhenPrepared = false;
+        refreshRateChecked = false;
+        refreshRateSwitchTime = 0;
+        startFrameRateCheck();
+        // Frame rate known from a previous play
+        if (mFrameMatch && frameRate > 1.0f) {
+            refreshRateChecked = true;
+            setupRefreshRate(true);
+        }
+    }
+
+    // Stream properties are read from the database in the background,
+    // normally while the details page is shown. If they are not ready the
+    // play is started again when they are.
+    private void waitForStreamProps(Video video, int generation) {
+        StreamProperties.whenLoaded(() -> {
+            Activity activity = getActivity();
+            if (activity != null)
+                activity.runOnUiThread(() -> {
+                    if (generation == mPlayGeneration && video == mVideo && mPlayer != null)
+                        play(video);
+                });
+        });
+    }
+
+    // Check the frame rate while the buffer fills, so that the display
+    // mode switch can overlap the buffering.
+    private void startFrameRateCheck() {
+        stopFrameRateCheck();
+        ScheduledExecutorService executor = MainFragment.getExecutor();
+        if (!mFrameMatch || executor == null)
+            return;
+        frameRateTask = executor.scheduleWithFixedDelay(() -> {
+            Activity activity = getActivity();
+            if (activity != null)
+                activity.runOnUiThread(this::checkFrameRate);
+        }, 200, 200, TimeUnit.MILLISECONDS);
+    }
+
+    // While a playlist is playing, get the next video ready near the end
+    // of the current one.
+    private void startPrefetchCheck() {
+        stopPrefetchCheck();
+        ScheduledExecutorService executor = MainFragment.getExecutor();
+        if (executor == null || mRecordid >= 0)
+            return;
+        prefetchTask = executor.scheduleWithFixedDelay(() -> {
+            Activity activity = getActivity();
+            if (activity != null)
+                activity.runOnUiThread(this::checkPrefetch);
+        }, 10, 10, TimeUnit.SECONDS);
+    }
+
+    private void stopPrefetchCheck() {
+        if (prefetchTask != null) {
+            prefetchTask.cancel(false);
+            prefetchTask = null;
+        }
+        if (mPrefetch != null) {
+            mPrefetch.cancel();
+            mPrefetch = null;
+        }
+    }
+
+    private void checkPrefetch() {
+        if (mPlayerGlue == null || mPrefetch != null || !mIsBounded
+                || !mPlayerGlue.isPlaylistPlay() || !mPlayerGlue.isPlaying())
+            return;
+        long duration = mPlayerGlue.myGetDuration();
+        if (duration <= 0 || duration - mPlayerGlue.getCurrentPosition() > PREFETCH_TIME)
+            return;
+        Video next = mPlaylist.peekNext();
+        Context context = getContext();
+        if (next == null || context == null)
+            return;
+        Log.i(TAG, CLASS + " Getting next video ready " + next.title + " " + next.videoUrl);
+        mPrefetch = PlaybackPrefetch.start(context, next,
+                Util.getUserAgent(context, "VideoPlayerGlue"));
+    }
+
+    private void stopFrameRateCheck() {
+        if (frameRateTask != null) {
+            frameRateTask.cancel(false);
+            frameRateTask = null;
+        }
+    }
+
+    private void checkFrameRate() {
+        if (mPlayer == null || playWhenPrepared || frameRate >= 0.0f) {
+            stopFrameRateCheck();
+            return;
+        }
+        FrameRateEstimator estimator = getFrameRateEstimator();
+        if (estimator == null || !estimator.isSettled())
+            return;
+        stopFrameRateCheck();
+        frameRate = estimator.getFrameRate();
+        Log.i(TAG, CLASS + " Frame rate " + frameRate + " found while buffering");
+        refreshRateChecked = true;
+        if (frameRate > 1.0f)
+            setupRefreshRate(true);
     }
 
-    private void setupRefreshRate() {
+    // Store what was found while preparing, for the next play
+    private void saveStreamProperties() {
+        if (mStreamPropsSaved)
+            return;
+        mStreamPropsSaved = true;
+        StreamProperties props = new StreamProperties();
+        props.container = MyExtractorsFactory.getContainerName(mMediaSource.getExtractor());
+        StringBuilder tracks = new StringBuilder();
+        for (SampleQueue sampleQueue : mMediaSource.getSampleQueues()) {
+            Format format = sampleQueue.getUpstreamFormat();
+            if (format == null)
+                continue;
+            if (tracks.length() > 0)
+                tracks.append(',');
+            tracks.append(format.sampleMimeType);
+        }
+        props.tracks = tracks.toString();
+        props.emptyTrack = possibleEmptyTrack;
+        props.frameRate = Math.max(frameRate, 0.0f);
+        long duration = mPlayer.getDuration();
+        if (mFileLength > 0 && duration > 0)
+            props.bitrate = mFileLength * 1000 / duration;
+        else if (mStreamProps != null)
+            props.bitrate = mStreamProps.bitrate;
+        if (props.container == null)
+            return;
+        Context context = getContext();
+        if (props.sameAs(mStreamProps)) {
+            // Unchanged, only note that they are still in use
+            if (context != null)
+                StreamProperties.touch(context, mVideo.videoUrl);
+            return;
+        }
+        ScheduledExecutorService executor = MainFragment.getExecutor();
+        if (context == null || executor == null)
+            return;
+        Context appContext = context.getApplicationContext();
+        String videoUrl = mVideo.videoUrl;
+        executor.execute(() -> props.save(appContext, videoUrl));
+    }
+
+    // Stream properties that failed to play may be out of date, so probe
+    // the stream on the retry.
+    private void discardStreamProperties() {
+        Log.i(TAG, CLASS + " Discarding stream properties after error");
+        mStreamProps = null;
+        mStreamPropsFailed = true;
+        Context context = getContext();
+        ScheduledExecutorService executor = MainFragment.getExecutor();
+        if (context == null || executor == null)
+            return;
+        Context appContext = context.getApplicationContext();
+        String videoUrl = mVideo.videoUrl;
+        executor.execute(() -> StreamProperties.delete(appContext, videoUrl));
+    }
+
+    // Called by the data source on the loading thread
+    public void markOpened() {
+        markStartup(StartupTrace.PHASE_OPEN);
+    }
+
+    private void markStartup(int phase) {
+        if (mStartupTrace != null)
+            mStartupTrace.mark(phase);
+    }
+
+    /**
+     * Save the startup trace once playback is running and the first frame
+     * has been shown.
+     *
+     * @param force true to save it even if startup has not completed,
+     *              for when the player is being released.
+     */
+    private void finishStartupTrace(boolean force) {
+        StartupTrace trace = mStartupTrace;
+        if (trace == null)
+            return;
+        if (!force) {
+            if (!trace.isReached(StartupTrace.PHASE_PLAYING))
+                return;
+            // Audio only files have no frame to wait for
+            if (!trace.isReached(StartupTrace.PHASE_FIRST_FRAME)
+                    && mPlayer != null && mPlayer.getVideoFormat() != null)
+                return;
+        }
+        mStartupTrace = null;
+        if (!trace.finish())
+            return;
+        Context context = getContext();
+        ScheduledExecutorService executor = MainFragment.getExecutor();
+        if (context == null || executor == null)
+            return;
+        Context appContext = context.getApplicationContext();
+        executor.execute(() -> trace.save(appContext));
+    }
+
+    /**
+     * Show the summary of recent startup times, with an option to export
+     * them to a file.
+     */
+    public void showStartupTrace() {
+        Context context = getContext();
+        ScheduledExecutorService executor = MainFragment.getExecutor();
+        if (context == null || executor == null)
+            return;
+        Context appContext = context.getApplicationContext();
+        MythHttpDataSource.Factory dsFactory = mDsFactory;
+        // The report is read from the database in the background
+        executor.execute(() -> {
+            StringBuilder report = new StringBuilder();
+            String startup = StartupTrace.getReport(appContext);
+            if (startup == null)
+                startup = appContext.getString(R.string.msg_startup_trace_empty);
+            report.append(startup);
+            appendPlaybackStats(appContext, dsFactory, report);
+            Activity activity = getActivity();
+            if (activity != null)
+                activity.runOnUiThread(() -> showStartupReport(report.toString()));
+        });
+    }
+
+    // Statistics for this session, shown after the startup times
+    private static void appendPlaybackStats(Context context, MythHttpDataSource.Factory dsFactory,
+                                            StringBuilder report) {
+        Map<String, BackendHttpClient.Metrics> metrics = new TreeMap<>(BackendHttpClient.getMetrics());
+        if (!metrics.isEmpty()) {
+            report.append("\n\n").append(context.getString(R.string.title_backend_metrics));
+            for (Map.Entry<String, BackendHttpClient.Metrics> entry : metrics.entrySet())
+                report.append('\n').append(entry.getKey()).append(' ').append(entry.getValue());
+        }
+        ReadAheadBuffer.Metrics readAhead = dsFactory == null ? null
+                : dsFactory.getReadAheadMetrics();
+        if (readAhead != null)
+            report.append("\n\n").append(context.getString(R.string.title_read_ahead_metrics))
+                    .append('\n').append(readAhead);
+        if (PlaybackCache.getCacheSize() > 0)
+            report.append("\n\n").append(context.getString(R.string.title_cache_metrics))
+                    .append('\n').append(PlaybackCache.getStats());
+    }
+
+    private void showStartupReport(String report) {
+        Context context = getContext();
+        if (context == null)
+            return;
+        AlertDialog.Builder builder = new AlertDialog.Builder(context,
+                R.style.Theme_AppCompat_Dialog_Alert);
+        builder.setTitle(R.string.title_startup_trace);
+        builder.setMessage(report);
+        builder.setPositiveButton(android.R.string.ok, null);
+        builder.setNeutralButton(R.string.button_startup_trace_export,
+                (dialog, which) -> exportStartupTrace());
+        builder.show();
+    }
+
+    private void exportStartupTrace() {
+        Context context = getContext();
+        ScheduledExecutorService executor = MainFragment.getExecutor();
+        if (context == null || executor == null)
+            return;
+        Context appContext = context.getApplicationContext();
+        executor.execute(() -> {
+            String msg;
+            try {
+                File file = StartupTrace.export(appContext);
+                msg = appContext.getString(R.string.msg_startup_trace_exported, file.getPath());
+            } catch (IOException e) {
+                Log.e(TAG, CLASS + " Unable to export startup trace", e);
+                msg = appContext.getString(R.string.msg_startup_trace_export_fail);
+            }
+            final String toastMsg = msg;
+            Activity activity = getActivity();
+            if (activity != null)
+                activity.runOnUiThread(() -> {
+                    if (mToast != null)
+                        mToast.cancel();
+                    mToast = Toast.makeText(activity, toastMsg, Toast.LENGTH_LONG);
+                    mToast.show();
+                });
+        });
+    }
+
+    private FrameRateEstimator getFrameRateEstimator() {
+        for (SampleQueue sampleQueue : mMediaSource.getSampleQueues()) {
+            Format format = sampleQueue.getUpstreamFormat();
+            if (format != null && MimeTypes.isVideo(format.sampleMimeType))
+                return sampleQueue.getFrameRateEstimator();
+        }
+        return null;
+    }
+
+    /**
+     * @param early true if called before the player is ready, to switch
+     *              the display mode without starting playback.
+     */
+    private void setupRefreshRate(boolean early) {
         // Setup video frame rate
         float ratio = 1.0f;
         float desiredRefreshRate = 1.0f;
@@ -584,8 +959,18 @@ public class PlaybackFragment extends VideoSupportFragment
                     WindowManager.LayoutParams params = window.getAttributes();
                     params.preferredDisplayModeId = displayMode;
                     window.setAttributes(params);
-                    // 3 seconds delay to allow mode switch
-                    playWait(3000, msg);
+                    if (early) {
+                        if (mToast != null)
+                            mToast.cancel();
+                        mToast = Toast.makeText(getActivity(),
+                                msg,
+                                Toast.LENGTH_LONG);
+                        mToast.show();
+                        refreshRateSwitchTime = System.currentTimeMillis();
+                    }
+                    else
+                        // 3 seconds delay to allow mode switch
+                        playWait(3000, msg);
                 }
                 else {
                     if (msg != null) {
@@ -596,9 +981,10 @@ public class PlaybackFragment extends VideoSupportFragment
                                 Toast.LENGTH_LONG);
                         mToast.show();
                     }
-                    if (!playWhenPrepared) {
+                    if (!early && !playWhenPrepared) {
                         mPlayerGlue.playWhenPrepared();
                         playWhenPrepared = true;
+                        markStartup(StartupTrace.PHASE_PLAY_REQUESTED);
                         // disable and enable audio to fix sync errors
                         audioFix(5000, true);
                     }
@@ -664,19 +1050,65 @@ public class PlaybackFragment extends VideoSupportFragment
         }
     }
 
-    private void prepareMediaForPlaying(Uri mediaSourceUri) {
+    /**
+     * @param knownLength file length if it has already been found, or -1
+     */
+    private void prepareMediaForPlaying(Uri mediaSourceUri, long knownLength) {
         mFileLength = -1;
         mIsPlayResumable = false;
-        getFileLength();
+        if (knownLength > 0) {
+            mFileLength = knownLength;
+            markStartup(StartupTrace.PHASE_FILE_LENGTH);
+        }
+        else
+            getFileLength();
         String userAgent = Util.getUserAgent(getActivity(), "VideoPlayerGlue");
         mDsFactory = new MythHttpDataSource.Factory(userAgent, this);
-        MyExtractorsFactory extFactory = new MyExtractorsFactory();
+        // Seek table for direct seeks in recordings, fetched while the
+        // player starts up.
+        if (mVideo.rectype == VideoContract.VideoEntry.RECTYPE_RECORDING
+                && mVideo.recordedid != null)
+            mSeekTable = RecordedSeekTable.fetch(mVideo);
+        else
+            mSeekTable = null;
+        MyExtractorsFactory extFactory = new MyExtractorsFactory(mSeekTable);
+        mStreamPropsSaved = false;
+        if (mStreamProps != null) {
+            Log.i(TAG, CLASS + " Using stream properties " + mStreamProps);
+            extFactory.setContainer(mStreamProps.container);
+            mDsFactory.setBitrate(mStreamProps.bitrate);
+            if (mStreamProps.emptyTrack)
+                possibleEmptyTrack = true;
+            if (frameRate < 0.0f && mStreamProps.frameRate > 0.0f)
+                frameRate = mStreamProps.frameRate;
+        }
+        // Replays and skips back are read from the local cache
+        mCacheFactory = new PlaybackCache.Factory(getContext(),
+                mediaSourceUri, mDsFactory, this);
         ProgressiveMediaSource.Factory pmf = new ProgressiveMediaSource.Factory
-                (mDsFactory,
+                (mCacheFactory,
                         extFactory);
         MediaItem item = MediaItem.fromUri(mediaSourceUri);
         mMediaSource = pmf.createMediaSource(item);
         mMediaSource.setPossibleEmptyTrack(possibleEmptyTrack);
+        if (mStreamProps != null)
+            mMediaSource.setExpectedTrackCount(mStreamProps.getTrackCount());
+        if (mSeekTable != null && "true".equals(Settings.getString("pref_skip_breaks")))
+            mMediaSource.setSkipRanges(RecordedSkipList.fetch(mVideo, mSeekTable));
+        StartupTrace trace = mStartupTrace;
+        if (trace != null) {
+            mMediaSource.setStartupListener(new ProgressiveMediaSource.StartupListener() {
+                @Override
+                public void onExtractorSelected() {
+                    trace.mark(StartupTrace.PHASE_EXTRACTOR);
+                }
+
+                @Override
+                public void onPrepared() {
+                    trace.mark(StartupTrace.PHASE_PREPARED);
+                }
+            });
+        }
         mPlayer.setMediaSource(mMediaSource);
         mPlayer.prepare();
     }
@@ -734,6 +1166,7 @@ public class PlaybackFragment extends VideoSupportFragment
             setBookmark();
             mBookmark = 0;
             mVideo = v;
+            mStartupClickTime = SystemClock.elapsedRealtime();
             play(mVideo);
         }
 
@@ -749,6 +1182,7 @@ public class PlaybackFragment extends VideoSupportFragment
             // TODO: Refactor so that we can resume from bookmark
             mBookmark = 0;
             mVideo = v;
+            mStartupClickTime = SystemClock.elapsedRealtime();
         }
         play(mVideo);
     }
@@ -952,8 +1386,10 @@ public class PlaybackFragment extends VideoSupportFragment
 
     public void markWatched(boolean watched) {
         mWatched = watched;
-        new AsyncBackendCall(mVideo, mBookmark, mWatched,
-                null).execute(Video.ACTION_SET_WATCHED);
+        AsyncBackendCall call = new AsyncBackendCall(mVideo, mBookmark, mWatched,
+                null);
+        call.setLane(BackendScheduler.LANE_PLAYBACK);
+        call.execute(Video.ACTION_SET_WATCHED);
     }
 
     public void getFileLength() {
@@ -961,6 +1397,12 @@ public class PlaybackFragment extends VideoSupportFragment
                 this).execute(Video.ACTION_FILELENGTH);
     }
 
+    @Override
+    public void onDestroy() {
+        AsyncBackendCall.cancelAll(this);
+        super.onDestroy();
+    }
+
     @Override
     public void onPostExecute(AsyncBackendCall taskRunner) {
         if (getContext() == null)
@@ -968,6 +1410,7 @@ public class PlaybackFragment extends VideoSupportFragment
         int [] tasks = taskRunner.getTasks();
         switch (tasks[0]) {
             case Video.ACTION_FILELENGTH:
+                markStartup(StartupTrace.PHASE_FILE_LENGTH);
                 long fileLength = taskRunner.getFileLength();
                 // If file has got bigger, resume with bigger file
                 Log.i(TAG, CLASS + " File Length changed from " + mFileLength + " to " + fileLength);
@@ -980,7 +1423,7 @@ public class PlaybackFragment extends VideoSupportFragment
                         mIsBounded = false;
                         mBookmark = 0;
                         mPlaybackActionListener.priorSampleOffsetUs = 0;
-                        mOffsetBytes = mDataSource.getCurrentPos();
+                        mOffsetBytes = mCacheFactory.getReadPos();
                         mPlayerGlue.setOffsetMillis(mPlayerGlue.getCurrentPosition());
                         Log.i(TAG, CLASS + " Resuming Playback.");
                         play(mVideo);
@@ -994,10 +1437,6 @@ public class PlaybackFragment extends VideoSupportFragment
         }
     }
 
-    public void setDataSource(MythHttpDataSource mDataSource) {
-        this.mDataSource = mDataSource;
-    }
-
     public void tickle(boolean autohide, boolean showActions) {
         mPlayerGlue.setActions(showActions);
         setControlsOverlayAutoHideEnabled(false);
@@ -1191,8 +1630,7 @@ public class PlaybackFragment extends VideoSupportFragment
                 dirname = dirname + "%";
                 String subdirname = dirname + "%/%";
 
-                orderby = MainFragment.makeTitleSort
-                        (VideoContract.VideoEntry.COLUMN_FILENAME, '/');
+                orderby = new StringBuilder(VideoContract.VideoEntry.COLUMN_FILENAME_SORT);
                 StringBuilder where = new StringBuilder();
                 where   .append(VideoContract.VideoEntry.COLUMN_RECTYPE)
                         .append(" = ").append(VideoContract.VideoEntry.RECTYPE_VIDEO)
@@ -1261,7 +1699,7 @@ public class PlaybackFragment extends VideoSupportFragment
                         .append(VideoContract.VideoEntry.COLUMN_VIDEO_URL)
                         .append(" = ? ");
 
-                orderby = MainFragment.makeTitleSort(VideoContract.VideoEntry.COLUMN_TITLE, '^')
+                orderby = new StringBuilder(VideoContract.VideoEntry.COLUMN_TITLE_SORT)
                         .append(", ");
                 if ("airdate".equals(seq)) {
                     orderby.append(VideoContract.VideoEntry.COLUMN_AIRDATE).append(" ")
@@ -1322,15 +1760,7 @@ public class PlaybackFragment extends VideoSupportFragment
         }
     }
 
-    // Allowed fps values. 0.0f means unknown
-    private static final float[] FPS_VALUES = {
-            0.0f,  59.94f, 50.0f, 29.97f, 25.0f, 23.976f, 0.0f};
-    // Frame intervals in microsecs. Values below each of these are taken
-    // as being for the corresponding fps value above.
-    private static final long[] FPS_INTERVALS = {
-            15000, 18000,  30000, 35000,  40800, 43000, Long.MAX_VALUE};
-
-    class PlayerEventListener implements Player.EventListener {
+    class PlayerEventListener implements Player.EventListener, VideoListener {
         private int mDialogStatus = 0;
         private static final int DIALOG_NONE   = 0;
         private static final int DIALOG_ACTIVE = 1;
@@ -1349,72 +1779,59 @@ public class PlaybackFragment extends VideoSupportFragment
         @Override
         public void onPlaybackStateChanged(int state) {
             if (state == Player.STATE_READY && !playWhenPrepared) {
+                markStartup(StartupTrace.PHASE_READY);
+                stopFrameRateCheck();
                 if (frameRate < 0.0f) {
-                    SampleQueue[] sampleQueues = mMediaSource.getSampleQueues();
-                    for (SampleQueue sampleQueue : sampleQueues) {
-                        if (MimeTypes.isVideo(sampleQueue.getUpstreamFormat().sampleMimeType)) {
-                            long[] timesUs = sampleQueue.getTimesUs();
-                            int leng = sampleQueue.getWriteIndex();
-                            long[] sortedTimes = Arrays.copyOf(timesUs, leng);
-                            Arrays.sort(sortedTimes);
-                            int[] counters = new int[FPS_INTERVALS.length];
-                            for (int timeix = 1; timeix < sortedTimes.length; timeix++) {
-                                if (sortedTimes[timeix] == 0)
-                                    continue;
-                                for (int ivlix = 0; ivlix < FPS_INTERVALS.length; ivlix++) {
-                                    if (sortedTimes[timeix] - sortedTimes[timeix - 1]
-                                            < FPS_INTERVALS[ivlix]) {
-                                        counters[ivlix]++;
-                                        break;
-                                    }
-                                }
-                            }
-                            int maxix = 0;
-                            int maxcount = 0;
-                            // ignore the first and last which are "unknown".
-                            for (int ivlix = 1; ivlix < FPS_INTERVALS.length - 1; ivlix++) {
-                                if (counters[ivlix] > maxcount) {
-                                    maxcount = counters[ivlix];
-                                    maxix = ivlix;
-                                }
-                            }
-                            // if there is a mixture of 29.97 and 23.976, then select 29.97
-                            if (counters[3] > 5 && counters[5] > 5)
-                                maxix = 3;
-
-                            if (maxcount > 5)
-                                frameRate = FPS_VALUES[maxix];
-                            else
-                                frameRate = 0.0f;
-
-                            // Get estimated framerate for cases where timestamps are messed up
-                            if (frameRate < 1.0f && sortedTimes.length > 0) {
-                                long interval = sortedTimes[sortedTimes.length-1]
-                                        - sortedTimes[0];
-                                int frames = sortedTimes.length - 1;
-                                if (frames > 0 && interval > 0)
-                                    frameRate = (float) frames * 1_000_000.0f / (float)interval;
-                            }
-                            break;
-                        }
-                    }
+                    FrameRateEstimator estimator = getFrameRateEstimator();
+                    if (estimator != null)
+                        frameRate = estimator.getFrameRate();
                 }
-                if (posBookmark >= 0 && frameRate > 0.0f) {
-                    mBookmark = posBookmark * 100000 / (long) (frameRate * 100.0f);
-                    posBookmark = -1;
+                if (posBookmark >= 0) {
+                    RecordedSeekTable seekTable = RecordedSeekTable.getDone(mSeekTable);
+                    if (seekTable != null && !seekTable.isEmpty()) {
+                        mBookmark = seekTable.frameToMs(posBookmark);
+                        posBookmark = -1;
+                    } else if (frameRate > 0.0f) {
+                        mBookmark = posBookmark * 100000 / (long) (frameRate * 100.0f);
+                        posBookmark = -1;
+                    }
                 }
-                if (mBookmark > 0)
+                saveStreamProperties();
+                if (mBookmark > 0) {
                     mPlayerGlue.seekTo(mBookmark);
-                if (mFrameMatch && frameRate > 1.0f)
-                    setupRefreshRate();
+                    // The first frame shown was before the bookmark
+                    if (mStartupTrace != null)
+                        mStartupTrace.clear(StartupTrace.PHASE_FIRST_FRAME);
+                }
+                if (mFrameMatch && frameRate > 1.0f && !refreshRateChecked)
+                    setupRefreshRate(false);
+                else if (refreshRateSwitchTime > 0)
+                    // Allow the rest of the 3 seconds for the mode switch
+                    playWait((int) Math.max(0,
+                            refreshRateSwitchTime + 3000 - System.currentTimeMillis()), null);
                 else {
                     mPlayerGlue.playWhenPrepared();
                     playWhenPrepared = true;
+                    markStartup(StartupTrace.PHASE_PLAY_REQUESTED);
                     audioFix(5000, true);
                 }
             } // end of if (state == Player.STATE_READY)
         }
 
+        @Override
+        public void onRenderedFirstFrame() {
+            markStartup(StartupTrace.PHASE_FIRST_FRAME);
+            finishStartupTrace(false);
+        }
+
+        @Override
+        public void onIsPlayingChanged(boolean isPlaying) {
+            if (isPlaying) {
+                markStartup(StartupTrace.PHASE_PLAYING);
+                finishStartupTrace(false);
+            }
+        }
+
         @Override
         public void onPlaybackParametersChanged(PlaybackParameters playbackParameters) {
             int stretchPerc = Math.round(playbackParameters.speed * 100.0f);
@@ -1438,6 +1855,8 @@ public class PlaybackFragment extends VideoSupportFragment
             Throwable cause = null;
             if (ex != null)
                 Log.e(TAG, CLASS + " Player Error " + mVideo.title + " " + mVideo.videoUrl, ex);
+            if (mStreamProps != null && !playWhenPrepared)
+                discardStreamProperties();
             long now = System.currentTimeMillis();
             int recommendation = 0;
             boolean setPossibleEmptyTrack = false;